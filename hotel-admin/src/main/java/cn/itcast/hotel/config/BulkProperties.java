@@ -0,0 +1,18 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量导入接口的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.bulk")
+public class BulkProperties {
+    /**
+     * 每多少行提交一个事务,同时也是一条批量MQ消息包含的酒店数
+     */
+    private int chunkSize = 500;
+}
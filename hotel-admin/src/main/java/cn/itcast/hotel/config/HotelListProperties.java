@@ -0,0 +1,20 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 酒店列表接口的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.list")
+public class HotelListProperties {
+    /**
+     * 列表总数的刷新间隔,期间返回缓存的COUNT结果
+     */
+    private Duration countRefreshInterval = Duration.ofSeconds(10);
+}
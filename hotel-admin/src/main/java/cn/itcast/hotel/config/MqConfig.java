@@ -0,0 +1,28 @@
+package cn.itcast.hotel.config;
+
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+
+@Configuration
+public class MqConfig {
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    /**
+     * 发布的每条消息都带上发布时间,hotel-demo据此统计从修改到ES可见的同步延迟
+     */
+    @PostConstruct
+    public void stampPublishTime() {
+        rabbitTemplate.addBeforePublishPostProcessors(message -> {
+            if (message.getMessageProperties().getTimestamp() == null) {
+                message.getMessageProperties().setTimestamp(new Date());
+            }
+            return message;
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 发件箱投递配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.outbox")
+public class OutboxProperties {
+    /**
+     * 每次最多投递多少条
+     */
+    private int batchSize = 200;
+    /**
+     * 发件箱为空时多久检查一次
+     */
+    private Duration pollInterval = Duration.ofMillis(200);
+    /**
+     * 等待broker确认的时间,超时按失败处理
+     */
+    private Duration confirmTimeout = Duration.ofSeconds(5);
+    /**
+     * 认领的租约,必须大于confirmTimeout;实例在租约内没有处理完(例如崩溃),到期后其他实例重新认领
+     */
+    private Duration claimTimeout = Duration.ofMinutes(1);
+    /**
+     * 第一次失败后的重试间隔,之后每次翻倍
+     */
+    private Duration initialBackoff = Duration.ofSeconds(1);
+    private Duration maxBackoff = Duration.ofMinutes(5);
+}
@@ -21,4 +21,9 @@ public class MqConstants {
      * 删除的RoutingKey
      */
     public final static String HOTEL_DELETE_KEY = "hotel.delete";
+    /**
+     * 变更的版本号,取发件箱消息的id: 同一个酒店的修改要先锁住这一行再写发件箱,
+     * 后提交的修改分配到的id更大。hotel-demo据此丢弃乱序到达的旧变更
+     */
+    public final static String VERSION_HEADER = "x-hotel-version";
 }
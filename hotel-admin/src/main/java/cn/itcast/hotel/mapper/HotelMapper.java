@@ -1,7 +1,21 @@
 package cn.itcast.hotel.mapper;
 
 import cn.itcast.hotel.pojo.Hotel;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 
+import java.util.List;
+
 public interface HotelMapper extends BaseMapper<Hotel> {
+
+    /**
+     * 按id游标分页: WHERE id > lastId ORDER BY id LIMIT size
+     * 走主键索引,每页的代价与翻到第几页无关
+     */
+    default List<Hotel> selectAfterId(long lastId, int size) {
+        return selectList(new LambdaQueryWrapper<Hotel>()
+                .gt(Hotel::getId, lastId)
+                .orderByAsc(Hotel::getId)
+                .last("limit " + size));
+    }
 }
@@ -0,0 +1,32 @@
+package cn.itcast.hotel.mapper;
+
+import cn.itcast.hotel.pojo.HotelOutbox;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+import java.util.Date;
+import java.util.List;
+
+public interface HotelOutboxMapper extends BaseMapper<HotelOutbox> {
+
+    /**
+     * 认领一批到期的消息: UPDATE ... WHERE next_attempt_time <= now ORDER BY id LIMIT size,
+     * claimed_by设为本次认领的token,next_attempt_time推迟到租约结束。
+     * UPDATE逐行加锁后再判断条件,多个实例同时认领不会拿到同一行
+     * @return 认领到的行数
+     */
+    default int claim(String token, Date now, Date leaseEnd, int size) {
+        return update(null, new UpdateWrapper<HotelOutbox>()
+                .set("claimed_by", token)
+                .set("next_attempt_time", leaseEnd)
+                .le("next_attempt_time", now)
+                .last("order by id limit " + size));
+    }
+
+    default List<HotelOutbox> selectClaimed(String token) {
+        return selectList(new QueryWrapper<HotelOutbox>()
+                .eq("claimed_by", token)
+                .orderByAsc("id"));
+    }
+}
@@ -0,0 +1,190 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.config.OutboxProperties;
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.mapper.HotelOutboxMapper;
+import cn.itcast.hotel.pojo.HotelOutbox;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 把发件箱中的消息投递到MQ: 先认领一批到期的消息,按id顺序发送,等待broker的publisher confirm后删除,
+ * 失败的消息按指数退避稍后重试。
+ * 认领会把消息的next_attempt_time推迟到租约结束,多个admin实例不会同时投递同一行;
+ * 实例在租约内崩溃时由其他实例在租约到期后重新投递,所以同一条消息仍可能投递多次。
+ * 退避的消息会排到同一个酒店后来的消息后面,投递顺序不作保证: 消息头带着发件箱id作为版本号,
+ * hotel-demo写入ES时丢弃版本号不大于文档中已写入版本的变更,重复和乱序的消息不会覆盖较新的数据
+ */
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    @Autowired
+    private HotelOutboxMapper outboxMapper;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private OutboxProperties properties;
+
+    private final Object signal = new Object();
+
+    private volatile boolean running;
+
+    private Thread worker;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "outbox-relay");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        wakeUp();
+    }
+
+    /**
+     * 有新消息写入发件箱后调用,不用等到下一次轮询
+     */
+    public void wakeUp() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int relayed;
+            try {
+                relayed = relayBatch();
+            } catch (RuntimeException e) {
+                log.error("投递发件箱消息失败", e);
+                relayed = 0;
+            }
+            // 一批满了说明还有积压,立即继续
+            if (relayed < properties.getBatchSize()) {
+                synchronized (signal) {
+                    try {
+                        signal.wait(properties.getPollInterval().toMillis());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 本次处理的消息数
+     */
+    int relayBatch() {
+        // 1.认领一批到期的消息,租约内其他实例不会再取到
+        String token = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        int claimed = outboxMapper.claim(token, new Date(now),
+                new Date(now + properties.getClaimTimeout().toMillis()), properties.getBatchSize());
+        if (claimed == 0) {
+            return 0;
+        }
+        List<HotelOutbox> batch = outboxMapper.selectClaimed(token);
+        // 2.全部发送出去,再统一等待确认
+        List<CorrelationData> confirms = new ArrayList<>(batch.size());
+        for (HotelOutbox outbox : batch) {
+            confirms.add(send(outbox));
+        }
+        // 3.收集确认结果
+        long deadline = System.nanoTime() + properties.getConfirmTimeout().toNanos();
+        List<Long> delivered = new ArrayList<>(batch.size());
+        List<HotelOutbox> failed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (isConfirmed(confirms.get(i), deadline)) {
+                delivered.add(batch.get(i).getId());
+            } else {
+                failed.add(batch.get(i));
+            }
+        }
+        // 4.删除已确认的,推迟失败的
+        if (!delivered.isEmpty()) {
+            outboxMapper.deleteBatchIds(delivered);
+        }
+        for (HotelOutbox outbox : failed) {
+            backOff(outbox);
+        }
+        if (!failed.isEmpty()) {
+            log.warn("发件箱本批{}条消息中{}条未被确认,稍后重试", batch.size(), failed.size());
+        }
+        return batch.size();
+    }
+
+    /**
+     * @return 发送失败时返回null
+     */
+    private CorrelationData send(HotelOutbox outbox) {
+        CorrelationData correlation = new CorrelationData(String.valueOf(outbox.getId()));
+        // 没有content type的是旧格式的消息,消息体是酒店id
+        Object body = outbox.getContentType() == null ? (Object) Long.valueOf(outbox.getPayload()) : outbox.getPayload();
+        try {
+            rabbitTemplate.convertAndSend(MqConstants.HOTEL_EXCHANGE, outbox.getRoutingKey(), body, message -> {
+                if (outbox.getContentType() != null) {
+                    message.getMessageProperties().setContentType(outbox.getContentType());
+                }
+                // 同步延迟从写库时算起
+                message.getMessageProperties().setTimestamp(outbox.getCreateTime());
+                message.getMessageProperties().setHeader(MqConstants.VERSION_HEADER, outbox.getId());
+                return message;
+            }, correlation);
+            return correlation;
+        } catch (AmqpException e) {
+            log.warn("发送发件箱消息{}失败", outbox.getId(), e);
+            return null;
+        }
+    }
+
+    private boolean isConfirmed(CorrelationData correlation, long deadline) {
+        if (correlation == null) {
+            return false;
+        }
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            CorrelationData.Confirm confirm = correlation.getFuture().get(remaining, TimeUnit.NANOSECONDS);
+            return confirm.isAck();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    private void backOff(HotelOutbox outbox) {
+        int attempts = outbox.getAttempts() + 1;
+        long delay = properties.getInitialBackoff().toMillis() << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, properties.getMaxBackoff().toMillis());
+        HotelOutbox update = new HotelOutbox();
+        update.setId(outbox.getId());
+        update.setAttempts(attempts);
+        update.setNextAttemptTime(new Date(System.currentTimeMillis() + delay));
+        outboxMapper.updateById(update);
+    }
+}
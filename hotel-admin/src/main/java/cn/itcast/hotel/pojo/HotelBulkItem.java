@@ -0,0 +1,31 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * 批量导入中的一行: 酒店的字段加上操作类型
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class HotelBulkItem extends Hotel {
+
+    public static final String DELETE = "delete";
+
+    /**
+     * delete表示按id删除,其他值或为空表示新增或修改:
+     * id为空或者不存在时新增,否则修改不为空的字段
+     */
+    private String op;
+
+    public boolean isDelete() {
+        return DELETE.equalsIgnoreCase(op);
+    }
+
+    public Hotel toHotel() {
+        Hotel hotel = new Hotel();
+        BeanUtils.copyProperties(this, hotel);
+        return hotel;
+    }
+}
@@ -0,0 +1,38 @@
+package cn.itcast.hotel.pojo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * 批量导入的结果,出错时之前的批次已经提交,不会回滚
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HotelBulkResult {
+    /**
+     * 已提交的行数
+     */
+    private long rows;
+    private long inserted;
+    private long updated;
+    /**
+     * 没有写入的行数: 修改的字段和原来相同,或者删除时没有给出id
+     */
+    private long unchanged;
+    private long deleted;
+    /**
+     * 解析或写入失败的原因,失败的批次及之后的行都没有处理
+     */
+    private String error;
+
+    /**
+     * 累加一个已提交批次的结果
+     */
+    public void add(HotelBulkResult chunk) {
+        rows += chunk.rows;
+        inserted += chunk.inserted;
+        updated += chunk.updated;
+        unchanged += chunk.unchanged;
+        deleted += chunk.deleted;
+    }
+}
@@ -0,0 +1,68 @@
+package cn.itcast.hotel.pojo;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 一次修改实际改变了哪些字段,作为修改消息发给hotel-demo,
+ * 只改了不需要分词的字段时ES可以做局部更新,不用从数据库重新加载整个酒店
+ */
+@Data
+@NoArgsConstructor
+public class HotelChangeSet {
+    /**
+     * 只改这些字段时hotel-demo局部更新文档,与hotel-demo中HotelChangeSet.PARTIAL_UPDATE_FIELDS一致
+     */
+    private static final List<String> PARTIAL_UPDATE_FIELDS = Arrays.asList("price", "score", "starName");
+
+    private Long id;
+    /**
+     * 字段名(Hotel的属性名)到新值
+     */
+    private Map<String, Object> changes = new LinkedHashMap<>();
+
+    /**
+     * @param before 修改前的数据
+     * @param update 修改请求,为null的字段不会被updateById写入,不算修改
+     */
+    public static HotelChangeSet of(Hotel before, Hotel update) {
+        HotelChangeSet changeSet = new HotelChangeSet();
+        changeSet.setId(before.getId());
+        changeSet.diff("name", before.getName(), update.getName());
+        changeSet.diff("address", before.getAddress(), update.getAddress());
+        changeSet.diff("price", before.getPrice(), update.getPrice());
+        changeSet.diff("score", before.getScore(), update.getScore());
+        changeSet.diff("brand", before.getBrand(), update.getBrand());
+        changeSet.diff("city", before.getCity(), update.getCity());
+        changeSet.diff("starName", before.getStarName(), update.getStarName());
+        changeSet.diff("business", before.getBusiness(), update.getBusiness());
+        changeSet.diff("longitude", before.getLongitude(), update.getLongitude());
+        changeSet.diff("latitude", before.getLatitude(), update.getLatitude());
+        changeSet.diff("pic", before.getPic(), update.getPic());
+        if (!changeSet.isEmpty() && PARTIAL_UPDATE_FIELDS.containsAll(changeSet.changes.keySet())) {
+            // 局部更新带上这几个字段修改后的全部取值,乱序到达时hotel-demo按版本号整体覆盖,不会新旧值混在一起
+            changeSet.changes.putIfAbsent("price", before.getPrice());
+            changeSet.changes.putIfAbsent("score", before.getScore());
+            changeSet.changes.putIfAbsent("starName", before.getStarName());
+        }
+        return changeSet;
+    }
+
+    private void diff(String field, Object before, Object after) {
+        if (after != null && !Objects.equals(before, after)) {
+            changes.put(field, after);
+        }
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
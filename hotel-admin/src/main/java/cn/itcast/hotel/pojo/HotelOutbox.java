@@ -0,0 +1,49 @@
+package cn.itcast.hotel.pojo;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 待投递的酒店变更消息,表结构见 resources/db/tb_hotel_outbox.sql
+ */
+@Data
+@TableName("tb_hotel_outbox")
+public class HotelOutbox {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private String routingKey;
+    /**
+     * 酒店id,或者修改消息的JSON
+     */
+    private String payload;
+    /**
+     * 为null时payload是酒店id
+     */
+    private String contentType;
+    private Integer attempts;
+    /**
+     * 下一次可以投递的时间,被认领后是认领租约结束的时间
+     */
+    private Date nextAttemptTime;
+    /**
+     * 最近一次认领的token
+     */
+    private String claimedBy;
+    private Date createTime;
+
+    public static HotelOutbox of(String routingKey, String payload, String contentType) {
+        HotelOutbox outbox = new HotelOutbox();
+        Date now = new Date();
+        outbox.setRoutingKey(routingKey);
+        outbox.setPayload(payload);
+        outbox.setContentType(contentType);
+        outbox.setAttempts(0);
+        outbox.setNextAttemptTime(now);
+        outbox.setCreateTime(now);
+        return outbox;
+    }
+}
@@ -1,13 +1,22 @@
 package cn.itcast.hotel.pojo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 import java.util.List;
 
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class PageResult {
+    /**
+     * 定期刷新的总数,可能稍有滞后
+     */
     private Long total;
     private List<Hotel> hotels;
+    /**
+     * 本页最后一个酒店的id,作为cursor参数获取下一页;没有更多数据时为null
+     */
+    private Long cursor;
 
     public PageResult() {
     }
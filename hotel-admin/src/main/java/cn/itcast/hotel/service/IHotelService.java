@@ -1,8 +1,44 @@
 package cn.itcast.hotel.service;
 
 import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelBulkItem;
+import cn.itcast.hotel.pojo.HotelBulkResult;
+import cn.itcast.hotel.pojo.HotelChangeSet;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 写操作在同一个事务中写入发件箱,由OutboxRelay异步通知hotel-demo
+ */
 public interface IHotelService extends IService<Hotel> {
 
+    void saveHotel(Hotel hotel);
+
+    /**
+     * 修改酒店并返回实际改变的字段
+     * @return 酒店不存在时返回null
+     */
+    HotelChangeSet updateWithChanges(Hotel hotel);
+
+    void deleteHotel(Long id);
+
+    /**
+     * 批量新增、修改、删除: 边读边处理,每chunkSize行在一个事务中批量写库,
+     * 并写入一条带着这批酒店id的发件箱消息
+     * @param items 流式解析的请求体,读取时的解析错误会记录在结果中
+     */
+    HotelBulkResult bulkImport(Iterator<HotelBulkItem> items);
+
+    /**
+     * 按id游标分页查询
+     * @param lastId 上一页最后一个酒店的id,第一页传0
+     */
+    List<Hotel> listAfterId(long lastId, int size);
+
+    /**
+     * @return 后台定期刷新的酒店总数,不在每次分页时执行COUNT
+     */
+    long cachedCount();
 }
@@ -1,11 +1,233 @@
 package cn.itcast.hotel.service.impl;
 
+import cn.itcast.hotel.config.BulkProperties;
+import cn.itcast.hotel.config.HotelListProperties;
+import cn.itcast.hotel.constants.MqConstants;
 import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.mapper.HotelOutboxMapper;
 import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelBulkItem;
+import cn.itcast.hotel.pojo.HotelBulkResult;
+import cn.itcast.hotel.pojo.HotelChangeSet;
+import cn.itcast.hotel.pojo.HotelOutbox;
 import cn.itcast.hotel.service.IHotelService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
 @Service
 public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHotelService {
+
+    @Autowired
+    private HotelOutboxMapper outboxMapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private HotelListProperties listProperties;
+
+    @Autowired
+    private BulkProperties bulkProperties;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final ScheduledExecutorService countRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hotel-count-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 最近一次COUNT的结果,还没有查询过时为-1
+     */
+    private volatile long cachedCount = -1;
+
+    @PostConstruct
+    public void startCountRefresher() {
+        long interval = listProperties.getCountRefreshInterval().toMillis();
+        countRefresher.scheduleWithFixedDelay(this::refreshCount, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopCountRefresher() {
+        countRefresher.shutdownNow();
+    }
+
+    @Override
+    @Transactional
+    public void saveHotel(Hotel hotel) {
+        save(hotel);
+        outboxMapper.insert(HotelOutbox.of(MqConstants.HOTEL_INSERT_KEY, String.valueOf(hotel.getId()), null));
+    }
+
+    @Override
+    @Transactional
+    public HotelChangeSet updateWithChanges(Hotel hotel) {
+        // 锁住这一行,保证比较的是本次修改之前的数据
+        Hotel before = lambdaQuery().eq(Hotel::getId, hotel.getId()).last("for update").one();
+        if (before == null) {
+            return null;
+        }
+        HotelChangeSet changeSet = HotelChangeSet.of(before, hotel);
+        if (!changeSet.isEmpty()) {
+            updateById(hotel);
+            // 修改消息带上改变的字段,hotel-demo据此决定局部更新还是重建文档
+            outboxMapper.insert(HotelOutbox.of(MqConstants.HOTEL_INSERT_KEY,
+                    toJson(changeSet), MessageProperties.CONTENT_TYPE_JSON));
+        }
+        return changeSet;
+    }
+
+    @Override
+    @Transactional
+    public void deleteHotel(Long id) {
+        removeById(id);
+        outboxMapper.insert(HotelOutbox.of(MqConstants.HOTEL_DELETE_KEY, String.valueOf(id), null));
+    }
+
+    @Override
+    public HotelBulkResult bulkImport(Iterator<HotelBulkItem> items) {
+        HotelBulkResult result = new HotelBulkResult();
+        int chunkSize = bulkProperties.getChunkSize();
+        List<HotelBulkItem> chunk = new ArrayList<>(chunkSize);
+        try {
+            while (items.hasNext()) {
+                chunk.add(items.next());
+                if (chunk.size() == chunkSize) {
+                    importChunk(chunk, result);
+                    chunk.clear();
+                }
+            }
+            importChunk(chunk, result);
+        } catch (RuntimeException e) {
+            log.warn("批量导入在第{}行之后失败", result.getRows(), e);
+            result.setError(e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 一批行在一个事务中写入: 新增用saveBatch,修改用updateBatchById,删除用removeByIds,
+     * 每种操作写一条发件箱消息,消息体是酒店id或修改的字段组成的JSON数组
+     */
+    private void importChunk(List<HotelBulkItem> chunk, HotelBulkResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        HotelBulkResult committed = transactionTemplate.execute(status -> {
+            // 1.锁住要修改的行,和单条修改一样比较修改前的数据
+            List<Long> ids = chunk.stream()
+                    .filter(item -> !item.isDelete() && item.getId() != null)
+                    .map(Hotel::getId)
+                    .collect(Collectors.toList());
+            Map<Long, Hotel> existing = ids.isEmpty() ? new HashMap<>() : lambdaQuery()
+                    .in(Hotel::getId, ids)
+                    .last("for update")
+                    .list().stream()
+                    .collect(Collectors.toMap(Hotel::getId, Function.identity()));
+            // 2.按操作分组
+            List<Hotel> inserts = new ArrayList<>();
+            List<Hotel> updates = new ArrayList<>();
+            List<HotelChangeSet> changeSets = new ArrayList<>();
+            List<Long> deletes = new ArrayList<>();
+            for (HotelBulkItem item : chunk) {
+                if (item.isDelete()) {
+                    if (item.getId() != null) {
+                        deletes.add(item.getId());
+                    }
+                    continue;
+                }
+                Hotel hotel = item.toHotel();
+                Hotel before = hotel.getId() == null ? null : existing.get(hotel.getId());
+                if (before == null) {
+                    inserts.add(hotel);
+                    continue;
+                }
+                HotelChangeSet changeSet = HotelChangeSet.of(before, hotel);
+                if (!changeSet.isEmpty()) {
+                    updates.add(hotel);
+                    changeSets.add(changeSet);
+                }
+            }
+            // 3.批量写库,连接参数rewriteBatchedStatements让驱动把一批语句合并发送
+            if (!inserts.isEmpty()) {
+                saveBatch(inserts, inserts.size());
+                outboxMapper.insert(HotelOutbox.of(MqConstants.HOTEL_INSERT_KEY,
+                        toJson(inserts.stream().map(Hotel::getId).collect(Collectors.toList())),
+                        MessageProperties.CONTENT_TYPE_JSON));
+            }
+            if (!updates.isEmpty()) {
+                updateBatchById(updates, updates.size());
+                outboxMapper.insert(HotelOutbox.of(MqConstants.HOTEL_INSERT_KEY,
+                        toJson(changeSets), MessageProperties.CONTENT_TYPE_JSON));
+            }
+            if (!deletes.isEmpty()) {
+                removeByIds(deletes);
+                outboxMapper.insert(HotelOutbox.of(MqConstants.HOTEL_DELETE_KEY,
+                        toJson(deletes), MessageProperties.CONTENT_TYPE_JSON));
+            }
+            HotelBulkResult chunkResult = new HotelBulkResult();
+            chunkResult.setRows(chunk.size());
+            chunkResult.setInserted(inserts.size());
+            chunkResult.setUpdated(updates.size());
+            chunkResult.setDeleted(deletes.size());
+            chunkResult.setUnchanged(chunk.size() - inserts.size() - updates.size() - deletes.size());
+            return chunkResult;
+        });
+        result.add(committed);
+    }
+
+    @Override
+    public List<Hotel> listAfterId(long lastId, int size) {
+        return baseMapper.selectAfterId(lastId, size);
+    }
+
+    @Override
+    public long cachedCount() {
+        long count = cachedCount;
+        if (count < 0) {
+            // 启动后第一次刷新还没完成
+            count = count();
+            cachedCount = count;
+        }
+        return count;
+    }
+
+    private void refreshCount() {
+        try {
+            cachedCount = count();
+        } catch (RuntimeException e) {
+            log.warn("刷新酒店总数失败,继续使用上一次的结果", e);
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -1,17 +1,30 @@
 package cn.itcast.hotel.web;
 
-import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.mq.OutboxRelay;
 import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelBulkItem;
+import cn.itcast.hotel.pojo.HotelBulkResult;
+import cn.itcast.hotel.pojo.HotelChangeSet;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.service.IHotelService;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidParameterException;
 import java.sql.Wrapper;
+import java.util.List;
 
 @RestController
 @RequestMapping("hotel")
@@ -21,27 +34,55 @@ public class HotelController {
     private IHotelService hotelService;
 
     @Autowired
-    private RabbitTemplate rabbitTemplate;
+    private OutboxRelay outboxRelay;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ObjectReader ndjsonReader;
+
+    private ObjectReader csvReader;
+
+    @PostConstruct
+    public void initBulkReaders() {
+        ndjsonReader = objectMapper.readerFor(HotelBulkItem.class);
+        // 第一行是列名,空单元格表示不修改这个字段
+        CsvMapper csvMapper = new CsvMapper();
+        csvMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        csvReader = csvMapper.readerFor(HotelBulkItem.class)
+                .with(CsvSchema.emptySchema().withHeader().withNullValue(""));
+    }
 
     @GetMapping("/{id}")
     public Hotel queryById(@PathVariable("id") Long id){
         return hotelService.getById(id);
     }
 
+    /**
+     * 带cursor时按id游标翻页,不带时按page跳页;两种方式都不执行COUNT,总数取定期刷新的缓存值
+     * @param cursor 上一页响应中的cursor,第一页传0
+     */
     @GetMapping("/list")
     public PageResult hotelList(
             @RequestParam(value = "page", defaultValue = "1") Integer page,
-            @RequestParam(value = "size", defaultValue = "1") Integer size
+            @RequestParam(value = "size", defaultValue = "1") Integer size,
+            @RequestParam(value = "cursor", required = false) Long cursor
     ){
-        Page<Hotel> result = hotelService.page(new Page<>(page, size));
+        List<Hotel> hotels = cursor != null
+                ? hotelService.listAfterId(cursor, size)
+                : hotelService.page(new Page<>(page, size, false)).getRecords();
 
-        return new PageResult(result.getTotal(), result.getRecords());
+        PageResult result = new PageResult(hotelService.cachedCount(), hotels);
+        if (hotels.size() == size) {
+            result.setCursor(hotels.get(hotels.size() - 1).getId());
+        }
+        return result;
     }
 
     @PostMapping
     public void saveHotel(@RequestBody Hotel hotel){
-        hotelService.save(hotel);
-        rabbitTemplate.convertAndSend(MqConstants.HOTEL_EXCHANGE,MqConstants.HOTEL_INSERT_KEY,hotel.getId());
+        hotelService.saveHotel(hotel);
+        outboxRelay.wakeUp();
     }
 
     @PutMapping()
@@ -49,15 +90,37 @@ public class HotelController {
         if (hotel.getId() == null) {
             throw new InvalidParameterException("id不能为空");
         }
-        hotelService.updateById(hotel);
-        rabbitTemplate.convertAndSend(MqConstants.HOTEL_EXCHANGE,MqConstants.HOTEL_INSERT_KEY,hotel.getId());
+        HotelChangeSet changeSet = hotelService.updateWithChanges(hotel);
+        if (changeSet == null) {
+            throw new InvalidParameterException("酒店不存在");
+        }
+        if (!changeSet.isEmpty()) {
+            outboxRelay.wakeUp();
+        }
+    }
 
+    /**
+     * 批量新增、修改、删除,请求体是NDJSON(每行一个酒店)或带列名的CSV,
+     * 每行可以带op字段,delete表示删除。请求体边读边处理,不会整个读入内存
+     */
+    @PostMapping(value = "/bulk", consumes = {"application/x-ndjson", "text/csv"})
+    public HotelBulkResult bulk(HttpServletRequest request) throws IOException {
+        ObjectReader reader = request.getContentType().startsWith("text/csv") ? csvReader : ndjsonReader;
+        HotelBulkResult result;
+        try (InputStream in = request.getInputStream();
+             MappingIterator<HotelBulkItem> items = reader.readValues(in)) {
+            result = hotelService.bulkImport(items);
+        }
+        if (result.getRows() > 0) {
+            outboxRelay.wakeUp();
+        }
+        return result;
     }
 
     @DeleteMapping("/{id}")
     public void deleteById(@PathVariable("id") Long id) {
-        hotelService.removeById(id);
-        rabbitTemplate.convertAndSend(MqConstants.HOTEL_EXCHANGE,MqConstants.HOTEL_DELETE_KEY,id);
+        hotelService.deleteHotel(id);
+        outboxRelay.wakeUp();
 
     }
 }
@@ -0,0 +1,20 @@
+-- 酒店变更消息的发件箱,与tb_hotel的修改在同一个事务中写入,由OutboxRelay异步投递到MQ
+CREATE TABLE IF NOT EXISTS `tb_hotel_outbox` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `routing_key` varchar(64) NOT NULL COMMENT '投递到hotel.topic的RoutingKey',
+  `payload` mediumtext NOT NULL COMMENT '酒店id,或者修改消息的JSON;批量导入时是一整批的JSON数组,可达几百KB',
+  `content_type` varchar(64) DEFAULT NULL COMMENT '为空时payload是酒店id',
+  `attempts` int(11) NOT NULL DEFAULT '0' COMMENT '已投递失败的次数',
+  `next_attempt_time` datetime NOT NULL COMMENT '下一次可以投递的时间,被认领后是租约结束的时间',
+  `claimed_by` varchar(64) DEFAULT NULL COMMENT '最近一次认领的token',
+  `create_time` datetime NOT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_next_attempt_time` (`next_attempt_time`),
+  KEY `idx_claimed_by` (`claimed_by`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 已有的表升级
+-- ALTER TABLE `tb_hotel_outbox`
+--   MODIFY COLUMN `payload` mediumtext NOT NULL COMMENT '酒店id,或者修改消息的JSON;批量导入时是一整批的JSON数组,可达几百KB',
+--   ADD COLUMN `claimed_by` varchar(64) DEFAULT NULL COMMENT '最近一次认领的token' AFTER `next_attempt_time`,
+--   ADD KEY `idx_claimed_by` (`claimed_by`);
@@ -0,0 +1,106 @@
+package cn.itcast.hotel.service;
+
+import cn.itcast.hotel.config.BulkProperties;
+import cn.itcast.hotel.mapper.HotelOutboxMapper;
+import cn.itcast.hotel.pojo.HotelBulkItem;
+import cn.itcast.hotel.pojo.HotelBulkResult;
+import cn.itcast.hotel.pojo.HotelOutbox;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 测试结束后回滚,批量导入的事务加入测试的事务
+ */
+@SpringBootTest
+@Transactional
+class HotelBulkImportTest {
+
+    @Autowired
+    private IHotelService hotelService;
+
+    @Autowired
+    private HotelOutboxMapper outboxMapper;
+
+    @Autowired
+    private BulkProperties bulkProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void testFullChunkFitsInOneOutboxRow() throws Exception {
+        int chunkSize = bulkProperties.getChunkSize();
+        // 1.新增一整批
+        List<HotelBulkItem> inserts = new ArrayList<>(chunkSize);
+        for (int i = 0; i < chunkSize; i++) {
+            inserts.add(item(null, i, "批量导入测试酒店"));
+        }
+        long lastOutboxId = lastOutboxId();
+        HotelBulkResult result = hotelService.bulkImport(inserts.iterator());
+        assertNull(result.getError());
+        assertEquals(chunkSize, result.getInserted());
+        List<HotelOutbox> rows = outboxAfter(lastOutboxId);
+        assertEquals(1, rows.size());
+        List<Long> ids = objectMapper.readValue(rows.get(0).getPayload(), new TypeReference<List<Long>>() {
+        });
+        assertEquals(chunkSize, ids.size());
+
+        // 2.修改这一批的所有字段,消息是一整批完整的修改集合
+        List<HotelBulkItem> updates = new ArrayList<>(chunkSize);
+        for (int i = 0; i < chunkSize; i++) {
+            updates.add(item(ids.get(i), i + 1, "批量导入测试酒店(修改后)"));
+        }
+        lastOutboxId = rows.get(0).getId();
+        result = hotelService.bulkImport(updates.iterator());
+        assertNull(result.getError());
+        assertEquals(chunkSize, result.getUpdated());
+        rows = outboxAfter(lastOutboxId);
+        assertEquals(1, rows.size());
+        String payload = rows.get(0).getPayload();
+        // 原来的varchar(4096)放不下
+        assertTrue(payload.length() > 4096);
+        assertEquals(chunkSize, objectMapper.readTree(payload).size());
+    }
+
+    private static HotelBulkItem item(Long id, int i, String name) {
+        HotelBulkItem item = new HotelBulkItem();
+        item.setId(id);
+        item.setName(name + i);
+        item.setAddress("上海市浦东新区世纪大道" + i + "号");
+        item.setPrice(100 + i);
+        item.setScore(30 + i % 20);
+        item.setBrand("测试品牌" + i % 10);
+        item.setCity("上海");
+        item.setStarName(i % 2 == 0 ? "三钻" : "四钻");
+        item.setBusiness("陆家嘴");
+        item.setLongitude("121.5" + i);
+        item.setLatitude("31.2" + i);
+        item.setPic("https://m.tuniucdn.com/fb3/s1/2n9c/test_" + name.length() + "_" + i + "_w200_h200_c1_t0.jpg");
+        return item;
+    }
+
+    private long lastOutboxId() {
+        List<HotelOutbox> last = outboxMapper.selectList(new QueryWrapper<HotelOutbox>()
+                .orderByDesc("id")
+                .last("limit 1"));
+        return last.isEmpty() ? 0 : last.get(0).getId();
+    }
+
+    private List<HotelOutbox> outboxAfter(long id) {
+        return outboxMapper.selectList(new QueryWrapper<HotelOutbox>()
+                .gt("id", id)
+                .orderByAsc("id"));
+    }
+}
@@ -0,0 +1,210 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.fixture.HotelFixture;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static cn.itcast.hotel.fixture.HotelFixture.BRANDS;
+import static cn.itcast.hotel.fixture.HotelFixture.BUSINESSES;
+import static cn.itcast.hotel.fixture.HotelFixture.CITIES;
+import static cn.itcast.hotel.fixture.HotelFixture.CITY_CENTERS;
+import static cn.itcast.hotel.fixture.HotelFixture.SEED;
+import static cn.itcast.hotel.fixture.HotelFixture.STARS;
+import static cn.itcast.hotel.fixture.HotelFixture.pick;
+
+/**
+ * 基准测试用的数据集: 酒店数据来自hotel-demo测试中的HotelFixture,和压测使用同一份,
+ * 在此基础上生成查询参数和ES响应样本,随机种子固定,每次生成的数据完全相同。
+ * 可以单独运行main方法把数据和响应样本输出到目录中查看
+ */
+public final class HotelDataset {
+
+    /**
+     * 只注册响应中用到的聚合和suggest类型
+     */
+    private static final NamedXContentRegistry REGISTRY = new NamedXContentRegistry(Arrays.asList(
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(StringTerms.NAME),
+                    (p, c) -> ParsedStringTerms.fromXContent(p, (String) c)),
+            new NamedXContentRegistry.Entry(Suggest.Suggestion.class,
+                    new ParseField(CompletionSuggestionBuilder.SUGGESTION_NAME),
+                    (p, c) -> CompletionSuggestion.fromXContent(p, (String) c))
+    ));
+
+    private HotelDataset() {
+    }
+
+    public static List<Hotel> hotels(int count) {
+        return HotelFixture.hotels(count);
+    }
+
+    public static List<HotelDoc> hotelDocs(int count) {
+        List<HotelDoc> docs = new ArrayList<>(count);
+        for (Hotel hotel : hotels(count)) {
+            docs.add(new HotelDoc(hotel));
+        }
+        return docs;
+    }
+
+    /**
+     * 覆盖前端的几种典型组合: 只有关键字、关键字加过滤条件、价格区间、按距离排序
+     */
+    public static List<RequestParams> requestParams(int count) {
+        Random random = new Random(SEED);
+        List<RequestParams> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RequestParams params = new RequestParams();
+            params.setPage(1 + random.nextInt(5));
+            params.setSize(20);
+            if (random.nextInt(4) > 0) {
+                params.setKey(random.nextBoolean() ? pick(random, BRANDS) : pick(random, BUSINESSES));
+            }
+            if (random.nextBoolean()) {
+                params.setCity(pick(random, CITIES));
+            }
+            if (random.nextInt(3) == 0) {
+                params.setBrand(pick(random, BRANDS));
+            }
+            if (random.nextInt(3) == 0) {
+                params.setStarName(pick(random, STARS));
+            }
+            if (random.nextInt(3) == 0) {
+                params.setMinPrice(random.nextInt(5) * 100);
+                params.setMaxPrice(params.getMinPrice() + 300);
+            }
+            if (random.nextInt(4) == 0) {
+                int city = random.nextInt(CITIES.length);
+                params.setLocation(CITY_CENTERS[city][0] + ", " + CITY_CENTERS[city][1]);
+            }
+            list.add(params);
+        }
+        return list;
+    }
+
+    /**
+     * 生成一页列表查询的响应,格式与RestHighLevelClient收到的一致(聚合名带typed_keys前缀)
+     * @param size 本页条数
+     * @param geoSort 是否按距离排序,决定每条hit是否带sort值
+     * @param withFilters 是否附带品牌、城市、星级聚合
+     */
+    public static String searchResponse(int size, boolean geoSort, boolean withFilters) {
+        Random random = new Random(SEED);
+        JSONArray hits = new JSONArray();
+        for (HotelDoc doc : hotelDocs(size)) {
+            JSONObject hit = new JSONObject(true);
+            hit.put("_index", "hotel");
+            hit.put("_type", "_doc");
+            hit.put("_id", doc.getId().toString());
+            hit.put("_score", geoSort ? null : 1.0 + random.nextDouble() * 10);
+            hit.put("_source", JSON.parseObject(JSON.toJSONString(doc)));
+            if (geoSort) {
+                hit.put("sort", Arrays.asList(random.nextDouble() * 20));
+            }
+            hits.add(hit);
+        }
+        JSONObject response = new JSONObject(true);
+        response.put("took", 7);
+        response.put("timed_out", false);
+        response.put("_shards", shards());
+        JSONObject searchHits = new JSONObject(true);
+        JSONObject total = new JSONObject(true);
+        total.put("value", 201);
+        total.put("relation", "eq");
+        searchHits.put("total", total);
+        searchHits.put("max_score", null);
+        searchHits.put("hits", hits);
+        response.put("hits", searchHits);
+        if (withFilters) {
+            JSONObject aggregations = new JSONObject(true);
+            aggregations.put("sterms#brandAgg", terms(random, BRANDS));
+            aggregations.put("sterms#cityAgg", terms(random, CITIES));
+            aggregations.put("sterms#starAgg", terms(random, STARS));
+            response.put("aggregations", aggregations);
+        }
+        return JSON.toJSONString(response, SerializerFeature.WriteMapNullValue);
+    }
+
+    /**
+     * 解析响应JSON,与RestHighLevelClient的解析方式相同
+     */
+    public static SearchResponse parseSearchResponse(String json) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(REGISTRY,
+                DeprecationHandler.IGNORE_DEPRECATIONS, json.getBytes(StandardCharsets.UTF_8))) {
+            return SearchResponse.fromXContent(parser);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static JSONObject shards() {
+        JSONObject shards = new JSONObject(true);
+        shards.put("total", 1);
+        shards.put("successful", 1);
+        shards.put("skipped", 0);
+        shards.put("failed", 0);
+        return shards;
+    }
+
+    private static JSONObject terms(Random random, String[] keys) {
+        JSONArray buckets = new JSONArray();
+        for (String key : keys) {
+            Map<String, Object> bucket = new LinkedHashMap<>();
+            bucket.put("key", key);
+            bucket.put("doc_count", 1 + random.nextInt(50));
+            buckets.add(bucket);
+        }
+        JSONObject terms = new JSONObject(true);
+        terms.put("doc_count_error_upper_bound", 0);
+        terms.put("sum_other_doc_count", 0);
+        terms.put("buckets", buckets);
+        return terms;
+    }
+
+    /**
+     * 输出数据集和响应样本: java -cp benchmarks.jar cn.itcast.hotel.benchmark.HotelDataset [目录]
+     */
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "fixtures");
+        Files.createDirectories(dir);
+        try (Writer writer = Files.newBufferedWriter(dir.resolve("hotels.json"), StandardCharsets.UTF_8)) {
+            writer.write(JSON.toJSONString(hotels(1000), true));
+        }
+        for (int size : new int[]{20, 100}) {
+            write(dir.resolve("search-" + size + ".json"), searchResponse(size, false, true));
+            write(dir.resolve("search-geo-" + size + ".json"), searchResponse(size, true, true));
+        }
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
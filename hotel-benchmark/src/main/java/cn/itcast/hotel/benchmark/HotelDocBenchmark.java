@@ -0,0 +1,64 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import com.alibaba.fastjson.JSON;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入ES前的转换: HotelDoc(Hotel)构造(含suggestion拆分)和fastjson序列化
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HotelDocBenchmark {
+
+    private static final int COUNT = 1024;
+
+    private List<Hotel> hotels;
+
+    private List<HotelDoc> docs;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        hotels = HotelDataset.hotels(COUNT);
+        docs = HotelDataset.hotelDocs(COUNT);
+    }
+
+    @Benchmark
+    public HotelDoc convert() {
+        return new HotelDoc(hotels.get(next()));
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JSON.toJSONString(docs.get(next()));
+    }
+
+    @Benchmark
+    public String convertAndToJson() {
+        return JSON.toJSONString(new HotelDoc(hotels.get(next())));
+    }
+
+    private int next() {
+        index = (index + 1) & (COUNT - 1);
+        return index;
+    }
+}
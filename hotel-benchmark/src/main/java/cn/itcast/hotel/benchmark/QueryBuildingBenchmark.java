@@ -0,0 +1,70 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.search.HotelQueryBuilder;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 列表查询DSL的构建(bool + function_score + 距离排序 + 聚合)和序列化成请求体
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBuildingBenchmark {
+
+    private static final int COUNT = 256;
+
+    private List<RequestParams> params;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        params = HotelDataset.requestParams(COUNT);
+    }
+
+    @Benchmark
+    public SearchRequest build() {
+        return buildRequest(params.get(next()));
+    }
+
+    @Benchmark
+    public BytesReference buildAndSerialize() throws IOException {
+        SearchRequest request = buildRequest(params.get(next()));
+        return XContentHelper.toXContent(request.source(), XContentType.JSON, false);
+    }
+
+    private static SearchRequest buildRequest(RequestParams params) {
+        SearchRequest request = new SearchRequest("hotel");
+        HotelQueryBuilder.buildBasicQuery(params, request);
+        HotelQueryBuilder.buildAggregation(request);
+        request.source().from((params.getPage() - 1) * params.getSize()).size(params.getSize());
+        HotelQueryBuilder.buildGeoSort(params, request);
+        return request;
+    }
+
+    private int next() {
+        index = (index + 1) & (COUNT - 1);
+        return index;
+    }
+}
@@ -0,0 +1,85 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.search.HotelResponseParser;
+import com.alibaba.fastjson.JSON;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 搜索响应的解析: handleResponse、聚合结果解析,以及从响应JSON开始的完整解析
+ * fastjsonDecode是改用流式解码之前的做法,作为对照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+
+    @Param({"20", "100"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean geoSort;
+
+    private String json;
+
+    private SearchResponse response;
+
+    @Setup
+    public void setup() {
+        json = HotelDataset.searchResponse(size, geoSort, true);
+        response = HotelDataset.parseSearchResponse(json);
+    }
+
+    @Benchmark
+    public PageResult handleResponse() {
+        return HotelResponseParser.handleResponse(response, geoSort);
+    }
+
+    @Benchmark
+    public List<HotelDoc> fastjsonDecode() {
+        List<HotelDoc> hotels = new ArrayList<>();
+        for (SearchHit hit : response.getHits().getHits()) {
+            hotels.add(JSON.parseObject(hit.getSourceAsString(), HotelDoc.class));
+        }
+        return hotels;
+    }
+
+    @Benchmark
+    public List<String> getAggByName() {
+        return HotelResponseParser.getAggByName(response.getAggregations(), "brandAgg");
+    }
+
+    @Benchmark
+    public Map<String, List<String>> handleFilters() {
+        return HotelResponseParser.handleFilters(response.getAggregations());
+    }
+
+    /**
+     * 客户端解析响应体加上handleResponse,即一次列表查询在应用侧的全部解析开销
+     */
+    @Benchmark
+    public PageResult parseAndHandle() {
+        return HotelResponseParser.handleResponse(HotelDataset.parseSearchResponse(json), geoSort);
+    }
+}
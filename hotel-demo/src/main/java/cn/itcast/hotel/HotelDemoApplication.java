@@ -3,8 +3,8 @@ package cn.itcast.hotel;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
-import org.apache.http.HttpHost;
-import org.elasticsearch.client.RestClient;
+import cn.itcast.hotel.config.ElasticsearchClientFactory;
+import cn.itcast.hotel.config.ElasticsearchProperties;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
@@ -21,11 +21,17 @@ public class HotelDemoApplication extends SpringBootServletInitializer {
         SpringApplication.run(HotelDemoApplication.class, args);
     }
 
+    /**
+     * 同时作为MeterBinder注册连接池指标
+     */
     @Bean
-    public RestHighLevelClient client(){
-        return new RestHighLevelClient(RestClient.builder(
-                HttpHost.create("http://43.139.46.197:9200")
-        ));
+    public ElasticsearchClientFactory elasticsearchClientFactory(ElasticsearchProperties properties){
+        return new ElasticsearchClientFactory(properties);
+    }
+
+    @Bean
+    public RestHighLevelClient client(ElasticsearchClientFactory factory){
+        return factory.create();
     }
 
     @Override
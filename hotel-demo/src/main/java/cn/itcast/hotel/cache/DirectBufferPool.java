@@ -0,0 +1,75 @@
+package cn.itcast.hotel.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外缓存的direct ByteBuffer池
+ * direct内存只有在ByteBuffer对象被GC回收后才释放,频繁allocateDirect会让堆外占用远超缓存容量;
+ * 这里按2的幂分级复用: 淘汰的缓冲区放回池中,下一次写入同级大小时直接取用。
+ * 池中空闲的总字节数不超过maxPooledBytes,超出的缓冲区不再复用,交给GC回收
+ */
+class DirectBufferPool {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private final long maxPooledBytes;
+
+    private final Map<Integer, Queue<ByteBuffer>> free = new ConcurrentHashMap<>();
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    DirectBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @return 容量不小于size的缓冲区,position为0,limit为size
+     */
+    ByteBuffer acquire(int size) {
+        int capacity = capacityFor(size);
+        ByteBuffer buffer = free.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>()).poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-capacity);
+        } else {
+            allocatedBytes.addAndGet(capacity);
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * 归还后调用方不能再使用这个缓冲区
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (pooledBytes.addAndGet(capacity) <= maxPooledBytes) {
+            free.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>()).offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-capacity);
+            allocatedBytes.addAndGet(-capacity);
+        }
+    }
+
+    /**
+     * @return 分配过且还没有交给GC的字节数,包括使用中的和池中空闲的
+     */
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    long pooledBytes() {
+        return pooledBytes.get();
+    }
+
+    static int capacityFor(int size) {
+        return size <= MIN_CAPACITY ? MIN_CAPACITY : Integer.highestOneBit(size - 1) << 1;
+    }
+}
@@ -0,0 +1,97 @@
+package cn.itcast.hotel.cache;
+
+import cn.itcast.hotel.config.HotelCacheProperties;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * getFilters聚合结果的本地缓存
+ * 聚合结果只在酒店新增或删除时才会变化,由MQ监听器负责失效,
+ * 命中、未命中和淘汰次数通过 /actuator/metrics/cache.* 暴露;
+ * 另外保留每组条件最近一次的结果,ES不可用时作为降级结果
+ */
+@Component
+public class FiltersCache {
+
+    private static final ScheduledExecutorService INVALIDATOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "filters-cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Duration refreshDelay;
+
+    private final Cache<String, Map<String, List<String>>> cache;
+
+    private final Cache<String, Map<String, List<String>>> lastKnown;
+
+    public FiltersCache(HotelCacheProperties properties, MeterRegistry meterRegistry) {
+        HotelCacheProperties.Filters filters = properties.getFilters();
+        this.refreshDelay = filters.getRefreshDelay();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(filters.getMaximumSize())
+                .expireAfterWrite(filters.getTtl())
+                .recordStats()
+                .build();
+        this.lastKnown = Caffeine.newBuilder()
+                .maximumSize(filters.getMaximumSize())
+                .expireAfterWrite(filters.getStaleTtl())
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "hotel.filters");
+    }
+
+    /**
+     * 查询缓存,未命中时调用loader加载,同一个key的并发加载只会执行一次
+     */
+    public Map<String, List<String>> get(RequestParams params, Function<RequestParams, Map<String, List<String>>> loader) {
+        return cache.get(SearchKeys.filters(params), k -> {
+            Map<String, List<String>> filters = Collections.unmodifiableMap(loader.apply(params));
+            lastKnown.put(k, filters);
+            return filters;
+        });
+    }
+
+    /**
+     * @return 未命中时返回null
+     */
+    public Map<String, List<String>> getIfPresent(RequestParams params) {
+        return cache.getIfPresent(SearchKeys.filters(params));
+    }
+
+    /**
+     * 最近一次的结果,可能已经过期或者被失效
+     * @return 没有时返回null
+     */
+    public Map<String, List<String>> getStale(RequestParams params) {
+        return lastKnown.getIfPresent(SearchKeys.filters(params));
+    }
+
+    public void put(RequestParams params, Map<String, List<String>> filters) {
+        String key = SearchKeys.filters(params);
+        Map<String, List<String>> value = Collections.unmodifiableMap(filters);
+        cache.put(key, value);
+        lastKnown.put(key, value);
+    }
+
+    /**
+     * 写入ES的数据在下一次refresh之后才能查到,refresh之前的查询又会缓存旧的聚合结果,
+     * 所以过refreshDelay之后再失效一次
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        INVALIDATOR.schedule(cache::invalidateAll, refreshDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
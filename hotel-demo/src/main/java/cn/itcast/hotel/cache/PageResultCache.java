@@ -0,0 +1,322 @@
+package cn.itcast.hotel.cache;
+
+import cn.itcast.hotel.config.HotelCacheProperties;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.alibaba.fastjson.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 列表第一页的两级缓存
+ * <ul>
+ *     <li>堆内: 少量最热的PageResult对象,命中时不需要反序列化</li>
+ *     <li>堆外: 序列化后的JSON放在direct ByteBuffer中,按字节数限制容量,不增加GC扫描的堆大小;
+ *     缓冲区来自DirectBufferPool,淘汰或失效时归还复用,读取期间由引用计数保证不被复用</li>
+ * </ul>
+ * 只缓存不带位置、不是游标分页的第一页,这些结果与用户无关;
+ * 酒店新增、修改、删除时按城市和品牌精确失效。
+ * 堆外的结果过期后再保留staleTtl,ES不可用时由getStale作为降级结果返回。
+ * 命中率和占用通过 /actuator/metrics/hotel.page.cache.* 暴露
+ */
+@Component
+public class PageResultCache {
+
+    private static final ScheduledExecutorService INVALIDATOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "page-cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HotelCacheProperties.Pages properties;
+
+    private final long ttlNanos;
+
+    private final Cache<String, CachedPage> heap;
+
+    private final Cache<String, OffHeapPage> offHeap;
+
+    private final DirectBufferPool bufferPool;
+
+    private final Counter heapHits;
+    private final Counter offHeapHits;
+    private final Counter misses;
+
+    public PageResultCache(HotelCacheProperties cacheProperties, MeterRegistry registry) {
+        this.properties = cacheProperties.getPages();
+        this.ttlNanos = properties.getTtl().toNanos();
+        this.heap = Caffeine.newBuilder()
+                .maximumSize(properties.getHeapMaximumSize())
+                //从堆外提升的结果按原来的写入时间过期,不因提升重新计时
+                .expireAfter(new Expiry<String, CachedPage>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedPage page, long currentTime) {
+                        return Math.max(0, ttlNanos - (currentTime - page.getWrittenAt()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedPage page, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, page, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedPage page, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        long offHeapMaximumSize = properties.getOffHeapMaximumSize().toBytes();
+        //池中空闲的缓冲区最多占缓存容量的1/4
+        this.bufferPool = new DirectBufferPool(offHeapMaximumSize / 4);
+        this.offHeap = Caffeine.newBuilder()
+                .maximumWeight(offHeapMaximumSize)
+                .weigher((String key, OffHeapPage page) -> page.getBytes().capacity())
+                .expireAfterWrite(properties.getTtl().plus(properties.getStaleTtl()))
+                //在移除的线程上同步归还,缓冲区不会等到Caffeine的异步维护才回到池中
+                .executor(Runnable::run)
+                .removalListener((String key, OffHeapPage page, RemovalCause cause) -> {
+                    if (page != null) {
+                        page.release();
+                    }
+                })
+                .build();
+        this.heapHits = lookups(registry, "heap");
+        this.offHeapHits = lookups(registry, "offheap");
+        this.misses = lookups(registry, "miss");
+        Gauge.builder("hotel.page.cache.hit.ratio", this, PageResultCache::hitRatio)
+                .description("两级缓存合计的命中率")
+                .register(registry);
+        Gauge.builder("hotel.page.cache.size", heap, Cache::estimatedSize)
+                .tag("tier", "heap")
+                .register(registry);
+        Gauge.builder("hotel.page.cache.size", offHeap, Cache::estimatedSize)
+                .tag("tier", "offheap")
+                .register(registry);
+        Gauge.builder("hotel.page.cache.offheap.bytes", bufferPool, DirectBufferPool::allocatedBytes)
+                .description("堆外缓存分配的direct内存字节数,包括池中空闲的缓冲区")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("hotel.page.cache.offheap.pooled.bytes", bufferPool, DirectBufferPool::pooledBytes)
+                .description("池中空闲的direct内存字节数")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private static Counter lookups(MeterRegistry registry, String result) {
+        return Counter.builder("hotel.page.cache.lookups")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private double hitRatio() {
+        double hits = heapHits.count() + offHeapHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 带位置的结果包含到用户的距离,游标分页每次都有新的PIT,都不缓存
+     */
+    public boolean isCacheable(RequestParams params) {
+        return properties.isEnabled()
+                && params.getCursor() == null
+                && StringUtils.isEmpty(params.getLocation())
+                && Objects.equals(params.getPage(), 1);
+    }
+
+    /**
+     * @return 未命中或者不可缓存时返回null
+     */
+    public PageResult getIfPresent(RequestParams params) {
+        if (!isCacheable(params)) {
+            return null;
+        }
+        String key = SearchKeys.search(params);
+        CachedPage cached = heap.getIfPresent(key);
+        if (cached != null) {
+            heapHits.increment();
+            return cached.getPage();
+        }
+        OffHeapPage stored = offHeap.getIfPresent(key);
+        PageResult page = stored == null || System.nanoTime() - stored.getWrittenAt() > ttlNanos
+                ? null : decode(stored);
+        if (page == null) {
+            misses.increment();
+            return null;
+        }
+        offHeapHits.increment();
+        //提升到堆内,保留堆外的写入时间
+        heap.put(key, new CachedPage(page, stored.getCity(), stored.getBrand(), stored.getWrittenAt()));
+        return page;
+    }
+
+    /**
+     * ES不可用时的降级结果,可能已经过期,但不会是被失效的结果
+     * @return 没有或者不可缓存时返回null
+     */
+    public PageResult getStale(RequestParams params) {
+        if (!isCacheable(params)) {
+            return null;
+        }
+        OffHeapPage stored = offHeap.getIfPresent(SearchKeys.search(params));
+        return stored == null ? null : decode(stored);
+    }
+
+    /**
+     * @return 缓冲区在读取前已经被移除并归还时返回null
+     */
+    private static PageResult decode(OffHeapPage stored) {
+        if (!stored.retain()) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            ByteBuffer buffer = stored.getBytes().duplicate();
+            bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+        } finally {
+            stored.release();
+        }
+        return JSON.parseObject(bytes, PageResult.class);
+    }
+
+    public void put(RequestParams params, PageResult page) {
+        if (!isCacheable(params)) {
+            return;
+        }
+        String key = SearchKeys.search(params);
+        String city = emptyToNull(params.getCity());
+        String brand = emptyToNull(params.getBrand());
+        byte[] bytes = JSON.toJSONBytes(page);
+        ByteBuffer buffer = bufferPool.acquire(bytes.length);
+        buffer.put(bytes).flip();
+        long now = System.nanoTime();
+        offHeap.put(key, new OffHeapPage(bufferPool, buffer, city, brand, now));
+        heap.put(key, new CachedPage(page, city, brand, now));
+    }
+
+    /**
+     * 失效可能包含这些酒店的结果: 城市和品牌条件都匹配(或者没有设置)的缓存。
+     * 写入ES的数据在下一次refresh之后才能查到,refresh之前查询又会缓存旧结果,
+     * 所以过refreshDelay之后再失效一次
+     * @param scopes 变更前后酒店所在的城市和品牌
+     */
+    public void invalidate(Collection<Scope> scopes) {
+        if (scopes.isEmpty()) {
+            return;
+        }
+        remove(scopes);
+        INVALIDATOR.schedule(() -> remove(scopes), properties.getRefreshDelay().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void invalidateAll() {
+        heap.invalidateAll();
+        offHeap.invalidateAll();
+    }
+
+    private void remove(Collection<Scope> scopes) {
+        Predicate<Scoped> affected = entry -> scopes.stream().anyMatch(scope ->
+                (entry.getCity() == null || entry.getCity().equals(scope.getCity()))
+                        && (entry.getBrand() == null || entry.getBrand().equals(scope.getBrand())));
+        heap.asMap().values().removeIf(affected);
+        offHeap.asMap().values().removeIf(affected);
+    }
+
+    private static String emptyToNull(String value) {
+        return StringUtils.hasLength(value) ? value : null;
+    }
+
+    /**
+     * 一个酒店所在的城市和品牌
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Scope {
+        private String city;
+        private String brand;
+    }
+
+    private interface Scoped {
+        String getCity();
+
+        String getBrand();
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class CachedPage implements Scoped {
+        private PageResult page;
+        private String city;
+        private String brand;
+        /**
+         * System.nanoTime(),与Caffeine默认的Ticker一致
+         */
+        private long writtenAt;
+    }
+
+    /**
+     * 引用计数: 缓存持有一个,每个读取者读取期间持有一个,全部释放后缓冲区归还到池中
+     */
+    @Getter
+    private static class OffHeapPage implements Scoped {
+        private final DirectBufferPool pool;
+        private final ByteBuffer bytes;
+        private final String city;
+        private final String brand;
+        private final long writtenAt;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        OffHeapPage(DirectBufferPool pool, ByteBuffer bytes, String city, String brand, long writtenAt) {
+            this.pool = pool;
+            this.bytes = bytes;
+            this.city = city;
+            this.brand = brand;
+            this.writtenAt = writtenAt;
+        }
+
+        boolean retain() {
+            while (true) {
+                int current = refs.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                pool.release(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cn.itcast.hotel.cache;
+
+import cn.itcast.hotel.pojo.RequestParams;
+import org.springframework.util.StringUtils;
+
+/**
+ * 由RequestParams生成缓存、合并请求和preference用的key
+ * 参数需要先经过CanonicalParams规范化,结果相同的参数才会生成相同的key
+ */
+public final class SearchKeys {
+
+    private SearchKeys() {
+    }
+
+    /**
+     * 只取参与聚合查询的过滤条件,分页、排序和位置不影响聚合结果
+     */
+    public static String filters(RequestParams params) {
+        StringBuilder key = new StringBuilder();
+        append(key, params.getKey());
+        append(key, params.getCity());
+        append(key, params.getBrand());
+        append(key, params.getStarName());
+        append(key, params.getMinPrice() == null ? null : params.getMinPrice().toString());
+        append(key, params.getMaxPrice() == null ? null : params.getMaxPrice().toString());
+        return key.toString();
+    }
+
+    /**
+     * 过滤条件之外再加上分页和位置,sortBy目前不参与查询,不放进key
+     */
+    public static String search(RequestParams params) {
+        StringBuilder key = new StringBuilder(filters(params));
+        append(key, String.valueOf(params.getPage()));
+        append(key, String.valueOf(params.getSize()));
+        append(key, params.getLocation());
+        return key.toString();
+    }
+
+    /**
+     * 搜索请求的preference: 相同的查询总是落到相同的分片副本上,
+     * 重复的查询能命中那些副本的request cache,翻页时算分也保持一致。
+     * 自定义的preference不能以下划线开头
+     * @param key filters或者search生成的key
+     */
+    public static String preference(String key) {
+        return "q" + Integer.toHexString(key.hashCode());
+    }
+
+    private static void append(StringBuilder key, String value) {
+        if (StringUtils.hasLength(value)) {
+            key.append(value);
+        }
+        key.append('\u0001');
+    }
+}
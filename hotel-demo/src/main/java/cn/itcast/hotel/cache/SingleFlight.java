@@ -0,0 +1,199 @@
+package cn.itcast.hotel.cache;
+
+import cn.itcast.hotel.utils.CancellableFutures;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同key的并发调用: 同一时刻只有第一个调用(leader)真正执行,其余调用共享它的结果;
+ * reuseWindow大于0时,成功的结果在完成后的这段时间内还会直接返回给新的调用。
+ * 每个调用方拿到的是独立的future,取消自己的future不影响其他调用方,
+ * 所有调用方都取消后才取消真正执行中的调用,取消的原因取最后一个调用方的。
+ * 调用次数按result(leader/coalesced/reused)记在hotel.singleflight.calls中
+ */
+public class SingleFlight<K, V> {
+
+    private static final ScheduledExecutorService EXPIRER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "single-flight-expirer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+
+    private final long reuseNanos;
+
+    private final Counter leaders;
+    private final Counter coalesced;
+    private final Counter reused;
+
+    public SingleFlight(String name, boolean enabled, Duration reuseWindow, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.reuseNanos = reuseWindow.toNanos();
+        this.leaders = counter(registry, name, "leader");
+        this.coalesced = counter(registry, name, "coalesced");
+        this.reused = counter(registry, name, "reused");
+    }
+
+    private static Counter counter(MeterRegistry registry, String name, String result) {
+        return Counter.builder("hotel.singleflight.calls")
+                .description("合并请求的调用次数,leader是真正执行的次数")
+                .tag("name", name)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * @param call 没有可以共享的调用时执行,返回真正的异步调用
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        while (true) {
+            Flight<V> flight = flights.get(key);
+            if (flight == null) {
+                Flight<V> created = new Flight<>();
+                if (flights.putIfAbsent(key, created) != null) {
+                    continue;
+                }
+                CompletableFuture<V> view = created.join();
+                leaders.increment();
+                start(key, created, call);
+                return view;
+            }
+            if (flight.isExpired(reuseNanos)) {
+                flights.remove(key, flight);
+                continue;
+            }
+            boolean done = flight.future.isDone();
+            CompletableFuture<V> view = flight.join();
+            if (view == null) {
+                //所有调用方都已取消,重新发起
+                flights.remove(key, flight);
+                continue;
+            }
+            (done ? reused : coalesced).increment();
+            return view;
+        }
+    }
+
+    /**
+     * 同步版本,leader在当前线程执行call,其余调用阻塞等待leader的结果
+     */
+    public V get(K key, Supplier<V> call) {
+        try {
+            return execute(key, () -> {
+                CompletableFuture<V> future = new CompletableFuture<>();
+                try {
+                    future.complete(call.get());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> source;
+        try {
+            source = call.get();
+        } catch (RuntimeException e) {
+            source = new CompletableFuture<>();
+            source.completeExceptionally(e);
+        }
+        CompletableFuture<V> upstream = source;
+        flight.future.whenComplete((value, e) -> {
+            if (flight.future.isCancelled()) {
+                CancellableFutures.cancel(upstream, e);
+            }
+            if (e != null || reuseNanos <= 0) {
+                //失败的结果不复用
+                flights.remove(key, flight);
+            } else {
+                flight.completedAt = System.nanoTime();
+                EXPIRER.schedule(() -> flights.remove(key, flight), reuseNanos, TimeUnit.NANOSECONDS);
+            }
+        });
+        upstream.whenComplete((value, e) -> {
+            if (e == null) {
+                flight.future.complete(value);
+            } else {
+                flight.future.completeExceptionally(e instanceof CompletionException && e.getCause() != null
+                        ? e.getCause() : e);
+            }
+        });
+    }
+
+    private static final class Flight<V> {
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+
+        /**
+         * 还在等待结果的调用方数量
+         */
+        private int waiters;
+
+        /**
+         * 完成时间,未完成时为0
+         */
+        volatile long completedAt;
+
+        boolean isExpired(long reuseNanos) {
+            long completed = completedAt;
+            return completed != 0 && System.nanoTime() - completed >= reuseNanos;
+        }
+
+        /**
+         * 加入这次调用
+         * @return 调用方自己的future;调用已经被取消时返回null
+         */
+        synchronized CompletableFuture<V> join() {
+            if (future.isCancelled()) {
+                return null;
+            }
+            if (future.isDone()) {
+                return future.thenApply(v -> v);
+            }
+            waiters++;
+            CompletableFuture<V> view = new CompletableFuture<>();
+            future.whenComplete((value, e) -> {
+                if (e == null) {
+                    view.complete(value);
+                } else {
+                    view.completeExceptionally(e);
+                }
+            });
+            view.whenComplete((value, e) -> {
+                if (view.isCancelled()) {
+                    leave(e);
+                }
+            });
+            return view;
+        }
+
+        private synchronized void leave(Throwable reason) {
+            if (--waiters == 0 && !future.isDone()) {
+                CancellableFutures.cancel(future, reason);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package cn.itcast.hotel.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.HttpHost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 按ElasticsearchProperties创建RestHighLevelClient
+ * 连接池由这里创建并统计,作为MeterBinder暴露连接池占用和获取连接的等待时间:
+ * hotel.es.pool.leased / pending / available / max, hotel.es.pool.lease(Timer), hotel.es.pool.lease.failures。
+ * 一个工厂只对应一个客户端
+ */
+public class ElasticsearchClientFactory implements MeterBinder {
+
+    private final ElasticsearchProperties properties;
+
+    private final InstrumentedConnectionManager connectionManager;
+
+    public ElasticsearchClientFactory(ElasticsearchProperties properties) {
+        this.properties = properties;
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(properties.getIoThreads())
+                .setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+                .setSoTimeout((int) properties.getSocketTimeout().toMillis())
+                .setSoKeepAlive(true)
+                .build();
+        try {
+            this.connectionManager = new InstrumentedConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        } catch (IOReactorException e) {
+            throw new RuntimeException(e);
+        }
+        connectionManager.setMaxTotal(properties.getMaxConnTotal());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnPerRoute());
+    }
+
+    public RestHighLevelClient create() {
+        List<HttpHost> hosts = properties.getHosts().stream().map(HttpHost::create).collect(Collectors.toList());
+        ElasticsearchProperties.Sniff sniff = properties.getSniff();
+        SniffOnFailureListener failureListener = sniff.isEnabled() ? new SniffOnFailureListener() : null;
+        RestClientBuilder builder = RestClient.builder(hosts.toArray(new HttpHost[0]))
+                .setCompressionEnabled(properties.isCompression())
+                .setNodeSelector(NodeSelector.SKIP_DEDICATED_MASTERS)
+                .setRequestConfigCallback(config -> config
+                        .setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+                        .setSocketTimeout((int) properties.getSocketTimeout().toMillis())
+                        .setConnectionRequestTimeout((int) properties.getConnectionRequestTimeout().toMillis()))
+                //使用自定义的连接池后,builder上的连接数和reactor配置不再生效,由连接池自身决定
+                .setHttpClientConfigCallback(httpClient -> httpClient
+                        .setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy((response, context) -> {
+                            long keepAlive = properties.getKeepAlive().toMillis();
+                            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                    .getKeepAliveDuration(response, context);
+                            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+                        }));
+        if (failureListener != null) {
+            builder.setFailureListener(failureListener);
+        }
+        RestClient restClient = builder.build();
+        if (failureListener == null) {
+            return new RestHighLevelClient(restClient, RestClient::close, Collections.emptyList()) {
+            };
+        }
+        ElasticsearchNodesSniffer.Scheme scheme = "https".equals(hosts.get(0).getSchemeName())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS : ElasticsearchNodesSniffer.Scheme.HTTP;
+        Sniffer sniffer = Sniffer.builder(restClient)
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restClient,
+                        ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, scheme))
+                .setSniffIntervalMillis((int) sniff.getInterval().toMillis())
+                .setSniffAfterFailureDelayMillis((int) sniff.getDelayAfterFailure().toMillis())
+                .build();
+        failureListener.setSniffer(sniffer);
+        //关闭客户端时先停止嗅探
+        return new RestHighLevelClient(restClient, client -> {
+            sniffer.close();
+            client.close();
+        }, Collections.emptyList()) {
+        };
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hotel.es.pool.leased", connectionManager, m -> m.getTotalStats().getLeased())
+                .description("正在使用的ES连接数")
+                .register(registry);
+        Gauge.builder("hotel.es.pool.pending", connectionManager, m -> m.getTotalStats().getPending())
+                .description("等待获取ES连接的请求数,持续大于0说明连接池不够用")
+                .register(registry);
+        Gauge.builder("hotel.es.pool.available", connectionManager, m -> m.getTotalStats().getAvailable())
+                .description("空闲的ES连接数")
+                .register(registry);
+        Gauge.builder("hotel.es.pool.max", connectionManager, m -> m.getTotalStats().getMax())
+                .description("ES连接池上限")
+                .register(registry);
+        connectionManager.leaseTimer = Timer.builder("hotel.es.pool.lease")
+                .description("从连接池获取ES连接的等待时间,新建连接时包含建连时间")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        FunctionCounter.builder("hotel.es.pool.lease.failures", connectionManager.leaseFailures, LongAdder::sum)
+                .description("获取ES连接失败或超时的次数")
+                .register(registry);
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * 在获取连接的回调上计时
+     */
+    private static class InstrumentedConnectionManager extends PoolingNHttpClientConnectionManager {
+
+        private volatile Timer leaseTimer;
+
+        private final LongAdder leaseFailures = new LongAdder();
+
+        InstrumentedConnectionManager(DefaultConnectingIOReactor ioReactor) {
+            super(ioReactor);
+        }
+
+        @Override
+        public Future<NHttpClientConnection> requestConnection(HttpRoute route, Object state, long connectTimeout,
+                                                               long leaseTimeout, TimeUnit tunit,
+                                                               FutureCallback<NHttpClientConnection> callback) {
+            long start = System.nanoTime();
+            return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                    new FutureCallback<NHttpClientConnection>() {
+                        @Override
+                        public void completed(NHttpClientConnection connection) {
+                            Timer timer = leaseTimer;
+                            if (timer != null) {
+                                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                            }
+                            if (callback != null) {
+                                callback.completed(connection);
+                            }
+                        }
+
+                        @Override
+                        public void failed(Exception ex) {
+                            leaseFailures.increment();
+                            if (callback != null) {
+                                callback.failed(ex);
+                            }
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            if (callback != null) {
+                                callback.cancelled();
+                            }
+                        }
+                    });
+        }
+    }
+}
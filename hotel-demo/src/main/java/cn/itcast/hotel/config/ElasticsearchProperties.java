@@ -0,0 +1,109 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ES客户端连接配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.elasticsearch")
+public class ElasticsearchProperties {
+    /**
+     * 集群节点地址,例如http://127.0.0.1:9200
+     */
+    private List<String> hosts = new ArrayList<>(Collections.singletonList("http://43.139.46.197:9200"));
+    /**
+     * 连接池最大连接数
+     */
+    private int maxConnTotal = 200;
+    /**
+     * 每个节点的最大连接数,默认值10在并发搜索时很快会被占满
+     */
+    private int maxConnPerRoute = 100;
+    /**
+     * I/O reactor线程数,默认与CPU核数相同
+     */
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * 空闲连接最长保留时间,服务端没有返回Keep-Alive头时使用
+     */
+    private Duration keepAlive = Duration.ofMinutes(1);
+    /**
+     * 是否压缩请求体并接受gzip响应
+     */
+    private boolean compression = true;
+    private Duration connectTimeout = Duration.ofSeconds(1);
+    private Duration socketTimeout = Duration.ofSeconds(30);
+    /**
+     * 从连接池获取连接的最长等待时间
+     */
+    private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+
+    private Sniff sniff = new Sniff();
+
+    private Limiter limiter = new Limiter();
+
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @Data
+    public static class Sniff {
+        /**
+         * 是否定时从集群获取节点列表
+         */
+        private boolean enabled = false;
+        private Duration interval = Duration.ofMinutes(5);
+        /**
+         * 请求失败后提前进行一次嗅探的延迟
+         */
+        private Duration delayAfterFailure = Duration.ofMinutes(1);
+    }
+
+    /**
+     * 搜索请求的自适应并发上限,超过上限的请求立即返回降级结果或503
+     */
+    @Data
+    public static class Limiter {
+        private boolean enabled = true;
+        private int initialLimit = 20;
+        private int minLimit = 4;
+        /**
+         * 不超过每个节点的连接数,否则多出来的请求只会在连接池里排队
+         */
+        private int maxLimit = 100;
+        /**
+         * ES耗时超过这个值视为过载,上限按backoffRatio缩小
+         */
+        private Duration latencyThreshold = Duration.ofMillis(500);
+        private double backoffRatio = 0.9;
+    }
+
+    /**
+     * 搜索请求的熔断,按最近windowSize次请求的失败率判断
+     */
+    @Data
+    public static class CircuitBreaker {
+        private boolean enabled = true;
+        private int windowSize = 50;
+        /**
+         * 窗口内至少有这么多次请求才计算失败率
+         */
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 0.5;
+        /**
+         * 打开后多久进入半开状态
+         */
+        private Duration openDuration = Duration.ofSeconds(10);
+        /**
+         * 半开状态放行的试探请求数
+         */
+        private int halfOpenCalls = 5;
+    }
+}
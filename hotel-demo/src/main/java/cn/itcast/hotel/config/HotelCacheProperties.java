@@ -0,0 +1,84 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 本地缓存配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.cache")
+public class HotelCacheProperties {
+
+    private Filters filters = new Filters();
+
+    private Coalescing coalescing = new Coalescing();
+
+    private Pages pages = new Pages();
+
+    @Data
+    public static class Filters {
+        /**
+         * 最多缓存多少组过滤条件的聚合结果
+         */
+        private long maximumSize = 10000;
+        /**
+         * 写入后多久过期,酒店增删时会提前失效
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+        /**
+         * 最近一次的结果保留多久,ES不可用时作为降级结果返回,不受失效影响
+         */
+        private Duration staleTtl = Duration.ofHours(1);
+        /**
+         * ES的refresh间隔,失效后过这么久再失效一次
+         */
+        private Duration refreshDelay = Duration.ofSeconds(1);
+    }
+
+    /**
+     * 相同参数的并发搜索合并为一次ES请求
+     */
+    @Data
+    public static class Coalescing {
+        private boolean enabled = true;
+        /**
+         * 结果返回后继续复用的时间,这段时间内的相同请求直接拿到刚才的结果;
+         * 为0时只合并同时在途的请求,不会返回任何旧数据
+         */
+        private Duration reuseWindow = Duration.ZERO;
+    }
+
+    /**
+     * 列表第一页的两级缓存
+     */
+    @Data
+    public static class Pages {
+        private boolean enabled = true;
+        /**
+         * 堆内最多缓存多少页
+         */
+        private long heapMaximumSize = 1000;
+        /**
+         * 堆外最多占用多少内存
+         */
+        private DataSize offHeapMaximumSize = DataSize.ofMegabytes(64);
+        /**
+         * 写入后多久过期,酒店变更时会按城市和品牌提前失效
+         */
+        private Duration ttl = Duration.ofMinutes(1);
+        /**
+         * 堆外的结果过期后继续保留多久,ES不可用时作为降级结果返回
+         */
+        private Duration staleTtl = Duration.ofMinutes(10);
+        /**
+         * ES的refresh间隔,失效后过这么久再失效一次
+         */
+        private Duration refreshDelay = Duration.ofSeconds(1);
+    }
+}
@@ -0,0 +1,28 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 进程内Lucene索引副本的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.local-index")
+public class LocalIndexProperties {
+    /**
+     * 是否在本进程内维护一份索引副本,就绪后列表和过滤项查询不再访问ES
+     */
+    private boolean enabled = false;
+    /**
+     * 构建时每次从ES按id游标读取的文档数
+     */
+    private int pageSize = 1000;
+    /**
+     * 定期从ES重建的间隔,修正增量维护中的偏差,0表示只在启动时构建一次
+     */
+    private Duration resyncInterval = Duration.ofMinutes(10);
+}
@@ -1,10 +1,16 @@
 package cn.itcast.hotel.config;
 
 import cn.itcast.hotel.constants.MqConstants;
+import org.springframework.amqp.core.AnonymousQueue;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -35,4 +41,80 @@ public class MqConfig {
     public Binding deleteQueueBinding() {
         return BindingBuilder.bind(deleteQueue()).to(topicExchange()).with(MqConstants.HOTEL_DELETE_KEY);
     }
+
+    @Bean
+    public TopicExchange deadLetterExchange() {
+        return new TopicExchange(MqConstants.HOTEL_DLX_EXCHANGE, true, false);
+    }
+
+    @Bean
+    public Queue deadLetterQueue() {
+        return new Queue(MqConstants.HOTEL_DLX_QUEUE, true);
+    }
+
+    @Bean
+    public Binding deadLetterQueueBinding() {
+        return BindingBuilder.bind(deadLetterQueue()).to(deadLetterExchange()).with("#");
+    }
+
+    @Bean
+    public FanoutExchange hotelCacheExchange() {
+        return new FanoutExchange(MqConstants.HOTEL_CACHE_EXCHANGE, true, false);
+    }
+
+    /**
+     * 缓存失效通知的队列: 每个实例一个,名字随机,实例断开后自动删除,
+     * 补全索引、过滤项和列表缓存在每个实例上都能随ES的写入更新
+     */
+    @Bean
+    public Queue hotelCacheQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding hotelCacheQueueBinding() {
+        return BindingBuilder.bind(hotelCacheQueue()).to(hotelCacheExchange());
+    }
+
+    /**
+     * 本地索引副本的队列: 每个实例一个,名字随机,实例断开后自动删除,
+     * 和insertQueue、deleteQueue绑定相同的RoutingKey,收到全部变更而不是竞争消费的一部分
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "hotel.local-index", name = "enabled", havingValue = "true")
+    public Queue localReplicaQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "hotel.local-index", name = "enabled", havingValue = "true")
+    public Binding localReplicaInsertBinding() {
+        return BindingBuilder.bind(localReplicaQueue()).to(topicExchange()).with(MqConstants.HOTEL_INSERT_KEY);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "hotel.local-index", name = "enabled", havingValue = "true")
+    public Binding localReplicaDeleteBinding() {
+        return BindingBuilder.bind(localReplicaQueue()).to(topicExchange()).with(MqConstants.HOTEL_DELETE_KEY);
+    }
+
+    /**
+     * 批量消费的监听容器: 攒够batchSize条或者flushInterval内没有新消息时,
+     * 把这一批消息一次性交给监听方法,方法正常返回后才统一ack
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            SyncProperties syncProperties) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(syncProperties.getBatchSize());
+        factory.setReceiveTimeout(syncProperties.getFlushInterval());
+        // 预取数不能小于批大小,否则永远攒不满一批
+        factory.setPrefetchCount(syncProperties.getBatchSize());
+        return factory;
+    }
 }
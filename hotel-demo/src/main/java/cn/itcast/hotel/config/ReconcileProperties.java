@@ -0,0 +1,41 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * tb_hotel与hotel索引定期一致性检查的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.reconcile")
+public class ReconcileProperties {
+    /**
+     * 是否定期执行,关闭后仍可以手动触发;
+     * 依赖索引中的id.num和hash字段,旧索引需要先全量重建一次再开启
+     */
+    private boolean enabled = false;
+    /**
+     * 启动后第一次执行的延迟
+     */
+    private Duration initialDelay = Duration.ofMinutes(10);
+    /**
+     * 上一次结束到下一次开始的间隔
+     */
+    private Duration interval = Duration.ofHours(1);
+    /**
+     * 两边每页读取的酒店数
+     */
+    private int pageSize = 1000;
+    /**
+     * 每个修复bulk请求包含的酒店数
+     */
+    private int repairBatchSize = 500;
+    /**
+     * 一次最多修复的酒店数,超过时只统计不修复,差异这么大时应该全量重建
+     */
+    private int maxRepairs = 10000;
+}
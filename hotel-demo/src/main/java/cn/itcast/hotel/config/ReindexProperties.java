@@ -0,0 +1,38 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * MySQL到ES全量重建索引的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.reindex")
+public class ReindexProperties {
+    /**
+     * 启动时是否自动执行一次全量重建
+     */
+    private boolean runOnStartup = false;
+    /**
+     * 每次从tb_hotel按id游标读取的行数
+     */
+    private int pageSize = 1000;
+    /**
+     * 把Hotel转换为HotelDoc的线程数
+     */
+    private int convertThreads = 4;
+    /**
+     * 同时在途的bulk请求数
+     */
+    private int bulkWorkers = 4;
+    /**
+     * 每个bulk请求包含的文档数
+     */
+    private int bulkActions = 1000;
+    /**
+     * 导入完成后恢复的副本数
+     */
+    private int replicas = 1;
+}
@@ -0,0 +1,85 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 搜索接口配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.search")
+public class SearchProperties {
+    /**
+     * 异步搜索接口的超时时间,也是查询请求的socket超时;
+     * 超时后取消ES请求,返回降级结果或504,应小于前端axios的超时时间
+     */
+    private Duration timeout = Duration.ofMillis(2500);
+
+    private Projection projection = new Projection();
+
+    private GeoRing geoRing = new GeoRing();
+
+    private RequestCache requestCache = new RequestCache();
+
+    /**
+     * 搜索结果的字段裁剪,减少ES到应用、应用到浏览器两段的数据量
+     */
+    @Data
+    public static class Projection {
+        /**
+         * 为false时取完整的_source(仍去掉excludes),排查问题时使用
+         */
+        private boolean enabled = true;
+        /**
+         * 列表接口(/hotel/list、/hotel/search)需要的HotelDoc字段,即列表卡片和地图标记用到的字段
+         */
+        private List<String> list = new ArrayList<>(Arrays.asList(
+                "id", "name", "address", "price", "score", "starName", "business", "location", "pic", "isAD"));
+        /**
+         * 任何接口都不返回的字段
+         */
+        private List<String> excludes = new ArrayList<>(Arrays.asList(
+                "suggestion", "hash", "syncVersion", "partialSyncVersion"));
+    }
+
+    /**
+     * 就近搜索: 带location的列表查询先在用户附近的圆内搜索,圈内命中数不够再逐级扩大半径
+     */
+    @Data
+    public static class GeoRing {
+        private boolean enabled = true;
+        /**
+         * 逐级尝试的半径(km),最后一级仍不够时退回不限范围的距离排序
+         */
+        private List<Double> radii = new ArrayList<>(Arrays.asList(3.0, 10.0, 30.0));
+    }
+
+    /**
+     * ES分片request cache的利用: 参数规范化后生成相同的DSL,
+     * 聚合和补全请求(size为0)显式开启request cache,相同的查询用相同的preference
+     */
+    @Data
+    public static class RequestCache {
+        private boolean enabled = true;
+        /**
+         * 是否按查询设置preference,关闭时ES在各副本之间轮询
+         */
+        private boolean stablePreference = true;
+        /**
+         * 价格范围向外取整的粒度(元),0表示不取整;
+         * 取整后相同的查询更多,但范围边上会多出少量酒店
+         */
+        private int priceBucket = 0;
+        /**
+         * 读取hotel索引request cache统计的间隔
+         */
+        private Duration statsInterval = Duration.ofSeconds(30);
+    }
+}
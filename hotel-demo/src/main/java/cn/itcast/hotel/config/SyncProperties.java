@@ -0,0 +1,26 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * MySQL到ES的MQ同步配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.sync")
+public class SyncProperties {
+    /**
+     * 一批最多攒多少条消息再统一写入ES,也是一个bulk请求最多包含的酒店数
+     */
+    private int batchSize = 500;
+    /**
+     * 等待下一条消息的最长时间(毫秒),超时则立即提交当前批次
+     */
+    private long flushInterval = 200;
+    /**
+     * 单条同步失败后重新入队的最大次数,超过后投递到死信交换机
+     */
+    private int maxRetries = 3;
+}
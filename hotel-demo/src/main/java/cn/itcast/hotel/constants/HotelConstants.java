@@ -1,12 +1,48 @@
 package cn.itcast.hotel.constants;
 
 public class HotelConstants {
+    /**
+     * 业务代码读写的索引名,全量重建后它是指向最新版本索引的别名
+     */
+    public static final String INDEX_NAME = "hotel";
+
+    /**
+     * hotel索引的settings和mappings,全量重建时用它创建新版本索引:
+     * suggestion是自动补全的completion字段,按拼音匹配,需要ES安装pinyin插件;
+     * isAD由运营直接在ES中设置,重建时从旧索引复制
+     */
     public static final  String MAPPING_TEMPLATE =
            "{\n" +
+                   "  \"settings\": {\n" +
+                   "    \"analysis\": {\n" +
+                   "      \"analyzer\": {\n" +
+                   "        \"completion_analyzer\": {\n" +
+                   "          \"tokenizer\": \"keyword\",\n" +
+                   "          \"filter\": \"py\"\n" +
+                   "        }\n" +
+                   "      },\n" +
+                   "      \"filter\": {\n" +
+                   "        \"py\": {\n" +
+                   "          \"type\": \"pinyin\",\n" +
+                   "          \"keep_full_pinyin\": false,\n" +
+                   "          \"keep_joined_full_pinyin\": true,\n" +
+                   "          \"keep_original\": true,\n" +
+                   "          \"limit_first_letter_length\": 16,\n" +
+                   "          \"remove_duplicated_term\": true,\n" +
+                   "          \"none_chinese_pinyin_tokenize\": false\n" +
+                   "        }\n" +
+                   "      }\n" +
+                   "    }\n" +
+                   "  },\n" +
                    "  \"mappings\": {\n" +
                    "    \"properties\": {\n" +
                    "      \"id\": {\n" +
-                   "        \"type\": \"keyword\"\n" +
+                   "        \"type\": \"keyword\",\n" +
+                   "        \"fields\": {\n" +
+                   "          \"num\": {\n" +
+                   "            \"type\": \"long\"\n" +
+                   "          }\n" +
+                   "        }\n" +
                    "      },\n" +
                    "      \"name\":{\n" +
                    "        \"type\": \"text\",\n" +
@@ -44,6 +80,27 @@ public class HotelConstants {
                    "        \"type\": \"keyword\",\n" +
                    "        \"index\": false\n" +
                    "      },\n" +
+                   "      \"isAD\":{\n" +
+                   "        \"type\": \"boolean\"\n" +
+                   "      },\n" +
+                   "      \"suggestion\":{\n" +
+                   "        \"type\": \"completion\",\n" +
+                   "        \"analyzer\": \"completion_analyzer\"\n" +
+                   "      },\n" +
+                   "      \"hash\":{\n" +
+                   "        \"type\": \"keyword\",\n" +
+                   "        \"index\": false\n" +
+                   "      },\n" +
+                   "      \"syncVersion\":{\n" +
+                   "        \"type\": \"long\",\n" +
+                   "        \"index\": false,\n" +
+                   "        \"doc_values\": false\n" +
+                   "      },\n" +
+                   "      \"partialSyncVersion\":{\n" +
+                   "        \"type\": \"long\",\n" +
+                   "        \"index\": false,\n" +
+                   "        \"doc_values\": false\n" +
+                   "      },\n" +
                    "      \"all\":{\n" +
                    "        \"type\": \"text\",\n" +
                    "        \"analyzer\": \"ik_max_word\"\n" +
@@ -21,4 +21,24 @@ public class MqConstants {
      * 删除的RoutingKey
      */
     public final static String HOTEL_DELETE_KEY = "hotel.delete";
+    /**
+     * 死信交换机,重试次数用尽的同步消息会投递到这里
+     */
+    public final static String HOTEL_DLX_EXCHANGE = "hotel.dlx.topic";
+    /**
+     * 死信队列
+     */
+    public final static String HOTEL_DLX_QUEUE = "hotel.dlx.queue";
+    /**
+     * 记录同步消息已重试次数的消息头
+     */
+    public final static String RETRY_HEADER = "x-hotel-retry";
+    /**
+     * 记录变更版本号(admin发件箱消息id)的消息头
+     */
+    public final static String VERSION_HEADER = "x-hotel-version";
+    /**
+     * 缓存失效通知的广播交换机,每个实例用自己的匿名队列绑定
+     */
+    public final static String HOTEL_CACHE_EXCHANGE = "hotel.cache.fanout";
 }
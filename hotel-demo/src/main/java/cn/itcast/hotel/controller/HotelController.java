@@ -1,33 +1,86 @@
 package cn.itcast.hotel.controller;
 
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.guard.SearchTimeoutException;
+import cn.itcast.hotel.pojo.HotelSearchResult;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.pojo.RequestParams;
 import cn.itcast.hotel.service.IHotelService;
+import cn.itcast.hotel.utils.CancellableFutures;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * 搜索接口都是异步的: 请求线程提交ES查询后立即归还给Tomcat,
+ * ES响应后再由DeferredResult写回结果
+ */
 @RestController
 @RequestMapping("/hotel")
 public class HotelController {
 
+    /**
+     * 查询本身在hotel.search.timeout超时并返回降级结果或504,
+     * 这里的超时只是兜底,留出写回降级结果的时间
+     */
+    private static final long TIMEOUT_GRACE_MILLIS = 500;
+
     @Autowired
     private IHotelService hotelService;
 
+    @Autowired
+    private SearchProperties searchProperties;
+
     @PostMapping("/list")
-    public PageResult search(@RequestBody RequestParams params){
-        return hotelService.search(params);
+    public DeferredResult<PageResult> search(@RequestBody RequestParams params){
+        return defer(hotelService.searchAsync(params));
     }
 
     @PostMapping("/filters")
-    public Map<String, List<String>> getFilters(@RequestBody RequestParams params){
-        return hotelService.getFilters(params);
+    public DeferredResult<Map<String, List<String>>> getFilters(@RequestBody RequestParams params){
+        return defer(hotelService.getFiltersAsync(params));
+    }
+
+    /**
+     * 列表和过滤项一次查询返回,替代分别调用/list和/filters
+     */
+    @PostMapping("/search")
+    public DeferredResult<HotelSearchResult> searchWithFilters(@RequestBody RequestParams params){
+        return defer(hotelService.searchWithFiltersAsync(params));
     }
 
     @GetMapping("/suggestion")
-    public List<String> getSuggestion(@RequestParam("key") String prefix){
-        return hotelService.getSuggestion(prefix);
+    public DeferredResult<List<String>> getSuggestion(@RequestParam("key") String prefix){
+        return defer(hotelService.getSuggestionAsync(prefix));
+    }
+
+    /**
+     * 超时返回504,超时或客户端断开时取消ES请求,避免慢查询继续占用ES连接;
+     * 超时以SearchTimeoutException取消,计入限流和熔断的统计,客户端断开则不计入
+     */
+    private <T> DeferredResult<T> defer(CompletableFuture<T> future) {
+        DeferredResult<T> result = new DeferredResult<>(
+                searchProperties.getTimeout().toMillis() + TIMEOUT_GRACE_MILLIS);
+        result.onTimeout(() -> {
+            //先设置结果再取消,否则取消产生的SearchTimeoutException会抢先写入
+            result.setErrorResult(new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "搜索超时"));
+            CancellableFutures.cancel(future, new SearchTimeoutException("搜索超时"));
+        });
+        result.onError(e -> future.cancel(true));
+        future.whenComplete((value, e) -> {
+            if (e == null) {
+                result.setResult(value);
+            } else {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return result;
     }
 }
@@ -0,0 +1,45 @@
+package cn.itcast.hotel.controller;
+
+import cn.itcast.hotel.service.IHotelReconcileService;
+import cn.itcast.hotel.service.IHotelReindexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/index")
+public class IndexController {
+
+    @Autowired
+    private IHotelReindexService hotelReindexService;
+
+    @Autowired
+    private IHotelReconcileService hotelReconcileService;
+
+    /**
+     * 触发一次全量重建,立即返回新索引名,进度通过GET查询
+     */
+    @PostMapping("/reindex")
+    public String reindex() {
+        return hotelReindexService.startReindex();
+    }
+
+    @GetMapping("/reindex")
+    public Map<String, Object> reindexStatus() {
+        return hotelReindexService.status();
+    }
+
+    /**
+     * 立即执行一次一致性检查,不等定时任务,进度和差异通过GET查询
+     */
+    @PostMapping("/reconcile")
+    public void reconcile() {
+        hotelReconcileService.startReconcile();
+    }
+
+    @GetMapping("/reconcile")
+    public Map<String, Object> reconcileStatus() {
+        return hotelReconcileService.status();
+    }
+}
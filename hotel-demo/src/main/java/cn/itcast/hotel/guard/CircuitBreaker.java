@@ -0,0 +1,114 @@
+package cn.itcast.hotel.guard;
+
+import java.time.Duration;
+
+/**
+ * 按最近windowSize次调用的失败率熔断
+ * 失败率达到阈值后打开,openDuration内的调用直接拒绝;之后进入半开状态,
+ * 放行halfOpenCalls次试探调用,全部成功才关闭,有一次失败就重新打开
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    /**
+     * 最近windowSize次调用是否失败,环形使用
+     */
+    private final boolean[] window;
+    private int next;
+    private int calls;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration, int halfOpenCalls) {
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return 熔断打开或者半开状态的试探名额用完时返回false
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    public synchronized void onResult(boolean success) {
+        if (state == State.HALF_OPEN) {
+            if (!success) {
+                open();
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                reset(State.CLOSED);
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            //打开之前发出的请求,结果不再计入
+            return;
+        }
+        if (calls == window.length) {
+            failures -= window[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        window[next] = !success;
+        failures += success ? 0 : 1;
+        next = (next + 1) % window.length;
+        if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+
+    /**
+     * 被取消等没有结果的调用,半开状态下归还试探名额
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && halfOpenPermits < halfOpenCalls - halfOpenSuccesses) {
+            halfOpenPermits++;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void open() {
+        reset(State.OPEN);
+        openedAt = System.nanoTime();
+    }
+
+    private void reset(State state) {
+        this.state = state;
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+}
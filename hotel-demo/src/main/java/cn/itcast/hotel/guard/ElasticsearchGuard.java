@@ -0,0 +1,165 @@
+package cn.itcast.hotel.guard;
+
+import cn.itcast.hotel.config.ElasticsearchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ES读请求的并发限制和熔断: 发请求前取得许可,请求结束后报告耗时和结果
+ * 指标:
+ * <ul>
+ *     <li>hotel.es.limit / hotel.es.inflight: 当前并发上限和在途请求数</li>
+ *     <li>hotel.es.circuit.state: 熔断状态,0关闭、1打开、2半开</li>
+ *     <li>hotel.es.rejected: 没有发给ES的请求数,标签reason(limit/circuit)</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class ElasticsearchGuard {
+
+    private static final Permit NOOP = new Permit(null, 0) {
+        @Override
+        public void release(Throwable error) {
+        }
+    };
+
+    private final ElasticsearchProperties.Limiter limiterProperties;
+
+    private final ElasticsearchProperties.CircuitBreaker breakerProperties;
+
+    private final AdaptiveLimiter limiter;
+
+    private final CircuitBreaker breaker;
+
+    private final Counter limitRejections;
+
+    private final Counter circuitRejections;
+
+    public ElasticsearchGuard(ElasticsearchProperties properties, MeterRegistry registry) {
+        this.limiterProperties = properties.getLimiter();
+        this.breakerProperties = properties.getCircuitBreaker();
+        this.limiter = new AdaptiveLimiter(limiterProperties.getInitialLimit(), limiterProperties.getMinLimit(),
+                limiterProperties.getMaxLimit(), limiterProperties.getLatencyThreshold(),
+                limiterProperties.getBackoffRatio());
+        this.breaker = new CircuitBreaker(breakerProperties.getWindowSize(), breakerProperties.getMinimumCalls(),
+                breakerProperties.getFailureRateThreshold(), breakerProperties.getOpenDuration(),
+                breakerProperties.getHalfOpenCalls());
+        Gauge.builder("hotel.es.limit", limiter, AdaptiveLimiter::getLimit)
+                .description("ES读请求当前的并发上限")
+                .register(registry);
+        Gauge.builder("hotel.es.inflight", limiter, AdaptiveLimiter::getInFlight)
+                .description("正在执行的ES读请求数")
+                .register(registry);
+        Gauge.builder("hotel.es.circuit.state", breaker, b -> b.getState().ordinal())
+                .description("熔断状态,0关闭、1打开、2半开")
+                .register(registry);
+        this.limitRejections = rejections(registry, "limit");
+        this.circuitRejections = rejections(registry, "circuit");
+    }
+
+    private static Counter rejections(MeterRegistry registry, String reason) {
+        return Counter.builder("hotel.es.rejected")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    /**
+     * 取得一次ES请求的许可,请求结束后必须调用Permit.release
+     * @throws ElasticsearchRejectedException 熔断打开或者并发达到上限
+     */
+    public Permit acquire(String operation) {
+        boolean checkBreaker = breakerProperties.isEnabled();
+        if (checkBreaker && !breaker.tryAcquire()) {
+            circuitRejections.increment();
+            throw new ElasticsearchRejectedException(operation + ": ES熔断中");
+        }
+        if (limiterProperties.isEnabled() && !limiter.tryAcquire()) {
+            if (checkBreaker) {
+                breaker.onIgnored();
+            }
+            limitRejections.increment();
+            throw new ElasticsearchRejectedException(operation + ": ES并发已达上限" + limiter.getLimit());
+        }
+        return checkBreaker || limiterProperties.isEnabled() ? new Permit(this, System.nanoTime()) : NOOP;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+
+    private void complete(long startNanos, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof CancellationException && !(cause instanceof SearchTimeoutException)) {
+            if (limiterProperties.isEnabled()) {
+                limiter.release();
+            }
+            if (breakerProperties.isEnabled()) {
+                breaker.onIgnored();
+            }
+            return;
+        }
+        boolean failed = isFailure(cause);
+        if (limiterProperties.isEnabled()) {
+            limiter.release(System.nanoTime() - startNanos, failed);
+        }
+        if (breakerProperties.isEnabled()) {
+            CircuitBreaker.State before = breaker.getState();
+            breaker.onResult(!failed);
+            CircuitBreaker.State after = breaker.getState();
+            if (before != after) {
+                log.warn("ES熔断状态 {} -> {}", before, after);
+            }
+        }
+    }
+
+    /**
+     * 超时和429(ES的线程池队列已满)说明ES过载,计为失败;
+     * 其余4xx说明ES正常处理了请求,只是请求本身有问题,不计为失败
+     */
+    static boolean isFailure(Throwable cause) {
+        if (cause == null) {
+            return false;
+        }
+        if (!(cause instanceof ElasticsearchException)) {
+            return true;
+        }
+        RestStatus status = ((ElasticsearchException) cause).status();
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * 一次ES请求的许可,只能归还一次
+     */
+    public static class Permit {
+
+        private final ElasticsearchGuard guard;
+
+        private final long startNanos;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ElasticsearchGuard guard, long startNanos) {
+            this.guard = guard;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @param error 请求成功时为null;SearchTimeoutException表示超时,按失败统计;
+         *              其他CancellationException表示客户端断开,不参与限流和熔断的统计
+         */
+        public void release(Throwable error) {
+            if (released.compareAndSet(false, true)) {
+                guard.complete(startNanos, error);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package cn.itcast.hotel.guard;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 并发达到上限或者熔断打开,请求没有发给ES;没有降级结果时返回503
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ElasticsearchRejectedException extends RuntimeException {
+
+    public ElasticsearchRejectedException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,18 @@
+package cn.itcast.hotel.guard;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 查询超过了接口的超时时间被取消;没有降级结果时返回504
+ * 与客户端断开造成的取消不同,超时说明ES响应慢,计入限流和熔断的统计
+ */
+@ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+public class SearchTimeoutException extends CancellationException {
+
+    public SearchTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,93 @@
+package cn.itcast.hotel.local;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 统计命中文档的城市、品牌、星级,结果与HotelQueryBuilder.buildAggregation的terms聚合一致:
+ * 按文档数降序、同数量按字典序,每个字段最多100个
+ * 每个segment内按ordinal计数,切换segment时再换算成字符串累加
+ */
+class FacetCollector extends SimpleCollector {
+
+    static final String[] FIELDS = {"city", "brand", "starName"};
+
+    private static final int SIZE = 100;
+
+    private final List<Map<String, Integer>> counts = new ArrayList<>(FIELDS.length);
+
+    private final SortedDocValues[] values = new SortedDocValues[FIELDS.length];
+
+    private final int[][] leafCounts = new int[FIELDS.length][];
+
+    FacetCollector() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            counts.add(new HashMap<>());
+        }
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushLeaf();
+        for (int i = 0; i < FIELDS.length; i++) {
+            values[i] = DocValues.getSorted(context.reader(), FIELDS[i]);
+            leafCounts[i] = new int[values[i].getValueCount()];
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (values[i].advanceExact(doc)) {
+                leafCounts[i][values[i].ordValue()]++;
+            }
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    /**
+     * @return 字段名到取值列表,与HotelResponseParser.handleFilters的结构相同
+     */
+    Map<String, List<String>> result() throws IOException {
+        flushLeaf();
+        Map<String, List<String>> result = new HashMap<>();
+        for (int i = 0; i < FIELDS.length; i++) {
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.get(i).entrySet());
+            entries.sort((a, b) -> a.getValue().equals(b.getValue())
+                    ? a.getKey().compareTo(b.getKey()) : b.getValue() - a.getValue());
+            List<String> terms = new ArrayList<>(Math.min(SIZE, entries.size()));
+            for (int j = 0; j < entries.size() && j < SIZE; j++) {
+                terms.add(entries.get(j).getKey());
+            }
+            result.put(FIELDS[i], terms);
+        }
+        return result;
+    }
+
+    private void flushLeaf() throws IOException {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (leafCounts[i] == null) {
+                continue;
+            }
+            for (int ord = 0; ord < leafCounts[i].length; ord++) {
+                if (leafCounts[i][ord] > 0) {
+                    counts.get(i).merge(values[i].lookupOrd(ord).utf8ToString(), leafCounts[i][ord], Integer::sum);
+                }
+            }
+            leafCounts[i] = null;
+        }
+    }
+}
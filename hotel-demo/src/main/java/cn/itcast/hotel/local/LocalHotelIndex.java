@@ -0,0 +1,362 @@
+package cn.itcast.hotel.local;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.function.FunctionScoreQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.springframework.util.StringUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的Lucene索引,字段与HotelConstants.MAPPING_TEMPLATE对应,查询语义与HotelQueryBuilder一致:
+ * <ul>
+ *     <li>city、brand、starName: 精确匹配,带doc values用于聚合</li>
+ *     <li>price: 范围过滤</li>
+ *     <li>location: 距离排序</li>
+ *     <li>all: name、brand、city分词后的全文字段,没有IK分词器,用smartcn代替,相关性排序与ES不完全相同</li>
+ *     <li>isAD为true的文档算分乘10</li>
+ * </ul>
+ * 文档以JSON保存在_source存储字段中,返回结果和局部更新都从它还原HotelDoc。
+ * isAD由运营直接在ES中设置,只有从ES读到的文档(put)带着它,用MySQL数据写入(upsert)时保留原值。
+ * 写入后调用refresh才对查询可见
+ */
+public class LocalHotelIndex implements Closeable {
+
+    private static final String SOURCE = "_source";
+
+    private static final int AD_BOOST = 10;
+
+    private final Analyzer analyzer = new SmartChineseAnalyzer();
+
+    private final IndexWriter writer;
+
+    private final SearcherManager searcherManager;
+
+    /**
+     * 带isAD的文档的isAD取值,这样的文档很少,upsert时不用先读出原文档
+     */
+    private final Map<Long, Object> adFlags = new ConcurrentHashMap<>();
+
+    public LocalHotelIndex() {
+        try {
+            writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(analyzer));
+            searcherManager = new SearcherManager(writer, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 用MySQL中的数据写入,保留原文档的isAD
+     */
+    public void upsert(Hotel hotel) {
+        HotelDoc hotelDoc = new HotelDoc(hotel);
+        //补全词条由SuggestionIndex负责,hash只用于ES的一致性检查
+        hotelDoc.setSuggestion(null);
+        hotelDoc.setHash(null);
+        JSONObject source = JSON.parseObject(JSON.toJSONString(hotelDoc));
+        Object isAD = adFlags.get(hotel.getId());
+        if (isAD != null) {
+            source.put("isAD", isAD);
+        }
+        write(source);
+    }
+
+    /**
+     * 写入从ES读到的文档
+     */
+    public void put(JSONObject source) {
+        source.remove("suggestion");
+        source.remove("hash");
+        write(source);
+    }
+
+    /**
+     * @return 当前的文档,包括还没有refresh的写入,不存在时返回null
+     */
+    public synchronized JSONObject source(long id) {
+        refresh();
+        return get(id);
+    }
+
+    /**
+     * 局部更新: 在保存的文档上覆盖changes后重新写入,文档不存在时忽略
+     * @return 文档是否存在
+     */
+    public synchronized boolean update(long id, Map<String, Object> changes) {
+        refresh();
+        JSONObject source = get(id);
+        if (source == null) {
+            return false;
+        }
+        source.putAll(changes);
+        write(source);
+        return true;
+    }
+
+    public synchronized void remove(long id) {
+        adFlags.remove(id);
+        try {
+            writer.deleteDocuments(new Term("id", String.valueOf(id)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 让之前的写入对查询可见
+     */
+    public void refresh() {
+        try {
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int size() {
+        return writer.getDocStats().numDocs;
+    }
+
+    /**
+     * 与HotelService的普通分页查询结果相同: 有location时按距离排序,否则按算分排序
+     * @param filters 不为null时同时统计品牌、城市、星级,结果放入filters
+     * @param fields 返回的HotelDoc字段,为null时返回全部字段
+     */
+    public PageResult search(RequestParams params, Map<String, List<String>> filters, Collection<String> fields) {
+        int from = (params.getPage() - 1) * params.getSize();
+        int numHits = Math.max(1, from + params.getSize());
+        double[] point = parseLocation(params.getLocation());
+        TopDocsCollector<?> topDocs = point == null
+                ? TopScoreDocCollector.create(numHits, Integer.MAX_VALUE)
+                : TopFieldCollector.create(new Sort(LatLonDocValuesField.newDistanceSort("location", point[0], point[1])),
+                numHits, Integer.MAX_VALUE);
+        FacetCollector facets = filters == null ? null : new FacetCollector();
+        IndexSearcher searcher = acquire();
+        try {
+            searcher.search(buildQuery(params), facets == null ? topDocs : MultiCollector.wrap(topDocs, facets));
+            TopDocs docs = topDocs.topDocs(from, params.getSize());
+            List<HotelDoc> hotels = new ArrayList<>(docs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : docs.scoreDocs) {
+                HotelDoc hotelDoc = decode(searcher.doc(scoreDoc.doc).getBinaryValue(SOURCE), fields);
+                if (point != null) {
+                    //与ES的距离排序一样以公里为单位
+                    hotelDoc.setDistance((Double) ((FieldDoc) scoreDoc).fields[0] / 1000);
+                }
+                hotels.add(hotelDoc);
+            }
+            if (filters != null) {
+                filters.putAll(facets.result());
+            }
+            return new PageResult(docs.totalHits.value, hotels);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * 与HotelService.getFilters相同: 统计满足条件的酒店的品牌、城市、星级
+     */
+    public Map<String, List<String>> filters(RequestParams params) {
+        FacetCollector facets = new FacetCollector();
+        IndexSearcher searcher = acquire();
+        try {
+            searcher.search(buildQuery(params), facets);
+            return facets.result();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    Query buildQuery(RequestParams params) {
+        BooleanQuery.Builder bool = new BooleanQuery.Builder();
+        /*关键字搜索*/
+        String key = params.getKey();
+        if (StringUtils.isEmpty(key)) {
+            bool.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        } else {
+            Query match = new QueryBuilder(analyzer).createBooleanQuery("all", key);
+            //分词后没有词项时和ES的match查询一样不匹配任何文档
+            bool.add(match == null ? new MatchNoDocsQuery() : match, BooleanClause.Occur.MUST);
+        }
+        /*城市、品牌、星级条件*/
+        addTermFilter(bool, "city", params.getCity());
+        addTermFilter(bool, "brand", params.getBrand());
+        addTermFilter(bool, "starName", params.getStarName());
+        /*价格范围*/
+        if (params.getMaxPrice() != null) {
+            int min = params.getMinPrice() == null ? Integer.MIN_VALUE : params.getMinPrice();
+            bool.add(IntPoint.newRangeQuery("price", min, params.getMaxPrice()), BooleanClause.Occur.FILTER);
+        }
+        /*广告置顶*/
+        return FunctionScoreQuery.boostByQuery(bool.build(), new TermQuery(new Term("isAD", "true")), AD_BOOST);
+    }
+
+    private static void addTermFilter(BooleanQuery.Builder bool, String field, String value) {
+        if (!StringUtils.isEmpty(value)) {
+            bool.add(new TermQuery(new Term(field, value)), BooleanClause.Occur.FILTER);
+        }
+    }
+
+    private synchronized void write(JSONObject source) {
+        String id = source.getString("id");
+        Object isAD = source.get("isAD");
+        if (isAD != null) {
+            adFlags.put(Long.valueOf(id), isAD);
+        } else {
+            adFlags.remove(Long.valueOf(id));
+        }
+        Document document = new Document();
+        document.add(new StringField("id", id, Field.Store.NO));
+        document.add(new StoredField(SOURCE, source.toJSONString().getBytes(StandardCharsets.UTF_8)));
+        for (String field : FacetCollector.FIELDS) {
+            String value = source.getString(field);
+            if (value != null) {
+                document.add(new StringField(field, value, Field.Store.NO));
+                document.add(new SortedDocValuesField(field, new BytesRef(value)));
+            }
+        }
+        Integer price = source.getInteger("price");
+        if (price != null) {
+            document.add(new IntPoint("price", price));
+        }
+        double[] point = parseLocation(source.getString("location"));
+        if (point != null) {
+            document.add(new LatLonPoint("location", point[0], point[1]));
+            document.add(new LatLonDocValuesField("location", point[0], point[1]));
+        }
+        //name、brand、city在ES中copy_to到all
+        for (String field : new String[]{"name", "brand", "city"}) {
+            String value = source.getString(field);
+            if (value != null) {
+                document.add(new TextField("all", value, Field.Store.NO));
+            }
+        }
+        if ("true".equals(source.getString("isAD"))) {
+            document.add(new StringField("isAD", "true", Field.Store.NO));
+        }
+        try {
+            writer.updateDocument(new Term("id", id), document);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 读取最近一次refresh之后的文档
+     */
+    private JSONObject get(long id) {
+        IndexSearcher searcher = acquire();
+        try {
+            TopDocs docs = searcher.search(new TermQuery(new Term("id", String.valueOf(id))), 1);
+            if (docs.scoreDocs.length == 0) {
+                return null;
+            }
+            BytesRef source = searcher.doc(docs.scoreDocs[0].doc).getBinaryValue(SOURCE);
+            return JSON.parseObject(source.utf8ToString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    private static HotelDoc decode(BytesRef source, Collection<String> fields) {
+        JSONObject json = JSON.parseObject(source.utf8ToString());
+        if (fields != null) {
+            json.keySet().retainAll(fields);
+        }
+        return json.toJavaObject(HotelDoc.class);
+    }
+
+    /**
+     * @param location "纬度, 经度"
+     * @return [纬度, 经度],为空或无法解析时返回null
+     */
+    static double[] parseLocation(String location) {
+        if (StringUtils.isEmpty(location)) {
+            return null;
+        }
+        String[] parts = location.split(",");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            double lat = Double.parseDouble(parts[0].trim());
+            double lon = Double.parseDouble(parts[1].trim());
+            return lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180 ? new double[]{lat, lon} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private IndexSearcher acquire() {
+        try {
+            return searcherManager.acquire();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void release(IndexSearcher searcher) {
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+    }
+}
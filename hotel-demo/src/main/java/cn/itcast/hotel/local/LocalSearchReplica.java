@@ -0,0 +1,278 @@
+package cn.itcast.hotel.local;
+
+import cn.itcast.hotel.config.LocalIndexProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.constants.HotelConstants;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * hotel索引在本进程内的只读副本
+ * 从ES分页读取构建,这样带着运营在ES中设置的isAD;
+ * 之后由LocalReplicaListener从本实例独占的队列收到全部变更增量维护,
+ * 并按resyncInterval定期重建,修正乱序消息等原因造成的偏差。
+ * 首次构建完成前isReady返回false,查询由调用方回退到ES
+ */
+@Slf4j
+@Component
+public class LocalSearchReplica {
+
+    /**
+     * 重建后旧索引上可能还有进行中的查询,延迟关闭
+     */
+    private static final long CLOSE_DELAY_SECONDS = 60;
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private LocalIndexProperties properties;
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    private final ScheduledExecutorService buildExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "local-index-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 提供查询的索引,首次构建完成前为null
+     */
+    private volatile LocalHotelIndex index;
+
+    /**
+     * 正在构建的索引,构建期间的变更同时写入它
+     */
+    private LocalHotelIndex building;
+
+    /**
+     * 构建期间已经由MQ事件处理过的酒店,构建时不能再用读到的旧数据覆盖
+     */
+    private final Set<Long> changedWhileBuilding = new HashSet<>();
+
+    private final Object lock = new Object();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAsync() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long interval = properties.getResyncInterval().toMillis();
+        if (interval > 0) {
+            buildExecutor.scheduleWithFixedDelay(this::rebuild, 0, interval, TimeUnit.MILLISECONDS);
+        } else {
+            buildExecutor.execute(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        LocalHotelIndex target = new LocalHotelIndex();
+        synchronized (lock) {
+            building = target;
+            changedWhileBuilding.clear();
+        }
+        try {
+            Object[] after = null;
+            while (true) {
+                SearchHit[] hits = fetch(after);
+                synchronized (lock) {
+                    for (SearchHit hit : hits) {
+                        if (changedWhileBuilding.contains(Long.valueOf(hit.getId()))) {
+                            continue;
+                        }
+                        try {
+                            target.put(JSON.parseObject(hit.getSourceAsString()));
+                        } catch (RuntimeException e) {
+                            log.warn("酒店{}无法写入本地索引", hit.getId(), e);
+                        }
+                    }
+                }
+                if (hits.length < properties.getPageSize()) {
+                    break;
+                }
+                after = hits[hits.length - 1].getSortValues();
+            }
+            LocalHotelIndex old;
+            synchronized (lock) {
+                target.refresh();
+                old = index;
+                index = target;
+                building = null;
+                changedWhileBuilding.clear();
+            }
+            log.info("本地索引构建完成,{}个酒店,耗时{}ms", target.size(), System.currentTimeMillis() - start);
+            if (old != null) {
+                buildExecutor.schedule(() -> closeQuietly(old), CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                building = null;
+                changedWhileBuilding.clear();
+            }
+            closeQuietly(target);
+            log.error("本地索引构建失败,{}", index == null ? "继续使用ES查询" : "继续使用上一次构建的索引", e);
+        }
+    }
+
+    /**
+     * 按id.num升序search_after翻页,不取只给ES用的字段
+     */
+    private SearchHit[] fetch(Object[] after) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .size(properties.getPageSize())
+                .trackTotalHits(false)
+                .fetchSource(null, searchProperties.getProjection().getExcludes().toArray(new String[0]))
+                .sort(SortBuilders.fieldSort("id.num").order(SortOrder.ASC));
+        if (after != null) {
+            source.searchAfter(after);
+        }
+        try {
+            SearchResponse response = client.search(
+                    new SearchRequest(HotelConstants.INDEX_NAME).source(source), RequestOptions.DEFAULT);
+            return response.getHits().getHits();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean isReady() {
+        return index != null;
+    }
+
+    public PageResult search(RequestParams params, Map<String, List<String>> filters) {
+        SearchProperties.Projection projection = searchProperties.getProjection();
+        return index.search(params, filters, projection.isEnabled() ? projection.getList() : null);
+    }
+
+    public Map<String, List<String>> filters(RequestParams params) {
+        return index.filters(params);
+    }
+
+    /**
+     * 应用一批已经按酒店id合并过的变更,写完后对查询可见。
+     * 新增和修改从MySQL读取完整数据,isAD保留索引中的原值
+     */
+    public void apply(List<HotelSyncEvent> events) {
+        if (!properties.isEnabled() || events.isEmpty()) {
+            return;
+        }
+        List<Long> ids = events.stream()
+                .filter(event -> event.getType() == HotelSyncEvent.Type.UPSERT)
+                .map(HotelSyncEvent::getId)
+                .collect(Collectors.toList());
+        Map<Long, Hotel> hotels = ids.isEmpty() ? Collections.emptyMap()
+                : hotelMapper.selectBatchIds(ids).stream().collect(Collectors.toMap(Hotel::getId, Function.identity()));
+        for (HotelSyncEvent event : events) {
+            try {
+                apply(event, hotels.get(event.getId()));
+            } catch (RuntimeException e) {
+                log.warn("酒店{}无法写入本地索引", event.getId(), e);
+            }
+        }
+        LocalHotelIndex current = index;
+        if (current != null) {
+            current.refresh();
+        }
+    }
+
+    private void apply(HotelSyncEvent event, Hotel hotel) {
+        Long id = event.getId();
+        synchronized (lock) {
+            LocalHotelIndex current = index;
+            if (current != null) {
+                apply(current, event, hotel);
+            }
+            if (building == null) {
+                return;
+            }
+            changedWhileBuilding.add(id);
+            if (current == null) {
+                apply(building, event, hotel);
+                return;
+            }
+            //正在构建的索引和当前索引保持一致,包括当前索引中的isAD
+            JSONObject source = current.source(id);
+            if (source == null) {
+                building.remove(id);
+            } else {
+                building.put(source);
+            }
+        }
+    }
+
+    private void apply(LocalHotelIndex target, HotelSyncEvent event, Hotel hotel) {
+        if (event.getType() == HotelSyncEvent.Type.PARTIAL && target.update(event.getId(), event.getChanges())) {
+            return;
+        }
+        if (event.getType() != HotelSyncEvent.Type.DELETE && hotel == null) {
+            //局部更新的文档还没有写入,从MySQL读取完整数据
+            hotel = hotelMapper.selectById(event.getId());
+        }
+        if (event.getType() == HotelSyncEvent.Type.DELETE || hotel == null) {
+            target.remove(event.getId());
+        } else {
+            target.upsert(hotel);
+        }
+    }
+
+    private static void closeQuietly(LocalHotelIndex target) {
+        try {
+            target.close();
+        } catch (IOException e) {
+            log.warn("关闭本地索引失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        buildExecutor.shutdownNow();
+        List<LocalHotelIndex> indexes = new ArrayList<>();
+        synchronized (lock) {
+            if (index != null) {
+                indexes.add(index);
+            }
+            if (building != null) {
+                indexes.add(building);
+            }
+        }
+        indexes.forEach(LocalSearchReplica::closeQuietly);
+    }
+}
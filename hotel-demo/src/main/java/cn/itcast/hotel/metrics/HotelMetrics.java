@@ -0,0 +1,171 @@
+package cn.itcast.hotel.metrics;
+
+import cn.itcast.hotel.guard.ElasticsearchRejectedException;
+import cn.itcast.hotel.guard.SearchTimeoutException;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import cn.itcast.hotel.reconcile.DigestMergeJoin;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 搜索和MQ同步的指标,通过 /actuator/prometheus 和 /actuator/metrics 暴露
+ * <ul>
+ *     <li>hotel.phase: 各操作每个阶段的耗时,标签operation、phase(build/es/parse/trie/mysql/local)</li>
+ *     <li>hotel.failures: 各操作的失败次数,标签operation、reason(error/cancelled/rejected)</li>
+ *     <li>hotel.fallbacks: ES失败或被拒绝时返回降级结果的次数,标签operation</li>
+ *     <li>hotel.sync.documents: 同步到ES的文档数,标签action(index/update/delete)、result(success/failure/missing)</li>
+ *     <li>hotel.search.geo.ring: 就近搜索在哪一级半径得到结果,标签radius,用于调整半径配置</li>
+ *     <li>hotel.sync.compacted: 同一批内被同一酒店的后续变更覆盖而合并掉的消息数</li>
+ *     <li>hotel.sync.lag: 从admin发布消息到ES写入成功的延迟,只统计实际写入的文档,不含noop、冲突和本来就不存在的删除</li>
+ *     <li>hotel.sync.retries / hotel.sync.dead.letters: 同步失败后重新投递和进入死信的消息数</li>
+ *     <li>hotel.reconcile.drift: 一致性检查发现的不一致酒店数,标签type(missing/orphan/stale)</li>
+ *     <li>hotel.reconcile.last.drift: 最近一次完成的一致性检查发现的不一致酒店数,标签同上</li>
+ *     <li>hotel.reconcile.checked: 一致性检查比较过的酒店数</li>
+ * </ul>
+ */
+@Component
+public class HotelMetrics {
+
+    public static final String BUILD = "build";
+    public static final String ES = "es";
+    public static final String PARSE = "parse";
+    public static final String TRIE = "trie";
+    public static final String MYSQL = "mysql";
+    /**
+     * 在本地索引副本上执行的查询
+     */
+    public static final String LOCAL = "local";
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Timer> phaseTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Timer syncLag;
+
+    private final Map<DigestMergeJoin.Drift, AtomicLong> lastDrift = new EnumMap<>(DigestMergeJoin.Drift.class);
+
+    public HotelMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.syncLag = Timer.builder("hotel.sync.lag")
+                .description("从发布酒店变更消息到ES写入成功的时间")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .register(registry);
+        for (DigestMergeJoin.Drift drift : DigestMergeJoin.Drift.values()) {
+            AtomicLong value = new AtomicLong();
+            lastDrift.put(drift, value);
+            Gauge.builder("hotel.reconcile.last.drift", value, AtomicLong::get)
+                    .description("最近一次一致性检查发现的不一致酒店数")
+                    .tag("type", drift.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     * @param startNanos 阶段开始时的System.nanoTime()
+     * @return 当前时间,可以直接作为下一个阶段的开始时间
+     */
+    public long record(String operation, String phase, long startNanos) {
+        long now = System.nanoTime();
+        phaseTimer(operation, phase).record(now - startNanos, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    public void failure(String operation, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        String reason = cause instanceof SearchTimeoutException ? "timeout"
+                : cause instanceof CancellationException ? "cancelled"
+                : cause instanceof ElasticsearchRejectedException ? "rejected" : "error";
+        counter("hotel.failures", "operation", operation, "reason", reason).increment();
+    }
+
+    public void fallback(String operation) {
+        counter("hotel.fallbacks", "operation", operation).increment();
+    }
+
+    /**
+     * @param result success、failure、missing(数据库中已不存在)、stale(文档已经是更新的版本)
+     *               或conflict(一致性修复时文档已被同步消息修改)
+     */
+    public void synced(HotelSyncEvent.Type type, String result) {
+        String action = type == HotelSyncEvent.Type.DELETE ? "delete"
+                : type == HotelSyncEvent.Type.PARTIAL ? "update" : "index";
+        counter("hotel.sync.documents", "action", action, "result", result).increment();
+    }
+
+    /**
+     * @param count 同一批内被后续变更覆盖、不再写入ES的消息数
+     */
+    public void compacted(int count) {
+        if (count > 0) {
+            counter("hotel.sync.compacted").increment(count);
+        }
+    }
+
+    /**
+     * @param publishedAt 消息发布时间,旧版本admin发布的消息没有时间戳,为null时不统计
+     */
+    public void syncLag(Long publishedAt) {
+        if (publishedAt != null) {
+            syncLag.record(Math.max(0, System.currentTimeMillis() - publishedAt), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param radius 就近搜索最终命中的半径(km),unbounded表示退回了不限范围的查询
+     */
+    public void geoRing(String radius) {
+        counter("hotel.search.geo.ring", "radius", radius).increment();
+    }
+
+    public void retried(boolean deadLetter) {
+        counter(deadLetter ? "hotel.sync.dead.letters" : "hotel.sync.retries").increment();
+    }
+
+    public void drift(DigestMergeJoin.Drift drift) {
+        counter("hotel.reconcile.drift", "type", drift.name().toLowerCase(Locale.ROOT)).increment();
+    }
+
+    /**
+     * 一次一致性检查完成
+     * @param checked 两边都有、比较过内容的酒店数
+     * @param drifts 各类不一致的酒店数
+     */
+    public void reconciled(long checked, Map<DigestMergeJoin.Drift, Long> drifts) {
+        counter("hotel.reconcile.checked").increment(checked);
+        drifts.forEach((drift, count) -> lastDrift.get(drift).set(count));
+    }
+
+    private Timer phaseTimer(String operation, String phase) {
+        return phaseTimers.computeIfAbsent(operation + '.' + phase, key -> Timer.builder("hotel.phase")
+                .description("操作各阶段耗时")
+                .tag("operation", operation)
+                .tag("phase", phase)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private Counter counter(String name, String... tags) {
+        return counters.computeIfAbsent(name + String.join(",", tags), key -> Counter.builder(name)
+                .tags(tags)
+                .register(registry));
+    }
+}
@@ -0,0 +1,105 @@
+package cn.itcast.hotel.metrics;
+
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.constants.HotelConstants;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定时读取hotel索引的分片request cache统计,用来确认规范化和preference的效果
+ * <ul>
+ *     <li>hotel.es.request.cache.hit.ratio: 最近一个统计周期内的命中率,周期内没有请求时保持上一次的值</li>
+ *     <li>hotel.es.request.cache.hits / misses / evictions: 所有分片的累计次数</li>
+ *     <li>hotel.es.request.cache.memory: 所有分片request cache占用的内存</li>
+ * </ul>
+ * 统计的是整个索引,包括其他应用的请求
+ */
+@Slf4j
+@Component
+public class RequestCacheStats {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "request-cache-stats");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong memoryBytes = new AtomicLong();
+
+    private volatile double hitRatio;
+
+    public RequestCacheStats(MeterRegistry registry) {
+        Gauge.builder("hotel.es.request.cache.hit.ratio", this, stats -> stats.hitRatio)
+                .description("最近一个统计周期内hotel索引request cache的命中率")
+                .register(registry);
+        FunctionCounter.builder("hotel.es.request.cache.hits", hits, AtomicLong::get).register(registry);
+        FunctionCounter.builder("hotel.es.request.cache.misses", misses, AtomicLong::get).register(registry);
+        FunctionCounter.builder("hotel.es.request.cache.evictions", evictions, AtomicLong::get).register(registry);
+        Gauge.builder("hotel.es.request.cache.memory", memoryBytes, AtomicLong::get)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void schedule() {
+        SearchProperties.RequestCache properties = searchProperties.getRequestCache();
+        if (properties.isEnabled()) {
+            long interval = properties.getStatsInterval().toMillis();
+            poller.scheduleWithFixedDelay(this::poll, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+    }
+
+    private void poll() {
+        try {
+            Request request = new Request("GET", "/" + HotelConstants.INDEX_NAME + "/_stats/request_cache");
+            Response response = client.getLowLevelClient().performRequest(request);
+            JSONObject cache = JSON.parseObject(EntityUtils.toString(response.getEntity()))
+                    .getJSONObject("_all").getJSONObject("total").getJSONObject("request_cache");
+            long hitCount = cache.getLongValue("hit_count");
+            long missCount = cache.getLongValue("miss_count");
+            long newHits = hitCount - hits.getAndSet(hitCount);
+            long newMisses = missCount - misses.getAndSet(missCount);
+            //节点重启后累计值会变小,这一周期不计算
+            if (newHits >= 0 && newMisses >= 0 && newHits + newMisses > 0) {
+                hitRatio = (double) newHits / (newHits + newMisses);
+            }
+            evictions.set(cache.getLongValue("evictions"));
+            memoryBytes.set(cache.getLongValue("memory_size_in_bytes"));
+        } catch (IOException | RuntimeException e) {
+            log.debug("读取request cache统计失败", e);
+        }
+    }
+}
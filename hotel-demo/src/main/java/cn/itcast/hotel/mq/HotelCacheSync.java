@@ -0,0 +1,103 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.cache.FiltersCache;
+import cn.itcast.hotel.cache.PageResultCache;
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelCacheInvalidation;
+import cn.itcast.hotel.suggest.SuggestionIndex;
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 补全索引、过滤项缓存和列表缓存都在每个实例的内存里,而同步消息只由一个实例消费;
+ * 消费的实例写完ES后把失效通知广播到hotel.cache.fanout,每个实例(包括自己)从独占的队列收到后更新自己的缓存
+ */
+@Slf4j
+@Component
+public class HotelCacheSync {
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private SuggestionIndex suggestionIndex;
+
+    @Autowired
+    private FiltersCache filtersCache;
+
+    @Autowired
+    private PageResultCache pageCache;
+
+    /**
+     * 广播失败时只更新本实例的缓存,其他实例的缓存等过期
+     */
+    public void publish(HotelCacheInvalidation invalidation) {
+        Message message = MessageBuilder.withBody(JSON.toJSONBytes(invalidation))
+                .setContentType(MessageProperties.CONTENT_TYPE_JSON)
+                .build();
+        try {
+            rabbitTemplate.send(MqConstants.HOTEL_CACHE_EXCHANGE, "", message);
+        } catch (AmqpException e) {
+            log.warn("广播缓存失效通知失败,只更新本实例的缓存", e);
+            apply(invalidation);
+        }
+    }
+
+    @RabbitListener(queues = "#{hotelCacheQueue.name}")
+    public void listenInvalidation(Message message) {
+        HotelCacheInvalidation invalidation;
+        try {
+            invalidation = JSON.parseObject(new String(message.getBody(), StandardCharsets.UTF_8),
+                    HotelCacheInvalidation.class);
+        } catch (RuntimeException e) {
+            log.warn("无法解析的缓存失效通知,忽略: {}", message, e);
+            return;
+        }
+        apply(invalidation);
+    }
+
+    private void apply(HotelCacheInvalidation invalidation) {
+        if (invalidation.getScopes() == null) {
+            pageCache.invalidateAll();
+        } else {
+            pageCache.invalidate(invalidation.getScopes());
+        }
+        // 酒店增删会改变品牌、城市、星级的聚合结果
+        filtersCache.invalidateAll();
+        if (invalidation.getDeleted() != null) {
+            invalidation.getDeleted().forEach(suggestionIndex::remove);
+        }
+        if (invalidation.getUpserted() == null || invalidation.getUpserted().isEmpty()) {
+            return;
+        }
+        Map<Long, Hotel> hotels = hotelMapper.selectBatchIds(invalidation.getUpserted()).stream()
+                .collect(Collectors.toMap(Hotel::getId, Function.identity()));
+        for (Long id : invalidation.getUpserted()) {
+            Hotel hotel = hotels.get(id);
+            if (hotel == null) {
+                //写入之后又被删除,删除的通知随后会到
+                suggestionIndex.remove(id);
+            } else {
+                suggestionIndex.upsert(hotel);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并同一批消息中同一个酒店的多次变更,只保留最后一次操作:
+ * 多次修改只写一次索引,新增后又删除只删除一次,最终状态与逐条执行相同。
+ * 局部更新只能和局部更新合并,跟在其他操作后面时改为从数据库完整重建
+ */
+public final class HotelEventCompactor {
+
+    private HotelEventCompactor() {
+    }
+
+    /**
+     * @param events 按到达顺序排列的事件
+     * @return 每个酒店一个事件,按最后一次变更的顺序排列;
+     * 发布时间取被合并事件中最早的一个,同步延迟从第一次变更算起
+     */
+    public static List<HotelSyncEvent> compact(List<HotelSyncEvent> events) {
+        Map<Long, HotelSyncEvent> latest = new LinkedHashMap<>(events.size() * 2);
+        for (HotelSyncEvent event : events) {
+            HotelSyncEvent previous = latest.remove(event.getId());
+            latest.put(event.getId(), previous == null ? event : merge(previous, event));
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    /**
+     * 合并同一个酒店的两个事件。两个事件都有版本号时以版本号大的为准,
+     * 重试的消息可能比后面的变更晚到;否则以后到的为准
+     * @param previous 先到的事件
+     * @param event 后到的事件
+     */
+    public static HotelSyncEvent merge(HotelSyncEvent previous, HotelSyncEvent event) {
+        HotelSyncEvent older = previous;
+        HotelSyncEvent newer = event;
+        Long version = null;
+        if (previous.getVersion() != null && event.getVersion() != null) {
+            if (previous.getVersion() > event.getVersion()) {
+                older = event;
+                newer = previous;
+            }
+            version = newer.getVersion();
+        }
+        HotelSyncEvent merged = new HotelSyncEvent(newer.getType(), newer.getId(), newer.getRetries(),
+                earliest(older.getPublishedAt(), newer.getPublishedAt()), version, newer.getChanges());
+        if (newer.getType() == HotelSyncEvent.Type.PARTIAL) {
+            if (older.getType() == HotelSyncEvent.Type.PARTIAL) {
+                Map<String, Object> changes = new HashMap<>(older.getChanges());
+                changes.putAll(newer.getChanges());
+                merged.setChanges(changes);
+            } else {
+                merged.setType(HotelSyncEvent.Type.UPSERT);
+                merged.setChanges(null);
+            }
+        }
+        return merged;
+    }
+
+    private static Long earliest(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : Math.min(a, b);
+    }
+}
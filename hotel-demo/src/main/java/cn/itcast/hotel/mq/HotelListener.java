@@ -1,32 +1,114 @@
 package cn.itcast.hotel.mq;
 
+import cn.itcast.hotel.config.SyncProperties;
 import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.metrics.HotelMetrics;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import cn.itcast.hotel.service.IHotelReindexService;
 import cn.itcast.hotel.service.IHotelService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@Slf4j
 @Component
 public class HotelListener {
 
     @Autowired
     private IHotelService hotelService;
 
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private IHotelReindexService hotelReindexService;
+
+    @Autowired
+    private SyncProperties syncProperties;
+
+    @Autowired
+    private HotelMetrics metrics;
+
+    /**
+     * 批量监听酒店新增、修改和删除的业务
+     * 一批消息先按酒店id合并,再合并为bulk写入ES,每个bulk最多batchSize个酒店,
+     * 方法返回后容器才会ack这一批消息
+     * @param messages 两个队列中攒到的一批消息
+     */
+    @RabbitListener(queues = {MqConstants.HOTEL_INSERT_QUEUE, MqConstants.HOTEL_DELETE_QUEUE},
+            containerFactory = "batchContainerFactory")
+    public void listenHotelChanges(List<Message> messages) {
+        List<HotelSyncEvent> received = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            try {
+                received.addAll(HotelMessages.toEvents(message, rabbitTemplate.getMessageConverter()));
+            } catch (RuntimeException e) {
+                //抛出异常会让整批消息重新入队,无法解析的消息会一直重复投递
+                log.error("无法解析的酒店变更消息,投递到死信交换机: {}", message, e);
+                deadLetter(message);
+            }
+        }
+        //同一批内被后续操作覆盖的变更不再写入ES
+        List<HotelSyncEvent> events = HotelEventCompactor.compact(received);
+        metrics.compacted(received.size() - events.size());
+        hotelReindexService.trackChanges(events);
+        //admin的批量消息一条就包含很多酒店,按batchSize分成多个bulk
+        List<HotelSyncEvent> failed = new ArrayList<>();
+        int batchSize = syncProperties.getBatchSize();
+        for (int from = 0; from < events.size(); from += batchSize) {
+            List<HotelSyncEvent> batch = events.subList(from, Math.min(events.size(), from + batchSize));
+            try {
+                failed.addAll(hotelService.bulkSync(batch));
+            } catch (RuntimeException e) {
+                log.error("批量同步{}条酒店数据失败", batch.size(), e);
+                failed.addAll(batch);
+            }
+        }
+        for (HotelSyncEvent event : failed) {
+            retryOrDeadLetter(event);
+        }
+    }
+
     /**
-     * 监听酒店新增或修改的业务
-     * @param id 酒店id
+     * 原样投递到死信交换机,保留原来的RoutingKey和消息头
      */
-    @RabbitListener( queues= MqConstants.HOTEL_INSERT_QUEUE)
-    public void listenHotelInsertOrUpdate(Long id){
-        hotelService.insertById(id);
+    private void deadLetter(Message message) {
+        metrics.retried(true);
+        rabbitTemplate.send(MqConstants.HOTEL_DLX_EXCHANGE,
+                message.getMessageProperties().getReceivedRoutingKey(), message);
     }
 
     /**
-     * 监听酒店删除的业务
-     * @param id 酒店id
+     * 同步失败的消息重新投递回原队列,重试次数用尽后投递到死信交换机
      */
-    @RabbitListener(queues = MqConstants.HOTEL_DELETE_QUEUE)
-    public void listenHotelDelete(Long id){
-        hotelService.deleteById(id);
+    private void retryOrDeadLetter(HotelSyncEvent event) {
+        String routingKey = event.getType() == HotelSyncEvent.Type.DELETE
+                ? MqConstants.HOTEL_DELETE_KEY : MqConstants.HOTEL_INSERT_KEY;
+        int retries = event.getRetries() + 1;
+        String exchange = MqConstants.HOTEL_EXCHANGE;
+        if (retries > syncProperties.getMaxRetries()) {
+            log.error("酒店{}同步重试{}次仍失败,投递到死信交换机", event.getId(), event.getRetries());
+            exchange = MqConstants.HOTEL_DLX_EXCHANGE;
+        }
+        metrics.retried(exchange.equals(MqConstants.HOTEL_DLX_EXCHANGE));
+        // 只重发id,局部更新失败(例如文档还不存在)时重试按完整重建处理
+        rabbitTemplate.convertAndSend(exchange, routingKey, event.getId(), message -> {
+            message.getMessageProperties().setHeader(MqConstants.RETRY_HEADER, retries);
+            if (event.getVersion() != null) {
+                message.getMessageProperties().setHeader(MqConstants.VERSION_HEADER, event.getVersion());
+            }
+            // 保留原始发布时间,同步延迟包含重试花掉的时间
+            if (event.getPublishedAt() != null) {
+                message.getMessageProperties().setTimestamp(new Date(event.getPublishedAt()));
+            }
+            return message;
+        });
     }
 }
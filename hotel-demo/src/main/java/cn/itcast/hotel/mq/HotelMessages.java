@@ -0,0 +1,83 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.pojo.HotelChangeSet;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把hotel.topic上的酒店变更消息解析为HotelSyncEvent,
+ * 同步ES的监听和本地索引副本的监听共用
+ */
+public final class HotelMessages {
+
+    private HotelMessages() {
+    }
+
+    /**
+     * @param converter 解析只有酒店id的消息
+     * @throws RuntimeException 消息内容无法解析,重新投递也不会成功
+     */
+    public static List<HotelSyncEvent> toEvents(Message message, MessageConverter converter) {
+        if (!MessageProperties.CONTENT_TYPE_JSON.equals(message.getMessageProperties().getContentType())) {
+            // 新增、删除以及旧版本admin的修改消息: 只有id
+            return Collections.singletonList(toEvent(message, id(converter.fromMessage(message))));
+        }
+        Object body = JSON.parse(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (!(body instanceof JSONArray)) {
+            // 修改消息: 带着改变的字段
+            return Collections.singletonList(toEvent(message, ((JSONObject) body).toJavaObject(HotelChangeSet.class)));
+        }
+        // 批量导入的消息: 酒店id或修改的字段组成的数组
+        JSONArray items = (JSONArray) body;
+        List<HotelSyncEvent> events = new ArrayList<>(items.size());
+        for (Object item : items) {
+            events.add(item instanceof JSONObject
+                    ? toEvent(message, ((JSONObject) item).toJavaObject(HotelChangeSet.class))
+                    : toEvent(message, id(item)));
+        }
+        return events;
+    }
+
+    private static Long id(Object value) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("不是酒店id: " + value);
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static HotelSyncEvent toEvent(Message message, Long id) {
+        // 按RoutingKey区分,重试的消息也用原来的RoutingKey投递
+        HotelSyncEvent.Type type = MqConstants.HOTEL_DELETE_KEY.equals(message.getMessageProperties().getReceivedRoutingKey())
+                ? HotelSyncEvent.Type.DELETE : HotelSyncEvent.Type.UPSERT;
+        Map<String, Object> headers = message.getMessageProperties().getHeaders();
+        Object retries = headers.get(MqConstants.RETRY_HEADER);
+        Object version = headers.get(MqConstants.VERSION_HEADER);
+        Date timestamp = message.getMessageProperties().getTimestamp();
+        return new HotelSyncEvent(type, id, retries == null ? 0 : ((Number) retries).intValue(),
+                timestamp == null ? null : timestamp.getTime(),
+                version == null ? null : ((Number) version).longValue(), null);
+    }
+
+    private static HotelSyncEvent toEvent(Message message, HotelChangeSet changeSet) {
+        HotelSyncEvent event = toEvent(message, id(changeSet.getId()));
+        //没有版本号的局部更新无法判断先后,按完整重建处理
+        if (changeSet.isPartial() && event.getVersion() != null) {
+            event.setType(HotelSyncEvent.Type.PARTIAL);
+            event.setChanges(changeSet.getChanges());
+        }
+        return event;
+    }
+}
@@ -0,0 +1,157 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangeSet;
+import cn.itcast.hotel.pojo.HotelDoc;
+import com.alibaba.fastjson.JSON;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 同步写入ES的请求,全部是带脚本的UpdateRequest,由脚本比较版本号决定是否写入。
+ * admin把发件箱消息的id作为版本号,同一个酒店的版本号按修改提交的顺序递增,文档中记录已写入的版本:
+ * <ul>
+ *     <li>syncVersion: 最近一次完整写入的版本,完整写入从MySQL加载,决定局部更新字段以外的所有字段</li>
+ *     <li>partialSyncVersion: 局部更新字段(价格、评分、星级)最近一次写入的版本</li>
+ * </ul>
+ * 版本不大于记录值的写入是乱序或重复投递的旧变更,脚本把它变成noop。
+ * 局部更新字段单独记录版本: 较新的局部更新先到、较旧的完整写入后到时,完整写入只更新其他字段。
+ * 没有版本号的事件(旧版本admin的消息、一致性修复)无条件写入,不改变记录的版本;
+ * 一致性修复改用_seq_no做条件,只在文档仍是扫描时的版本时写入。
+ * isAD由运营直接在ES中维护,数据库中没有,完整写入时保留原值
+ */
+public final class HotelWriteRequests {
+
+    /**
+     * 多个消费者同时写同一个文档时,脚本基于最新文档重新执行的次数
+     */
+    private static final int RETRY_ON_CONFLICT = 3;
+
+    private static final String UPSERT_SCRIPT =
+            "def old = ctx._source;\n" +
+            "def v = params.version;\n" +
+            "boolean full = v == null || old.syncVersion == null || old.syncVersion < v;\n" +
+            "boolean partial = v == null || old.partialSyncVersion == null || old.partialSyncVersion < v;\n" +
+            "if (full) {\n" +
+            "  Map doc = new HashMap(params.doc);\n" +
+            "  if (!partial) {\n" +
+            "    for (f in params.fields) { if (old.containsKey(f)) { doc[f] = old[f]; } else { doc.remove(f); } }\n" +
+            "  }\n" +
+            "  if (old.containsKey('isAD')) { doc.isAD = old.isAD; }\n" +
+            "  doc.syncVersion = v == null ? old.syncVersion : v;\n" +
+            "  doc.partialSyncVersion = v == null || !partial ? old.partialSyncVersion : v;\n" +
+            "  ctx._source = doc;\n" +
+            "} else if (partial) {\n" +
+            "  for (f in params.fields) { if (params.doc.containsKey(f)) { old[f] = params.doc[f]; } else { old.remove(f); } }\n" +
+            "  old.partialSyncVersion = v;\n" +
+            "} else {\n" +
+            "  ctx.op = 'none';\n" +
+            "}";
+
+    private static final String PARTIAL_SCRIPT =
+            "def old = ctx._source;\n" +
+            "if (old.partialSyncVersion == null || old.partialSyncVersion < params.version) {\n" +
+            "  for (f in params.doc.keySet()) { old[f] = params.doc[f]; }\n" +
+            "  old.partialSyncVersion = params.version;\n" +
+            "} else {\n" +
+            "  ctx.op = 'none';\n" +
+            "}";
+
+    private static final String DELETE_SCRIPT =
+            "def v = params.version;\n" +
+            "if (v == null || ctx._source.syncVersion == null || ctx._source.syncVersion < v) {\n" +
+            "  ctx.op = 'delete';\n" +
+            "} else {\n" +
+            "  ctx.op = 'none';\n" +
+            "}";
+
+    private HotelWriteRequests() {
+    }
+
+    /**
+     * 用MySQL中的数据完整写入,文档不存在时新建
+     */
+    public static UpdateRequest upsert(String index, Hotel hotel, Long version) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("doc", JSON.parseObject(JSON.toJSONString(new HotelDoc(hotel))));
+        params.put("fields", new ArrayList<>(HotelChangeSet.PARTIAL_UPDATE_FIELDS));
+        params.put("version", version);
+        return new UpdateRequest(index, String.valueOf(hotel.getId()))
+                .script(painless(UPSERT_SCRIPT, params))
+                .scriptedUpsert(true)
+                .upsert(Collections.<String, Object>emptyMap())
+                .retryOnConflict(RETRY_ON_CONFLICT);
+    }
+
+    /**
+     * 一致性修复: 文档的_seq_no和_primary_term没有变化时才用MySQL中的数据完整写入,
+     * 文档已被修改时请求返回409,已被删除时返回404
+     */
+    public static UpdateRequest upsertIfUnchanged(String index, Hotel hotel, long seqNo, long primaryTerm) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("doc", JSON.parseObject(JSON.toJSONString(new HotelDoc(hotel))));
+        params.put("fields", new ArrayList<>(HotelChangeSet.PARTIAL_UPDATE_FIELDS));
+        params.put("version", null);
+        //带条件的写入不能和upsert、retryOnConflict同时使用
+        return new UpdateRequest(index, String.valueOf(hotel.getId()))
+                .script(painless(UPSERT_SCRIPT, params))
+                .setIfSeqNo(seqNo)
+                .setIfPrimaryTerm(primaryTerm);
+    }
+
+    /**
+     * 一致性修复: 扫描时索引中没有的文档,只在仍然不存在时创建,已被同步消息创建时请求返回409
+     */
+    public static IndexRequest createIfAbsent(String index, Hotel hotel) {
+        return new IndexRequest(index)
+                .id(String.valueOf(hotel.getId()))
+                .create(true)
+                .source(JSON.toJSONString(new HotelDoc(hotel)), XContentType.JSON);
+    }
+
+    /**
+     * 一致性修复: 文档的_seq_no和_primary_term没有变化时才删除
+     */
+    public static DeleteRequest deleteIfUnchanged(String index, Long id, long seqNo, long primaryTerm) {
+        return new DeleteRequest(index, String.valueOf(id))
+                .setIfSeqNo(seqNo)
+                .setIfPrimaryTerm(primaryTerm);
+    }
+
+    /**
+     * 用消息中局部更新字段的全部新值更新文档,文档不存在时请求失败,由重试按完整写入处理
+     * @param version 不能为null,没有版本号的局部更新无法和其他写入排序
+     */
+    public static UpdateRequest partial(String index, Long id, Map<String, Object> changes, long version) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("doc", changes);
+        params.put("version", version);
+        return new UpdateRequest(index, String.valueOf(id))
+                .script(painless(PARTIAL_SCRIPT, params))
+                .retryOnConflict(RETRY_ON_CONFLICT);
+    }
+
+    /**
+     * 删除文档,文档不存在时请求返回404,调用方按删除成功处理
+     */
+    public static UpdateRequest delete(String index, Long id, Long version) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("version", version);
+        return new UpdateRequest(index, String.valueOf(id))
+                .script(painless(DELETE_SCRIPT, params))
+                .retryOnConflict(RETRY_ON_CONFLICT);
+    }
+
+    private static Script painless(String source, Map<String, Object> params) {
+        return new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, source, params);
+    }
+}
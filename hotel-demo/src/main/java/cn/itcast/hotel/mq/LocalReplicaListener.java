@@ -0,0 +1,43 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.local.LocalSearchReplica;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 从本实例独占的队列接收全部酒店变更,维护本地索引副本;
+ * 写入失败的变更不重试,由定期重建修正
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hotel.local-index", name = "enabled", havingValue = "true")
+public class LocalReplicaListener {
+
+    @Autowired
+    private LocalSearchReplica localReplica;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @RabbitListener(queues = "#{localReplicaQueue.name}", containerFactory = "batchContainerFactory")
+    public void listenHotelChanges(List<Message> messages) {
+        List<HotelSyncEvent> received = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            try {
+                received.addAll(HotelMessages.toEvents(message, rabbitTemplate.getMessageConverter()));
+            } catch (RuntimeException e) {
+                log.warn("无法解析的酒店变更消息,本地索引忽略: {}", message, e);
+            }
+        }
+        localReplica.apply(HotelEventCompactor.compact(received));
+    }
+}
@@ -5,6 +5,10 @@ import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 @Data
 @TableName("tb_hotel")
 public class Hotel {
@@ -21,4 +25,29 @@ public class Hotel {
     private String longitude;
     private String latitude;
     private String pic;
+
+    /**
+     * 只在完整写入文档时才会改变的字段的哈希,保存在文档的hash字段中,一致性检查时与数据库比较。
+     * 会被局部更新的字段(HotelChangeSet.PARTIAL_UPDATE_FIELDS)不参与哈希,检查时直接比较取值
+     * @return 16位十六进制字符串
+     */
+    public String contentHash() {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String value : new String[]{name, address, brand, city, business, longitude, latitude, pic}) {
+            //null和空字符串区分开
+            md5.update(value == null ? new byte[]{0} : value.getBytes(StandardCharsets.UTF_8));
+            md5.update((byte) 1);
+        }
+        byte[] digest = md5.digest();
+        StringBuilder hash = new StringBuilder(16);
+        for (int i = 0; i < 8; i++) {
+            hash.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return hash.toString();
+    }
 }
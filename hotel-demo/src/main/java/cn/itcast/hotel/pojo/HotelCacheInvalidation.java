@@ -0,0 +1,29 @@
+package cn.itcast.hotel.pojo;
+
+import cn.itcast.hotel.cache.PageResultCache;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 一批变更写入ES后广播给所有实例的缓存失效通知
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotelCacheInvalidation {
+    /**
+     * 写入了ES的新增或修改的酒店,各实例从MySQL读取后更新补全索引
+     */
+    private List<Long> upserted;
+    /**
+     * 从ES删除的酒店
+     */
+    private List<Long> deleted;
+    /**
+     * 变更前后酒店所在的城市和品牌,为null时失效全部列表缓存
+     */
+    private List<PageResultCache.Scope> scopes;
+}
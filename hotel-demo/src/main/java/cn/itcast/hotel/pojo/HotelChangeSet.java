@@ -0,0 +1,38 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * hotel-admin修改酒店时发布的消息: 酒店id和实际改变的字段
+ */
+@Data
+public class HotelChangeSet {
+
+    /**
+     * 索引中不分词、也不参与suggestion和all的字段,只改这些字段时可以局部更新,
+     * 字段名与HotelDoc一致
+     */
+    public static final Set<String> PARTIAL_UPDATE_FIELDS =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList("price", "score", "starName")));
+
+    private Long id;
+    /**
+     * Hotel的属性名到新值
+     */
+    private Map<String, Object> changes;
+
+    /**
+     * @return 是否可以不查数据库,直接用changes局部更新文档:
+     * 只改了PARTIAL_UPDATE_FIELDS中的字段,并且带着这些字段修改后的全部取值。
+     * 旧版本admin的消息只带改变的字段,乱序时无法整体覆盖,按完整重建处理
+     */
+    public boolean isPartial() {
+        return changes != null && changes.keySet().equals(PARTIAL_UPDATE_FIELDS);
+    }
+}
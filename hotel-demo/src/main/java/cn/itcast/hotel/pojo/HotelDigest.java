@@ -0,0 +1,41 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一致性检查时比较的酒店摘要: 会被局部更新的字段直接比较取值,其余字段比较内容哈希
+ */
+@Data
+@NoArgsConstructor
+public class HotelDigest {
+    private long id;
+    /**
+     * Hotel.contentHash(),旧文档中没有时为null
+     */
+    private String hash;
+    private Integer price;
+    private Integer score;
+    private String starName;
+    /**
+     * 索引中文档的_seq_no和_primary_term,修复时用来判断文档在扫描之后有没有被再次修改;
+     * 数据库的摘要中为null,不参与比较
+     */
+    @EqualsAndHashCode.Exclude
+    private Long seqNo;
+    @EqualsAndHashCode.Exclude
+    private Long primaryTerm;
+
+    public HotelDigest(long id, String hash, Integer price, Integer score, String starName) {
+        this.id = id;
+        this.hash = hash;
+        this.price = price;
+        this.score = score;
+        this.starName = starName;
+    }
+
+    public static HotelDigest of(Hotel hotel) {
+        return new HotelDigest(hotel.getId(), hotel.contentHash(), hotel.getPrice(), hotel.getScore(), hotel.getStarName());
+    }
+}
@@ -1,5 +1,6 @@
 package cn.itcast.hotel.pojo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -8,8 +9,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * 返回给浏览器时省略为null的字段,即没有按距离排序时的distance、非广告的isAD和被字段裁剪掉的字段(包括hash)
+ */
 @Data
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class HotelDoc {
     private Long id;
     private String name;
@@ -25,6 +30,10 @@ public class HotelDoc {
     private Object distance;
     private String isAD;
     private List<String> suggestion;
+    /**
+     * Hotel.contentHash(),用于索引一致性检查
+     */
+    private String hash;
 
     public HotelDoc(Hotel hotel) {
         this.id = hotel.getId();
@@ -38,6 +47,7 @@ public class HotelDoc {
         this.business = hotel.getBusiness();
         this.location = hotel.getLatitude() + ", " + hotel.getLongitude();
         this.pic = hotel.getPic();
+        this.hash = hotel.contentHash();
         // 组装suggestion
         if (this.business.contains("、")) {
             String[] split = this.business.split("、");
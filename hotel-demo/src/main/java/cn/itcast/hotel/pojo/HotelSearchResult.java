@@ -0,0 +1,23 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列表和过滤项合并查询的结果
+ */
+@Data
+public class HotelSearchResult {
+    private PageResult page;
+    private Map<String, List<String>> filters;
+
+    public HotelSearchResult() {
+    }
+
+    public HotelSearchResult(PageResult page, Map<String, List<String>> filters) {
+        this.page = page;
+        this.filters = filters;
+    }
+}
@@ -0,0 +1,74 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 一条待同步到ES的酒店变更
+ */
+@Data
+@NoArgsConstructor
+public class HotelSyncEvent {
+
+    public enum Type {
+        /**
+         * 新增或修改,需要从MySQL重新加载后写入ES
+         */
+        UPSERT,
+        /**
+         * 只修改了PARTIAL_UPDATE_FIELDS中的字段,changes带着这些字段的全部新值,直接局部更新,不查MySQL
+         */
+        PARTIAL,
+        /**
+         * 删除
+         */
+        DELETE
+    }
+
+    private Type type;
+    private Long id;
+    /**
+     * 已重试次数
+     */
+    private int retries;
+    /**
+     * admin发布消息的时间(毫秒),消息没有时间戳时为null
+     */
+    private Long publishedAt;
+    /**
+     * 发件箱消息的id,同一个酒店的版本号按修改提交的顺序递增,ES据此丢弃乱序到达的旧变更;
+     * 旧版本admin的消息和一致性修复没有版本号,为null
+     */
+    private Long version;
+    /**
+     * PARTIAL事件要更新的字段和新值
+     */
+    private Map<String, Object> changes;
+    /**
+     * 一致性修复时扫描到的文档版本,只在文档没有被同步消息再修改过时写入,
+     * 不会用扫描时的判断覆盖之后写入的数据;同步消息的事件为null
+     */
+    private IndexedVersion expected;
+
+    public HotelSyncEvent(Type type, Long id, int retries, Long publishedAt, Long version, Map<String, Object> changes) {
+        this.type = type;
+        this.id = id;
+        this.retries = retries;
+        this.publishedAt = publishedAt;
+        this.version = version;
+        this.changes = changes;
+    }
+
+    /**
+     * 文档的_seq_no和_primary_term,扫描时文档不存在则都为null,只在仍不存在时创建
+     */
+    @Data
+    @AllArgsConstructor
+    public static class IndexedVersion {
+        private Long seqNo;
+        private Long primaryTerm;
+    }
+}
@@ -1,13 +1,19 @@
 package cn.itcast.hotel.pojo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 import java.util.List;
 
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class PageResult {
     private Long total;
     private List<HotelDoc> hotels;
+    /**
+     * 游标分页时下一页的游标,没有更多数据时为null
+     */
+    private String cursor;
 
     public PageResult() {
     }
@@ -14,4 +14,9 @@ public class RequestParams {
     private Integer minPrice;
     private Integer maxPrice;
     private String location;
+    /**
+     * 游标分页: 为null时按page/size分页;
+     * 传空字符串开始游标分页,之后传回上一次响应中的cursor获取下一页
+     */
+    private String cursor;
 }
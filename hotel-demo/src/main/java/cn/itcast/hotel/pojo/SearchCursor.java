@@ -0,0 +1,47 @@
+package cn.itcast.hotel.pojo;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页的游标: point in time的id加上一页最后一条数据的排序值,
+ * 对前端是一个不透明的字符串
+ */
+@Data
+@AllArgsConstructor
+public class SearchCursor {
+    private String pit;
+    private Object[] after;
+
+    public String encode() {
+        JSONObject json = new JSONObject();
+        json.put("pit", pit);
+        json.put("after", after);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(JSON.toJSONString(json).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SearchCursor decode(String cursor) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            JSONObject object = JSON.parseObject(json);
+            JSONArray array = object.getJSONArray("after");
+            Object[] after = new Object[array.size()];
+            for (int i = 0; i < after.length; i++) {
+                Object value = array.get(i);
+                // search_after不接受BigDecimal,小数统一还原为double
+                after[i] = value instanceof BigDecimal ? ((BigDecimal) value).doubleValue() : value;
+            }
+            return new SearchCursor(object.getString("pit"), after);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的cursor", e);
+        }
+    }
+}
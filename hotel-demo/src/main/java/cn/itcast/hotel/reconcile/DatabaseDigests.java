@@ -0,0 +1,58 @@
+package cn.itcast.hotel.reconcile;
+
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.metrics.HotelMetrics;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDigest;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 按id升序遍历tb_hotel的摘要,每次按id游标读一页,只持有当前页
+ */
+public class DatabaseDigests implements Iterator<HotelDigest> {
+
+    private final HotelMapper hotelMapper;
+
+    private final int pageSize;
+
+    private final HotelMetrics metrics;
+
+    private Iterator<Hotel> page = Collections.emptyIterator();
+
+    private long lastId;
+
+    private boolean exhausted;
+
+    public DatabaseDigests(HotelMapper hotelMapper, int pageSize, HotelMetrics metrics) {
+        this.hotelMapper = hotelMapper;
+        this.pageSize = pageSize;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !exhausted) {
+            long start = System.nanoTime();
+            List<Hotel> hotels = hotelMapper.selectAfterId(lastId, pageSize);
+            metrics.record("reconcile", HotelMetrics.MYSQL, start);
+            exhausted = hotels.size() < pageSize;
+            if (!hotels.isEmpty()) {
+                lastId = hotels.get(hotels.size() - 1).getId();
+            }
+            page = hotels.iterator();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public HotelDigest next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return HotelDigest.of(page.next());
+    }
+}
@@ -0,0 +1,68 @@
+package cn.itcast.hotel.reconcile;
+
+import cn.itcast.hotel.pojo.HotelDigest;
+
+import java.util.Iterator;
+
+/**
+ * 对两个按id升序的摘要流做归并连接,只持有两边各自的当前元素,内存占用与数据量无关
+ */
+public final class DigestMergeJoin {
+
+    public enum Drift {
+        /**
+         * 数据库中有、索引中没有
+         */
+        MISSING,
+        /**
+         * 索引中有、数据库中已经没有
+         */
+        ORPHAN,
+        /**
+         * 两边都有但内容不一致
+         */
+        STALE
+    }
+
+    public interface Listener {
+        /**
+         * @param indexed 索引中的摘要,MISSING时为null
+         */
+        void onDrift(Drift drift, long id, HotelDigest indexed);
+    }
+
+    private DigestMergeJoin() {
+    }
+
+    /**
+     * @param database 数据库中的摘要,按id升序
+     * @param index 索引中的摘要,按id升序
+     * @return 两边都有的酒店数
+     */
+    public static long join(Iterator<HotelDigest> database, Iterator<HotelDigest> index, Listener listener) {
+        long matched = 0;
+        HotelDigest left = next(database);
+        HotelDigest right = next(index);
+        while (left != null || right != null) {
+            if (right == null || left != null && left.getId() < right.getId()) {
+                listener.onDrift(Drift.MISSING, left.getId(), null);
+                left = next(database);
+            } else if (left == null || left.getId() > right.getId()) {
+                listener.onDrift(Drift.ORPHAN, right.getId(), right);
+                right = next(index);
+            } else {
+                matched++;
+                if (!left.equals(right)) {
+                    listener.onDrift(Drift.STALE, left.getId(), right);
+                }
+                left = next(database);
+                right = next(index);
+            }
+        }
+        return matched;
+    }
+
+    private static HotelDigest next(Iterator<HotelDigest> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+}
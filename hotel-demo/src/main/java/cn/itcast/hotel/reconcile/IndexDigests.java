@@ -0,0 +1,148 @@
+package cn.itcast.hotel.reconcile;
+
+import cn.itcast.hotel.constants.HotelConstants;
+import cn.itcast.hotel.metrics.HotelMetrics;
+import cn.itcast.hotel.pojo.HotelDigest;
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 按id升序遍历索引中的摘要: 在一个PIT上用search_after按id.num翻页,
+ * 不取_source,只从doc values读取hash和会被局部更新的字段
+ */
+@Slf4j
+public class IndexDigests implements Iterator<HotelDigest>, Closeable {
+
+    private static final TimeValue PIT_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+    private final RestHighLevelClient client;
+
+    private final int pageSize;
+
+    private final HotelMetrics metrics;
+
+    private String pitId;
+
+    private Object[] after;
+
+    private Iterator<HotelDigest> page = Collections.emptyIterator();
+
+    private boolean exhausted;
+
+    /**
+     * 当前版本的RestHighLevelClient还没有PIT的API,用底层客户端打开
+     */
+    public IndexDigests(RestHighLevelClient client, int pageSize, HotelMetrics metrics) throws IOException {
+        this.client = client;
+        this.pageSize = pageSize;
+        this.metrics = metrics;
+        Request request = new Request("POST", "/" + HotelConstants.INDEX_NAME + "/_pit");
+        request.addParameter("keep_alive", PIT_KEEP_ALIVE.getStringRep());
+        Response response = client.getLowLevelClient().performRequest(request);
+        this.pitId = JSON.parseObject(EntityUtils.toString(response.getEntity())).getString("id");
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !exhausted) {
+            page = fetch().iterator();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public HotelDigest next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    private List<HotelDigest> fetch() {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .size(pageSize)
+                .fetchSource(false)
+                .trackTotalHits(false)
+                .seqNoAndPrimaryTerm(true)
+                .docValueField("hash")
+                .docValueField("price")
+                .docValueField("score")
+                .docValueField("starName")
+                .sort(SortBuilders.fieldSort("id.num").order(SortOrder.ASC))
+                .pointInTimeBuilder(new PointInTimeBuilder(pitId).setKeepAlive(PIT_KEEP_ALIVE));
+        if (after != null) {
+            source.searchAfter(after);
+        }
+        SearchResponse response;
+        long start = System.nanoTime();
+        try {
+            response = client.search(new SearchRequest().source(source), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            metrics.failure("reconcile", e);
+            throw new RuntimeException(e);
+        }
+        metrics.record("reconcile", HotelMetrics.ES, start);
+        if (response.pointInTimeId() != null) {
+            pitId = response.pointInTimeId();
+        }
+        SearchHit[] hits = response.getHits().getHits();
+        exhausted = hits.length < pageSize;
+        List<HotelDigest> digests = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            HotelDigest digest = new HotelDigest(((Number) hit.getSortValues()[0]).longValue(),
+                    (String) value(hit, "hash"), intValue(hit, "price"), intValue(hit, "score"),
+                    (String) value(hit, "starName"));
+            digest.setSeqNo(hit.getSeqNo());
+            digest.setPrimaryTerm(hit.getPrimaryTerm());
+            digests.add(digest);
+        }
+        if (hits.length > 0) {
+            after = hits[hits.length - 1].getSortValues();
+        }
+        return digests;
+    }
+
+    private static Object value(SearchHit hit, String field) {
+        DocumentField documentField = hit.field(field);
+        return documentField == null ? null : documentField.getValue();
+    }
+
+    private static Integer intValue(SearchHit hit, String field) {
+        Object value = value(hit, field);
+        return value == null ? null : ((Number) value).intValue();
+    }
+
+    @Override
+    public void close() {
+        Request request = new Request("DELETE", "/_pit");
+        request.setJsonEntity(JSON.toJSONString(Collections.singletonMap("id", pitId)));
+        try {
+            client.getLowLevelClient().performRequest(request);
+        } catch (IOException e) {
+            //PIT到期后会自动释放,这里失败不影响结果
+            log.warn("释放PIT失败", e);
+        }
+    }
+}
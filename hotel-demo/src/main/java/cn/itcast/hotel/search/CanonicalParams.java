@@ -0,0 +1,63 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.pojo.RequestParams;
+import org.springframework.util.StringUtils;
+
+import java.util.Locale;
+
+/**
+ * RequestParams的规范化: 逻辑上相同的查询得到完全相同的参数,
+ * 进而生成逐字节相同的DSL、相同的缓存key和相同的preference,
+ * ES分片的request cache、本地缓存和请求合并才能命中
+ */
+public final class CanonicalParams {
+
+    private CanonicalParams() {
+    }
+
+    public static RequestParams of(RequestParams params) {
+        return of(params, 0);
+    }
+
+    /**
+     * <ul>
+     *     <li>空白字符串等同于未设置</li>
+     *     <li>关键字去掉首尾空白、合并连续空白并转小写,all字段的分词器本来就会转小写</li>
+     *     <li>城市、品牌、星级是keyword字段,只去掉首尾空白,不改大小写</li>
+     *     <li>没有maxPrice时minPrice不生效,置为null;有maxPrice时没有或者小于0的minPrice置为0</li>
+     *     <li>位置去掉所有空白</li>
+     * </ul>
+     * @param priceBucket 大于0时把价格范围向外取整到这个粒度,
+     *                    范围边上会多出少量酒店,换来更多相同的查询,0表示不取整
+     * @return 新的RequestParams,不修改传入的参数
+     */
+    public static RequestParams of(RequestParams params, int priceBucket) {
+        RequestParams canonical = new RequestParams();
+        canonical.setPage(params.getPage());
+        canonical.setSize(params.getSize());
+        canonical.setSortBy(trimToNull(params.getSortBy()));
+        canonical.setCursor(params.getCursor());
+        String key = trimToNull(params.getKey());
+        canonical.setKey(key == null ? null : key.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT));
+        canonical.setCity(trimToNull(params.getCity()));
+        canonical.setBrand(trimToNull(params.getBrand()));
+        canonical.setStarName(trimToNull(params.getStarName()));
+        Integer maxPrice = params.getMaxPrice();
+        if (maxPrice != null) {
+            int minPrice = params.getMinPrice() == null ? 0 : Math.max(0, params.getMinPrice());
+            if (priceBucket > 0) {
+                minPrice = minPrice / priceBucket * priceBucket;
+                maxPrice = (maxPrice + priceBucket - 1) / priceBucket * priceBucket;
+            }
+            canonical.setMinPrice(minPrice);
+            canonical.setMaxPrice(maxPrice);
+        }
+        String location = params.getLocation();
+        canonical.setLocation(StringUtils.hasText(location) ? StringUtils.trimAllWhitespace(location) : null);
+        return canonical;
+    }
+
+    private static String trimToNull(String value) {
+        return StringUtils.hasText(value) ? value.trim() : null;
+    }
+}
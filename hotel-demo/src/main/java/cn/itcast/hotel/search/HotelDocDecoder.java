@@ -0,0 +1,139 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.pojo.HotelDoc;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把搜索结果的_source直接解码为HotelDoc
+ * 在hit持有的字节上用流式解析器逐个字段读取,不经过getSourceAsString生成中间字符串,
+ * 也不构建Map;_source被source filtering裁剪掉的字段保持为null
+ */
+public final class HotelDocDecoder {
+
+    private HotelDocDecoder() {
+    }
+
+    public static HotelDoc decode(SearchHit hit) {
+        BytesReference source = hit.getSourceRef();
+        if (source == null) {
+            //没有返回_source时至少保留id
+            HotelDoc hotelDoc = new HotelDoc();
+            hotelDoc.setId(Long.valueOf(hit.getId()));
+            return hotelDoc;
+        }
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.IGNORE_DEPRECATIONS, source, XContentType.JSON)) {
+            return decode(parser);
+        } catch (IOException e) {
+            throw new RuntimeException("酒店" + hit.getId() + "的_source无法解析", e);
+        }
+    }
+
+    static HotelDoc decode(XContentParser parser) throws IOException {
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new IOException("_source不是JSON对象");
+        }
+        HotelDoc hotelDoc = new HotelDoc();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                throw new IOException("_source格式错误: " + token);
+            }
+            String field = parser.currentName();
+            token = parser.nextToken();
+            if (token == XContentParser.Token.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "id":
+                    hotelDoc.setId(parser.longValue());
+                    break;
+                case "name":
+                    hotelDoc.setName(parser.text());
+                    break;
+                case "address":
+                    hotelDoc.setAddress(parser.text());
+                    break;
+                case "price":
+                    hotelDoc.setPrice(parser.intValue());
+                    break;
+                case "score":
+                    hotelDoc.setScore(parser.intValue());
+                    break;
+                case "brand":
+                    hotelDoc.setBrand(parser.text());
+                    break;
+                case "city":
+                    hotelDoc.setCity(parser.text());
+                    break;
+                case "starName":
+                    hotelDoc.setStarName(parser.text());
+                    break;
+                case "business":
+                    hotelDoc.setBusiness(parser.text());
+                    break;
+                case "location":
+                    hotelDoc.setLocation(parseLocation(parser, token));
+                    break;
+                case "pic":
+                    hotelDoc.setPic(parser.text());
+                    break;
+                case "isAD":
+                    //文档里可能是字符串也可能是布尔值,text()两种都能读
+                    hotelDoc.setIsAD(parser.text());
+                    break;
+                case "suggestion":
+                    hotelDoc.setSuggestion(parseStrings(parser, token));
+                    break;
+                default:
+                    //未知字段,跳过整个值
+                    parser.skipChildren();
+            }
+        }
+        return hotelDoc;
+    }
+
+    /**
+     * HotelDoc写入的是"纬度, 经度"字符串,兼容geo_point的对象和数组写法
+     */
+    private static String parseLocation(XContentParser parser, XContentParser.Token token) throws IOException {
+        if (token == XContentParser.Token.START_OBJECT) {
+            Map<String, Object> point = parser.map();
+            return point.get("lat") + ", " + point.get("lon");
+        }
+        if (token == XContentParser.Token.START_ARRAY) {
+            //数组写法是[经度, 纬度]
+            List<Object> point = parser.list();
+            return point.get(1) + ", " + point.get(0);
+        }
+        return parser.text();
+    }
+
+    private static List<String> parseStrings(XContentParser parser, XContentParser.Token token) throws IOException {
+        List<String> list = new ArrayList<>();
+        if (token != XContentParser.Token.START_ARRAY) {
+            list.add(parser.text());
+            return list;
+        }
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token == XContentParser.Token.START_OBJECT) {
+                //completion的对象写法{"input": [...]}
+                parser.skipChildren();
+            } else if (token != XContentParser.Token.VALUE_NULL) {
+                list.add(parser.text());
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,135 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.pojo.RequestParams;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.common.unit.DistanceUnit;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.util.StringUtils;
+
+/**
+ * 搜索请求的DSL构建,无状态,供HotelService和基准测试共用
+ * 过滤条件按固定的顺序生成,参数经过CanonicalParams规范化后,相同的查询生成逐字节相同的DSL
+ */
+public final class HotelQueryBuilder {
+
+    private HotelQueryBuilder() {
+    }
+
+    /**
+     * 就近搜索时统计完整命中数的聚合,见{@link #buildGeoRingQuery}
+     */
+    public static final String GEO_RING_TOTAL_AGG = "geoRingTotalAgg";
+    public static final String GEO_RING_MATCHED_AGG = "matchedAgg";
+
+    public static void buildBasicQuery(RequestParams params, SearchRequest request) {
+        request.source().query(withAdBoost(buildBoolQuery(params)));
+    }
+
+    /**
+     * 就近搜索: 在基本查询上加一个以用户位置为圆心、radiusKm为半径的geo_distance过滤,
+     * 配合距离排序时圈内的命中数不少于需要的条数,前几页就和全量距离排序的结果相同,
+     * ES只需要计算圈内酒店的距离。
+     * 圈外的酒店不参与查询,完整的命中数通过global+filter聚合另外统计,
+     * 这个聚合要扫描全部命中,同一次搜索只在第一个半径上统计
+     * @param withTotal 是否附带统计完整命中数的聚合
+     */
+    public static void buildGeoRingQuery(RequestParams params, SearchRequest request, double radiusKm,
+                                         boolean withTotal) {
+        BoolQueryBuilder boolQuery = buildBoolQuery(params);
+        boolQuery.filter(QueryBuilders.geoDistanceQuery("location")
+                .point(new GeoPoint(params.getLocation()))
+                .distance(radiusKm, DistanceUnit.KILOMETERS));
+        request.source().query(withAdBoost(boolQuery));
+        if (withTotal) {
+            request.source().aggregation(AggregationBuilders.global(GEO_RING_TOTAL_AGG)
+                    .subAggregation(AggregationBuilders.filter(GEO_RING_MATCHED_AGG, buildBoolQuery(params))));
+        }
+    }
+
+    private static BoolQueryBuilder buildBoolQuery(RequestParams params) {
+        BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+        /*关键字搜索*/
+        String key = params.getKey();
+        if (StringUtils.isEmpty(key)) {
+            boolQuery.must(QueryBuilders.matchAllQuery());
+        } else {
+            boolQuery.must(QueryBuilders.matchQuery("all", key));
+        }
+        /*城市条件*/
+        if (!StringUtils.isEmpty(params.getCity())) {
+            boolQuery.filter(QueryBuilders.termQuery("city", params.getCity()));
+        }
+        /*品牌条件*/
+        if (!StringUtils.isEmpty(params.getBrand())) {
+            boolQuery.filter(QueryBuilders.termQuery("brand", params.getBrand()));
+        }
+        /*星级条件*/
+        if (!StringUtils.isEmpty(params.getStarName())) {
+            boolQuery.filter(QueryBuilders.termQuery("starName", params.getStarName()));
+        }
+        /*价格范围*/
+        if (!StringUtils.isEmpty(params.getMaxPrice())) {
+            boolQuery.filter(QueryBuilders.rangeQuery("price")
+                    .gte(params.getMinPrice())
+                    .lte(params.getMaxPrice()));
+        }
+        return boolQuery;
+    }
+
+    private static FunctionScoreQueryBuilder withAdBoost(BoolQueryBuilder boolQuery) {
+        /*算分控制*/
+        return QueryBuilders.functionScoreQuery(
+                //原始查询,相关性算分的查询
+                boolQuery,
+                //function score数组
+                new FunctionScoreQueryBuilder.FilterFunctionBuilder[]{
+                        //一个function score元素
+                        new FunctionScoreQueryBuilder.FilterFunctionBuilder(
+                                //过滤条件
+                                QueryBuilders.termQuery("isAD", true),
+                                //算分函数
+                                ScoreFunctionBuilders.weightFactorFunction(10)
+                        )
+                });
+    }
+
+    public static void buildGeoSort(RequestParams params, SearchRequest request) {
+        String location = params.getLocation();
+        if (StringUtils.isEmpty(location)) {
+            return;
+        }
+        request.source().sort(SortBuilders
+                .geoDistanceSort("location", new GeoPoint(location))
+                .order(SortOrder.ASC)
+                .unit(DistanceUnit.KILOMETERS));
+    }
+
+    /**
+     * 构建聚合
+     * @param request
+     */
+    public static void buildAggregation(SearchRequest request) {
+        request.source().aggregation(AggregationBuilders
+                .terms("brandAgg")
+                .field("brand")
+                .size(100)
+        );
+        request.source().aggregation(AggregationBuilders
+                .terms("cityAgg")
+                .field("city")
+                .size(100)
+        );
+        request.source().aggregation(AggregationBuilders
+                .terms("starAgg")
+                .field("starName")
+                .size(100)
+        );
+    }
+}
@@ -0,0 +1,102 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.global.Global;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 搜索响应的解析,无状态,供HotelService和基准测试共用
+ */
+public final class HotelResponseParser {
+
+    private HotelResponseParser() {
+    }
+
+    public static PageResult handleResponse(SearchResponse response, boolean geoSort) {
+        SearchHits searchHits = response.getHits();
+        //不统计命中数(track_total_hits为false)的请求由调用方设置total
+        TotalHits totalHits = searchHits.getTotalHits();
+        long total = totalHits == null ? 0 : totalHits.value;
+        SearchHit[] hits = searchHits.getHits();
+        List<HotelDoc> hotels = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            HotelDoc hotelDoc = HotelDocDecoder.decode(hit);
+            //获取距离值,按距离排序时第一个排序值就是距离
+            Object[] sortValues = hit.getSortValues();
+            if (geoSort && sortValues.length > 0) {
+                Object sortValue = sortValues[0];
+                hotelDoc.setDistance(sortValue);
+            }
+            hotels.add(hotelDoc);
+        }
+        return new PageResult(total, hotels);
+    }
+
+    /**
+     * 就近搜索响应中的完整命中数
+     * @return 不是就近搜索的响应时返回null
+     */
+    public static Long getGeoRingTotal(SearchResponse response) {
+        Aggregations aggregations = response.getAggregations();
+        Global global = aggregations == null ? null : aggregations.get(HotelQueryBuilder.GEO_RING_TOTAL_AGG);
+        if (global == null) {
+            return null;
+        }
+        Filter matched = global.getAggregations().get(HotelQueryBuilder.GEO_RING_MATCHED_AGG);
+        return matched.getDocCount();
+    }
+
+    public static Map<String, List<String>> handleFilters(Aggregations aggregations) {
+        Map<String,List<String>> map = new HashMap<>();
+        List<String> cityAgg = getAggByName(aggregations, "cityAgg");
+        map.put("city",cityAgg);
+        List<String> starAgg = getAggByName(aggregations, "starAgg");
+        map.put("starName",starAgg);
+        List<String> brandAgg = getAggByName(aggregations, "brandAgg");
+        map.put("brand",brandAgg);
+        return  map;
+    }
+
+    /**
+     *根据聚合名称获取聚合结果
+     * @param aggregations
+     * @param aggName
+     * @return
+     */
+    public static List<String> getAggByName(Aggregations aggregations,String aggName) {
+        Terms terms = aggregations.get(aggName);
+        List<? extends Terms.Bucket> buckets = terms.getBuckets();
+        List<String> list = new ArrayList<>();
+        for (Terms.Bucket bucket : buckets) {
+            String name = bucket.getKeyAsString();
+            list.add(name);
+        }
+        return list;
+    }
+
+    public static List<String> handleSuggestion(SearchResponse response) {
+        Suggest suggest = response.getSuggest();
+        CompletionSuggestion suggestions = suggest.getSuggestion("suggestions");
+        List<CompletionSuggestion.Entry.Option> options = suggestions.getOptions();
+        List<String> list = new ArrayList<>();
+        for (CompletionSuggestion.Entry.Option option : options) {
+            String text = option.getText().toString();
+            list.add(text);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,17 @@
+package cn.itcast.hotel.service;
+
+import java.util.Map;
+
+public interface IHotelReconcileService {
+
+    /**
+     * 在后台比较tb_hotel和hotel索引,修复不一致的酒店
+     * @throws IllegalStateException 已经有一次检查在执行
+     */
+    void startReconcile();
+
+    /**
+     * @return 当前或最近一次检查的进度和发现的差异
+     */
+    Map<String, Object> status();
+}
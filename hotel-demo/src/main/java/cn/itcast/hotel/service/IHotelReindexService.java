@@ -0,0 +1,26 @@
+package cn.itcast.hotel.service;
+
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+
+import java.util.List;
+import java.util.Map;
+
+public interface IHotelReindexService {
+
+    /**
+     * 在后台把tb_hotel全量导入一个新版本的索引,完成后把别名切换过去
+     * @return 新索引的名称
+     */
+    String startReindex();
+
+    /**
+     * @return 当前或最近一次重建的进度
+     */
+    Map<String, Object> status();
+
+    /**
+     * 重建期间MQ同步过来的变更只会写到旧索引,先记下来,切换别名后补一遍
+     * @param events 变更事件
+     */
+    void trackChanges(List<HotelSyncEvent> events);
+}
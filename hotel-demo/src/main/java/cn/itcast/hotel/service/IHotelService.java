@@ -1,21 +1,47 @@
 package cn.itcast.hotel.service;
 
 import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelSearchResult;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.pojo.RequestParams;
 import com.baomidou.mybatisplus.extension.service.IService;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface IHotelService extends IService<Hotel> {
     PageResult search(RequestParams params);
 
+    /**
+     * 异步版本,基于searchAsync,等待ES响应期间不占用调用线程;
+     * 取消返回的future会中断对应的ES请求,下同
+     */
+    CompletableFuture<PageResult> searchAsync(RequestParams params);
+
     Map<String, List<String>> getFilters(RequestParams params);
 
+    CompletableFuture<Map<String, List<String>>> getFiltersAsync(RequestParams params);
+
+    /**
+     * 一次请求同时查询分页结果和过滤项聚合
+     */
+    HotelSearchResult searchWithFilters(RequestParams params);
+
+    CompletableFuture<HotelSearchResult> searchWithFiltersAsync(RequestParams params);
+
     List<String> getSuggestion(String prefix);
 
-    void deleteById(Long id);
+    CompletableFuture<List<String>> getSuggestionAsync(String prefix);
 
-    void insertById(Long id);
+    /**
+     * 把一批变更合并成一个BulkRequest写入ES
+     * 数据库中已经不存在的酒店按删除处理,对应事件的type会改为DELETE,
+     * 版本号不大于文档中已写入版本的事件不修改文档,算作成功;
+     * 写入后向所有实例广播缓存失效通知
+     * @param events 变更事件,每个酒店最多一个
+     * @return 写入失败的事件
+     */
+    List<HotelSyncEvent> bulkSync(List<HotelSyncEvent> events);
 }
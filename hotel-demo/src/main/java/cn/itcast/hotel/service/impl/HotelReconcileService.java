@@ -0,0 +1,248 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.ReconcileProperties;
+import cn.itcast.hotel.constants.HotelConstants;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.metrics.HotelMetrics;
+import cn.itcast.hotel.pojo.HotelDigest;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import cn.itcast.hotel.reconcile.DatabaseDigests;
+import cn.itcast.hotel.reconcile.DigestMergeJoin;
+import cn.itcast.hotel.reconcile.IndexDigests;
+import cn.itcast.hotel.service.IHotelReconcileService;
+import cn.itcast.hotel.service.IHotelReindexService;
+import cn.itcast.hotel.service.IHotelService;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetMappingsRequest;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * tb_hotel与hotel索引的一致性检查: 两边各自按id升序流式读取摘要,归并比较,
+ * 只把不一致的酒店按UPSERT交给bulkSync,由它从MySQL读取最新数据写入或删除。
+ * 修复带着扫描时文档的_seq_no,文档在扫描之后被同步消息修改过时放弃修复
+ */
+@Slf4j
+@Service
+public class HotelReconcileService implements IHotelReconcileService {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private IHotelService hotelService;
+
+    @Autowired
+    private IHotelReindexService hotelReindexService;
+
+    @Autowired
+    private ReconcileProperties properties;
+
+    @Autowired
+    private HotelMetrics metrics;
+
+    private final ScheduledExecutorService reconcileExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hotel-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final Map<DigestMergeJoin.Drift, AtomicLong> drifts = new EnumMap<>(DigestMergeJoin.Drift.class);
+
+    private final AtomicLong checked = new AtomicLong();
+
+    private final AtomicLong repaired = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * 待修复的酒店,攒够repairBatchSize个发一次bulk
+     */
+    private final List<HotelSyncEvent> repairs = new ArrayList<>();
+
+    /**
+     * 修复数已经达到maxRepairs
+     */
+    private boolean capped;
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    private volatile String lastError;
+
+    public HotelReconcileService() {
+        for (DigestMergeJoin.Drift drift : DigestMergeJoin.Drift.values()) {
+            drifts.put(drift, new AtomicLong());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void schedule() {
+        if (properties.isEnabled()) {
+            reconcileExecutor.scheduleWithFixedDelay(() -> {
+                if (running.compareAndSet(false, true)) {
+                    run();
+                }
+            }, properties.getInitialDelay().toMillis(), properties.getInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    @Override
+    public void startReconcile() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("一致性检查正在执行中");
+        }
+        reconcileExecutor.execute(this::run);
+    }
+
+    @Override
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("startTime", startTime);
+        status.put("endTime", endTime);
+        status.put("checked", checked.get());
+        drifts.forEach((drift, count) -> status.put(drift.name().toLowerCase(Locale.ROOT), count.get()));
+        status.put("repaired", repaired.get());
+        status.put("failed", failed.get());
+        status.put("error", lastError);
+        return status;
+    }
+
+    private void run() {
+        try {
+            if (Boolean.TRUE.equals(hotelReindexService.status().get("running"))) {
+                //重建期间别名还指向旧索引,新索引会在切换后整体替换它,这时检查没有意义
+                log.info("索引正在重建,跳过本次一致性检查");
+                return;
+            }
+            if (!hasDigestFields()) {
+                lastError = "索引缺少id.num或hash字段";
+                log.warn("索引缺少id.num或hash字段,跳过本次一致性检查,需要先全量重建一次索引");
+                return;
+            }
+            reconcile();
+        } catch (Exception e) {
+            lastError = e.toString();
+            log.error("一致性检查失败,如果是索引缺少id.num字段,需要先全量重建一次索引", e);
+        } finally {
+            endTime = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 摘要按id.num排序读取并比较hash,旧的索引没有这两个字段
+     */
+    @SuppressWarnings("unchecked")
+    private boolean hasDigestFields() throws IOException {
+        Map<String, MappingMetadata> mappings = client.indices()
+                .getMapping(new GetMappingsRequest().indices(HotelConstants.INDEX_NAME), RequestOptions.DEFAULT)
+                .mappings();
+        for (MappingMetadata mapping : mappings.values()) {
+            Map<String, Object> fields = (Map<String, Object>) mapping.sourceAsMap().get("properties");
+            if (fields == null || !fields.containsKey("hash")) {
+                return false;
+            }
+            Map<String, Object> id = (Map<String, Object>) fields.get("id");
+            Map<String, Object> subFields = id == null ? null : (Map<String, Object>) id.get("fields");
+            if (subFields == null || !subFields.containsKey("num")) {
+                return false;
+            }
+        }
+        return !mappings.isEmpty();
+    }
+
+    private void reconcile() throws IOException {
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        lastError = null;
+        drifts.values().forEach(count -> count.set(0));
+        checked.set(0);
+        repaired.set(0);
+        failed.set(0);
+        repairs.clear();
+        capped = false;
+        try (IndexDigests index = new IndexDigests(client, properties.getPageSize(), metrics)) {
+            checked.set(DigestMergeJoin.join(new DatabaseDigests(hotelMapper, properties.getPageSize(), metrics),
+                    index, this::onDrift));
+        }
+        flushRepairs();
+        Map<DigestMergeJoin.Drift, Long> counts = new EnumMap<>(DigestMergeJoin.Drift.class);
+        drifts.forEach((drift, count) -> counts.put(drift, count.get()));
+        metrics.reconciled(checked.get(), counts);
+        log.info("一致性检查完成,比较{}个酒店,差异{},修复{}个,失败{}个,耗时{}ms",
+                checked.get(), counts, repaired.get(), failed.get(), System.currentTimeMillis() - startTime);
+    }
+
+    private void onDrift(DigestMergeJoin.Drift drift, long id, HotelDigest indexed) {
+        drifts.get(drift).incrementAndGet();
+        metrics.drift(drift);
+        if (log.isDebugEnabled()) {
+            log.debug("酒店{}不一致: {}", id, drift);
+        }
+        if (capped) {
+            return;
+        }
+        if (repaired.get() + failed.get() + repairs.size() >= properties.getMaxRepairs()) {
+            capped = true;
+            log.warn("差异超过{}个,之后只统计不修复,建议全量重建索引", properties.getMaxRepairs());
+            return;
+        }
+        //多余的文档也按UPSERT修复: bulkSync发现数据库中没有时会删除,
+        //读摘要之后才新增、已经同步到索引的酒店不会被误删
+        HotelSyncEvent repair = new HotelSyncEvent(HotelSyncEvent.Type.UPSERT, id, 0, null, null, null);
+        repair.setExpected(indexed == null
+                ? new HotelSyncEvent.IndexedVersion(null, null)
+                : new HotelSyncEvent.IndexedVersion(indexed.getSeqNo(), indexed.getPrimaryTerm()));
+        repairs.add(repair);
+        if (repairs.size() >= properties.getRepairBatchSize()) {
+            flushRepairs();
+        }
+    }
+
+    private void flushRepairs() {
+        if (repairs.isEmpty()) {
+            return;
+        }
+        try {
+            int failures = hotelService.bulkSync(repairs).size();
+            repaired.addAndGet(repairs.size() - failures);
+            failed.addAndGet(failures);
+        } catch (RuntimeException e) {
+            failed.addAndGet(repairs.size());
+            log.warn("修复{}个酒店失败", repairs.size(), e);
+        }
+        repairs.clear();
+    }
+}
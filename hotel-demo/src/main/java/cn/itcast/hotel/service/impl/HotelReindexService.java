@@ -0,0 +1,397 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.ReindexProperties;
+import cn.itcast.hotel.constants.HotelConstants;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.mq.HotelEventCompactor;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import cn.itcast.hotel.service.IHotelReindexService;
+import cn.itcast.hotel.service.IHotelService;
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static cn.itcast.hotel.constants.HotelConstants.INDEX_NAME;
+
+/**
+ * 全量重建索引: 按id游标分页读取tb_hotel,线程池转换为HotelDoc,
+ * 通过BulkProcessor并发写入新版本索引,从旧索引复制isAD和已写入的版本号,最后原子地把hotel别名切换到新索引。
+ * 任何一步没有完整完成都不切换别名
+ */
+@Slf4j
+@Service
+public class HotelReindexService implements IHotelReindexService {
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    /**
+     * 补同步失败的变更重试的次数
+     */
+    private static final int REPLAY_ATTEMPTS = 3;
+
+    /**
+     * 重建时从旧索引复制的字段,MySQL中没有
+     */
+    private static final String[] INDEXED_STATE_FIELDS = {"isAD", "syncVersion", "partialSyncVersion"};
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private IHotelService hotelService;
+
+    @Autowired
+    private ReindexProperties properties;
+
+    private final ExecutorService reindexExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "hotel-reindex"));
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * 重建期间收到的增量变更,同一个酒店只保留最新的一次
+     */
+    private final Map<Long, HotelSyncEvent> trackedChanges = new ConcurrentHashMap<>();
+
+    private volatile boolean tracking;
+
+    private volatile String currentIndex;
+
+    private final AtomicLong loaded = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile String lastError;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reindexOnStartup() {
+        if (properties.isRunOnStartup()) {
+            startReindex();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reindexExecutor.shutdownNow();
+    }
+
+    @Override
+    public String startReindex() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("索引正在重建中: " + currentIndex);
+        }
+        String index = INDEX_NAME + "_" + LocalDateTime.now().format(VERSION_FORMAT);
+        trackedChanges.clear();
+        tracking = true;
+        currentIndex = index;
+        loaded.set(0);
+        failed.set(0);
+        lastError = null;
+        reindexExecutor.execute(() -> {
+            try {
+                reindex(index);
+            } catch (Exception e) {
+                lastError = e.toString();
+                log.error("重建索引{}失败", index, e);
+            } finally {
+                tracking = false;
+                running.set(false);
+            }
+        });
+        return index;
+    }
+
+    @Override
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("index", currentIndex);
+        status.put("loaded", loaded.get());
+        status.put("failed", failed.get());
+        status.put("error", lastError);
+        return status;
+    }
+
+    @Override
+    public void trackChanges(List<HotelSyncEvent> events) {
+        if (!tracking) {
+            return;
+        }
+        for (HotelSyncEvent event : events) {
+            //补同步时从MySQL读最新数据,局部更新也按完整重建处理;
+            //这些变更已经由监听器写入过旧索引,补同步不再统计同步延迟
+            HotelSyncEvent.Type type = event.getType() == HotelSyncEvent.Type.PARTIAL
+                    ? HotelSyncEvent.Type.UPSERT : event.getType();
+            HotelSyncEvent tracked = new HotelSyncEvent(type, event.getId(), 0, null, event.getVersion(), null);
+            trackedChanges.merge(event.getId(), tracked, HotelEventCompactor::merge);
+        }
+    }
+
+    private void reindex(String index) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        // 1.创建新索引,导入期间关闭refresh和副本,保留模板中的分词器
+        CreateIndexRequest createRequest = new CreateIndexRequest(index);
+        createRequest.source(HotelConstants.MAPPING_TEMPLATE, XContentType.JSON);
+        createRequest.settings(Settings.builder()
+                .put(createRequest.settings())
+                .put("index.refresh_interval", "-1")
+                .put("index.number_of_replicas", 0));
+        client.indices().create(createRequest, RequestOptions.DEFAULT);
+        List<String> oldIndices;
+        try {
+            // 2.流式读取MySQL,并发转换和写入
+            bulkLoad(index);
+            if (failed.get() > 0) {
+                throw new IllegalStateException(failed.get() + "条文档写入失败,放弃切换别名");
+            }
+            // 3.复制运营在旧索引中设置的isAD,以及旧索引已写入的版本号
+            copyIndexedState(index);
+            // 4.恢复refresh和副本
+            client.indices().putSettings(new UpdateSettingsRequest(index).settings(Settings.builder()
+                    .putNull("index.refresh_interval")
+                    .put("index.number_of_replicas", properties.getReplicas())), RequestOptions.DEFAULT);
+            client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+            // 5.原子切换别名
+            oldIndices = switchAlias(index);
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+            throw e;
+        }
+        // 6.补上重建期间只写到了旧索引的增量变更
+        tracking = false;
+        int replayFailures = replayTrackedChanges();
+        // 7.旧索引已经没有别名指向,删除
+        if (!oldIndices.isEmpty()) {
+            client.indices().delete(new DeleteIndexRequest(oldIndices.toArray(new String[0])), RequestOptions.DEFAULT);
+        }
+        if (replayFailures > 0) {
+            //别名已经切换,这些酒店在新索引中是旧数据,等一致性检查修复
+            throw new IllegalStateException(replayFailures + "条重建期间的变更补同步失败");
+        }
+        log.info("重建索引{}完成,共{}条,耗时{}ms", index, loaded.get(), System.currentTimeMillis() - start);
+    }
+
+    private void bulkLoad(String index) throws InterruptedException {
+        BulkProcessor bulkProcessor = BulkProcessor.builder(
+                (request, listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener),
+                new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(long executionId, BulkRequest request) {
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        int failures = 0;
+                        for (BulkItemResponse item : response.getItems()) {
+                            if (item.isFailed()) {
+                                failures++;
+                                log.warn("酒店{}写入失败: {}", item.getId(), item.getFailureMessage());
+                            }
+                        }
+                        loaded.addAndGet(request.numberOfActions() - failures);
+                        failed.addAndGet(failures);
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        failed.addAndGet(request.numberOfActions());
+                        log.error("bulk请求失败", failure);
+                    }
+                })
+                .setBulkActions(properties.getBulkActions())
+                .setConcurrentRequests(properties.getBulkWorkers())
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 3))
+                .build();
+        // 队列满时由读取线程自己转换,读MySQL的速度不会超过写ES的速度,内存占用保持平稳
+        int threads = properties.getConvertThreads();
+        ThreadPoolExecutor converters = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads), r -> new Thread(r, "hotel-reindex-convert"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Hotel> page = hotelMapper.selectAfterId(lastId, properties.getPageSize());
+                if (page.isEmpty()) {
+                    break;
+                }
+                lastId = page.get(page.size() - 1).getId();
+                converters.execute(() -> {
+                    for (Hotel hotel : page) {
+                        try {
+                            HotelDoc hotelDoc = new HotelDoc(hotel);
+                            bulkProcessor.add(new IndexRequest(index)
+                                    .id(hotelDoc.getId().toString())
+                                    .source(JSON.toJSONString(hotelDoc), XContentType.JSON));
+                        } catch (RuntimeException e) {
+                            failed.incrementAndGet();
+                            log.warn("酒店{}转换失败", hotel.getId(), e);
+                        }
+                    }
+                });
+            }
+        } finally {
+            converters.shutdown();
+            while (!converters.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("等待HotelDoc转换完成,已写入{}条", loaded.get());
+            }
+            if (!bulkProcessor.awaitClose(10, TimeUnit.MINUTES)) {
+                //还有bulk请求没有返回,写入结果未知
+                throw new IllegalStateException("等待bulk请求完成超时,放弃切换别名");
+            }
+        }
+    }
+
+    /**
+     * 按id翻页读取旧索引中的isAD、syncVersion和partialSyncVersion,写到新索引的同一文档上,
+     * 新索引中没有的酒店(已从MySQL删除)忽略。早期的物理索引没有id.num,按keyword的id排序。
+     * 带上版本号后,重试中的旧变更在切换别名后仍然会被脚本拒绝;
+     * 重建期间有变更的酒店不复制版本号,由补同步按变更的版本写入,否则补同步会被当作旧变更跳过。
+     * 先读旧索引再检查trackedChanges: 监听器先记录变更再写ES,读到的新版本一定已经被记录
+     */
+    private void copyIndexedState(String index) throws IOException {
+        if (!client.indices().exists(new GetIndexRequest(INDEX_NAME), RequestOptions.DEFAULT)) {
+            return;
+        }
+        int pageSize = properties.getPageSize();
+        Object[] after = null;
+        int copied = 0;
+        while (true) {
+            //版本号字段不索引,不能用exists查询,读全部文档
+            SearchSourceBuilder source = new SearchSourceBuilder()
+                    .query(QueryBuilders.matchAllQuery())
+                    .size(pageSize)
+                    .trackTotalHits(false)
+                    .fetchSource(INDEXED_STATE_FIELDS, null)
+                    .sort(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+            if (after != null) {
+                source.searchAfter(after);
+            }
+            SearchHit[] hits = client.search(new SearchRequest(INDEX_NAME).source(source), RequestOptions.DEFAULT)
+                    .getHits().getHits();
+            BulkRequest request = new BulkRequest();
+            for (SearchHit hit : hits) {
+                Map<String, Object> state = hit.getSourceAsMap();
+                if (trackedChanges.containsKey(Long.valueOf(hit.getId()))) {
+                    state.remove("syncVersion");
+                    state.remove("partialSyncVersion");
+                }
+                if (!state.isEmpty()) {
+                    request.add(new UpdateRequest(index, hit.getId()).doc(state));
+                }
+            }
+            if (request.numberOfActions() > 0) {
+                int failures = 0;
+                for (BulkItemResponse item : client.bulk(request, RequestOptions.DEFAULT).getItems()) {
+                    if (item.isFailed() && item.status() != RestStatus.NOT_FOUND) {
+                        failures++;
+                        log.warn("酒店{}的isAD和版本号复制失败: {}", item.getId(), item.getFailureMessage());
+                    }
+                }
+                if (failures > 0) {
+                    throw new IllegalStateException(failures + "个酒店的isAD和版本号复制失败,放弃切换别名");
+                }
+                copied += request.numberOfActions();
+            }
+            if (hits.length < pageSize) {
+                break;
+            }
+            after = hits[hits.length - 1].getSortValues();
+        }
+        log.info("从旧索引复制了{}个酒店的isAD和版本号", copied);
+    }
+
+    private List<String> switchAlias(String index) throws IOException {
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        GetAliasesResponse aliases = client.indices().getAlias(new GetAliasesRequest(INDEX_NAME), RequestOptions.DEFAULT);
+        List<String> oldIndices = new ArrayList<>(aliases.getAliases().keySet());
+        for (String oldIndex : oldIndices) {
+            request.addAliasAction(AliasActions.remove().index(oldIndex).alias(INDEX_NAME));
+        }
+        if (oldIndices.isEmpty() && client.indices().exists(new GetIndexRequest(INDEX_NAME), RequestOptions.DEFAULT)) {
+            // 早期直接使用名为hotel的物理索引,和别名重名,必须在同一个请求里删除它
+            request.addAliasAction(AliasActions.removeIndex().index(INDEX_NAME));
+        }
+        request.addAliasAction(AliasActions.add().index(index).alias(INDEX_NAME));
+        client.indices().updateAliases(request, RequestOptions.DEFAULT);
+        return oldIndices;
+    }
+
+    /**
+     * @return 重试后仍然失败的变更数
+     */
+    private int replayTrackedChanges() throws InterruptedException {
+        List<HotelSyncEvent> events = new ArrayList<>(trackedChanges.values());
+        trackedChanges.clear();
+        if (events.isEmpty()) {
+            return 0;
+        }
+        List<HotelSyncEvent> pending = events;
+        for (int attempt = 1; attempt <= REPLAY_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                TimeUnit.SECONDS.sleep(attempt);
+            }
+            try {
+                pending = hotelService.bulkSync(pending);
+            } catch (RuntimeException e) {
+                log.warn("第{}次补同步{}条变更失败", attempt, pending.size(), e);
+            }
+        }
+        for (HotelSyncEvent event : pending) {
+            log.warn("酒店{}重建期间的变更补同步失败", event.getId());
+        }
+        log.info("补同步重建期间的{}条变更,失败{}条", events.size(), pending.size());
+        return pending.size();
+    }
+}
@@ -1,269 +1,1094 @@
 package cn.itcast.hotel.service.impl;
 
+import cn.itcast.hotel.cache.FiltersCache;
+import cn.itcast.hotel.cache.PageResultCache;
+import cn.itcast.hotel.cache.SearchKeys;
+import cn.itcast.hotel.cache.SingleFlight;
+import cn.itcast.hotel.config.ElasticsearchProperties;
+import cn.itcast.hotel.config.HotelCacheProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.constants.HotelConstants;
+import cn.itcast.hotel.guard.ElasticsearchGuard;
+import cn.itcast.hotel.guard.ElasticsearchRejectedException;
+import cn.itcast.hotel.guard.SearchTimeoutException;
+import cn.itcast.hotel.local.LocalSearchReplica;
 import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.metrics.HotelMetrics;
+import cn.itcast.hotel.mq.HotelCacheSync;
+import cn.itcast.hotel.mq.HotelWriteRequests;
 import cn.itcast.hotel.pojo.Hotel;
-import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.HotelCacheInvalidation;
+import cn.itcast.hotel.pojo.HotelSearchResult;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.pojo.SearchCursor;
+import cn.itcast.hotel.search.CanonicalParams;
+import cn.itcast.hotel.search.HotelResponseParser;
 import cn.itcast.hotel.service.IHotelService;
+import cn.itcast.hotel.suggest.SuggestionIndex;
+import cn.itcast.hotel.utils.CancellableFutures;
 import com.alibaba.fastjson.JSON;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.index.IndexRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.common.geo.GeoPoint;
-import org.elasticsearch.common.lucene.search.function.ScoreFunction;
-import org.elasticsearch.common.unit.DistanceUnit;
-import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
-import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.SearchHits;
-import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.Aggregations;
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
-import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
-import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
-import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
 
-import javax.swing.plaf.TreeUI;
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import static cn.itcast.hotel.search.HotelQueryBuilder.buildAggregation;
+import static cn.itcast.hotel.search.HotelQueryBuilder.buildBasicQuery;
+import static cn.itcast.hotel.search.HotelQueryBuilder.buildGeoRingQuery;
+import static cn.itcast.hotel.search.HotelQueryBuilder.buildGeoSort;
+import static cn.itcast.hotel.search.HotelResponseParser.getGeoRingTotal;
+import static cn.itcast.hotel.search.HotelResponseParser.handleFilters;
+import static cn.itcast.hotel.search.HotelResponseParser.handleResponse;
+import static cn.itcast.hotel.search.HotelResponseParser.handleSuggestion;
+
+@Slf4j
 @Service
 public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHotelService {
 
+    private static final TimeValue PIT_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private FiltersCache filtersCache;
+
+    @Autowired
+    private SuggestionIndex suggestionIndex;
+
+    @Autowired
+    private LocalSearchReplica localReplica;
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    @Autowired
+    private HotelMetrics metrics;
+
+    @Autowired
+    private PageResultCache pageCache;
+
+    @Autowired
+    private HotelCacheProperties cacheProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ElasticsearchGuard guard;
+
+    @Autowired
+    private HotelCacheSync cacheSync;
+
+    @Autowired
+    private ElasticsearchProperties elasticsearchProperties;
+
+    /**
+     * 查询请求的socket超时取接口的超时时间,而不是客户端默认的socket-timeout,
+     * ES响应慢时请求按超时失败,尽早归还连接和并发许可
+     */
+    private RequestOptions searchOptions;
+
+    /**
+     * 相同参数的并发查询只发一次ES请求,游标分页每个用户有自己的PIT,不参与合并
+     */
+    private SingleFlight<String, PageResult> searchFlights;
+    private SingleFlight<String, HotelSearchResult> searchWithFiltersFlights;
+    private SingleFlight<String, Map<String, List<String>>> filtersFlights;
+
+    @PostConstruct
+    public void initSearchOptions() {
+        //按请求设置的RequestConfig会整个替换客户端的默认配置,连接相关的超时要一并设置
+        searchOptions = RequestOptions.DEFAULT.toBuilder()
+                .setRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) elasticsearchProperties.getConnectTimeout().toMillis())
+                        .setConnectionRequestTimeout(
+                                (int) elasticsearchProperties.getConnectionRequestTimeout().toMillis())
+                        .setSocketTimeout((int) searchProperties.getTimeout().toMillis())
+                        .build())
+                .build();
+    }
+
+    @PostConstruct
+    public void initSingleFlights() {
+        HotelCacheProperties.Coalescing coalescing = cacheProperties.getCoalescing();
+        searchFlights = new SingleFlight<>("search",
+                coalescing.isEnabled(), coalescing.getReuseWindow(), meterRegistry);
+        searchWithFiltersFlights = new SingleFlight<>("searchWithFilters",
+                coalescing.isEnabled(), coalescing.getReuseWindow(), meterRegistry);
+        filtersFlights = new SingleFlight<>("filters",
+                coalescing.isEnabled(), coalescing.getReuseWindow(), meterRegistry);
+    }
+
+    @Override
+    public PageResult search(RequestParams raw) {
+        RequestParams params = canonical(raw);
+        if (params.getCursor() != null) {
+            return search(params, null);
+        }
+        PageResult cached = pageCache.getIfPresent(params);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return searchFlights.get(SearchKeys.search(params), () -> {
+                PageResult page = search(params, null);
+                pageCache.put(params, page);
+                return page;
+            });
+        } catch (RuntimeException e) {
+            return fallback("search", e, () -> pageCache.getStale(params));
+        }
+    }
+
+    @Override
+    public CompletableFuture<PageResult> searchAsync(RequestParams raw) {
+        RequestParams params = canonical(raw);
+        if (params.getCursor() != null) {
+            return withDeadline(searchAsync(params, null));
+        }
+        PageResult cached = pageCache.getIfPresent(params);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<PageResult> result = withDeadline(searchFlights.execute(SearchKeys.search(params),
+                () -> CancellableFutures.thenApply(searchAsync(params, null), page -> {
+                    pageCache.put(params, page);
+                    return page;
+                })));
+        return CancellableFutures.exceptionally(result, e -> fallback("search", e, () -> pageCache.getStale(params)));
+    }
+
     @Override
-    public PageResult search(RequestParams params) {
-        SearchResponse response = null;
+    public HotelSearchResult searchWithFilters(RequestParams raw) {
+        RequestParams params = canonical(raw);
+        Map<String, List<String>> cached = filtersCache.getIfPresent(params);
+        if (cached != null) {
+            return new HotelSearchResult(search(params), cached);
+        }
+        if (decodeCursor(params) != null) {
+            //游标分页的后续页: 过滤项和第一页相同,不再聚合
+            return new HotelSearchResult(search(params, null), staleFilters(params));
+        }
+        if (params.getCursor() != null) {
+            return searchWithFilters(params, new HashMap<>());
+        }
         try {
-            //准备request
-            SearchRequest request = new SearchRequest("hotel");
-            //准备DSL
-            buildBasicQuery(params, request);
-            /*分页*/
-            int page = params.getPage();
-            int size = params.getSize();
-            request.source().from((page - 1) * size).size(size);
-            /*距离排序*/
-            String location = params.getLocation();
-            if (!StringUtils.isEmpty(location)) {
-                request.source().sort(SortBuilders
-                        .geoDistanceSort("location", new GeoPoint(location))
-                        .order(SortOrder.ASC)
-                        .unit(DistanceUnit.KILOMETERS));
-            }
-            //发送请求
-            response = client.search(request, RequestOptions.DEFAULT);
+            return searchWithFiltersFlights.get(SearchKeys.search(params),
+                    () -> searchWithFilters(params, new HashMap<>()));
+        } catch (RuntimeException e) {
+            return fallback("searchWithFilters", e, () -> staleSearchResult(params));
+        }
+    }
+
+    private HotelSearchResult searchWithFilters(RequestParams params, Map<String, List<String>> filters) {
+        //聚合和分页查询的query相同,放在同一个请求里,query只执行一次
+        PageResult page = search(params, filters);
+        filtersCache.put(params, filters);
+        pageCache.put(params, page);
+        return new HotelSearchResult(page, filters);
+    }
+
+    @Override
+    public CompletableFuture<HotelSearchResult> searchWithFiltersAsync(RequestParams raw) {
+        RequestParams params = canonical(raw);
+        Map<String, List<String>> cached = filtersCache.getIfPresent(params);
+        if (cached != null) {
+            return CancellableFutures.thenApply(searchAsync(params), page -> new HotelSearchResult(page, cached));
+        }
+        if (decodeCursor(params) != null) {
+            //游标分页的后续页: 过滤项和第一页相同,不再聚合
+            return CancellableFutures.thenApply(withDeadline(searchAsync(params, null)),
+                    page -> new HotelSearchResult(page, staleFilters(params)));
+        }
+        if (params.getCursor() != null) {
+            return withDeadline(searchWithFiltersAsync(params, new HashMap<>()));
+        }
+        CompletableFuture<HotelSearchResult> result = withDeadline(searchWithFiltersFlights.execute(
+                SearchKeys.search(params), () -> searchWithFiltersAsync(params, new HashMap<>())));
+        return CancellableFutures.exceptionally(result,
+                e -> fallback("searchWithFilters", e, () -> staleSearchResult(params)));
+    }
+
+    private CompletableFuture<HotelSearchResult> searchWithFiltersAsync(RequestParams params,
+                                                                        Map<String, List<String>> filters) {
+        return CancellableFutures.thenApply(searchAsync(params, filters), page -> {
+            filtersCache.put(params, filters);
+            pageCache.put(params, page);
+            return new HotelSearchResult(page, filters);
+        });
+    }
+
+    /**
+     * 所有入口先规范化参数,之后的缓存key、请求合并、本地索引和ES的DSL都基于规范化后的参数
+     */
+    private RequestParams canonical(RequestParams params) {
+        return CanonicalParams.of(params, searchProperties.getRequestCache().getPriceBucket());
+    }
+
+    /**
+     * 分片request cache只缓存size为0的请求,这类请求显式开启;
+     * 相同的查询用相同的preference,落到已经缓存了结果的分片副本上
+     * @param key 查询的缓存key,见SearchKeys
+     * @param requestCache 是否开启request cache
+     */
+    private void applyCacheHints(SearchRequest request, String key, boolean requestCache) {
+        SearchProperties.RequestCache properties = searchProperties.getRequestCache();
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (requestCache) {
+            request.requestCache(true);
+        }
+        if (properties.isStablePreference()) {
+            request.preference(SearchKeys.preference(key));
+        }
+    }
+
+    /**
+     * 降级结果: 缓存中最近的一页,加上最近一次的过滤项
+     * @return 没有缓存过这一页时返回null
+     */
+    private HotelSearchResult staleSearchResult(RequestParams params) {
+        PageResult page = pageCache.getStale(params);
+        return page == null ? null : new HotelSearchResult(page, staleFilters(params));
+    }
+
+    /**
+     * 降级结果: 最近一次的过滤项,没有时返回空的过滤项,前端只是不显示可选值
+     */
+    private Map<String, List<String>> staleFilters(RequestParams params) {
+        Map<String, List<String>> filters = filtersCache.getStale(params);
+        if (filters != null) {
+            return filters;
+        }
+        filters = new HashMap<>();
+        filters.put("city", Collections.emptyList());
+        filters.put("starName", Collections.emptyList());
+        filters.put("brand", Collections.emptyList());
+        return filters;
+    }
+
+    /**
+     * 超过接口的超时时间时以SearchTimeoutException取消查询,
+     * 和失败一样走降级,ES请求按超时计入限流和熔断的统计
+     */
+    private <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future) {
+        return CancellableFutures.withTimeout(future, searchProperties.getTimeout(),
+                () -> new SearchTimeoutException("搜索超时"));
+    }
+
+    /**
+     * ES查询失败、超时或者被拒绝时返回降级结果,没有降级结果或者客户端已断开时原样抛出
+     * @param fallback 只在失败时调用,返回null表示没有降级结果
+     */
+    private <T> T fallback(String operation, Throwable e, Supplier<T> fallback) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        boolean disconnected = cause instanceof CancellationException && !(cause instanceof SearchTimeoutException);
+        T result = disconnected ? null : fallback.get();
+        if (result == null) {
+            throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+        }
+        metrics.fallback(operation);
+        log.debug("{}查询失败,返回降级结果: {}", operation, cause.toString());
+        return result;
+    }
+
+    /**
+     * @param filters 不为null时在同一个请求中附带品牌、城市、星级聚合,结果放入filters
+     */
+    private PageResult search(RequestParams params, Map<String, List<String>> filters) {
+        String operation = filters == null ? "search" : "searchWithFilters";
+        PageResult local = searchLocal(params, filters, operation);
+        if (local != null) {
+            return local;
+        }
+        if (useGeoRings(params, filters)) {
+            return searchGeoRings(params, operation);
+        }
+        SearchCursor cursor = decodeCursor(params);
+        String pitId;
+        try {
+            //游标分页的第一页先打开PIT
+            pitId = params.getCursor() == null ? null : cursor != null ? cursor.getPit() : openPointInTime();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        //准备request
+        long start = System.nanoTime();
+        SearchRequest request = buildListRequest(params, cursor, pitId, filters != null);
+        metrics.record(operation, HotelMetrics.BUILD, start);
+        //发送请求
+        SearchResponse response;
+        try {
+            response = execute(operation, request);
+        } catch (RuntimeException e) {
+            throw cursor == null ? e : expiredCursor(e);
+        }
         //解析结果
-        return handleResponse(response);
+        start = System.nanoTime();
+        PageResult result = handleListResponse(params, response, pitId, filters);
+        metrics.record(operation, HotelMetrics.PARSE, start);
+        return result;
     }
 
-
-    private void buildBasicQuery(RequestParams params, SearchRequest request) {
-        BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
-        /*关键字搜索*/
-        String key = params.getKey();
-        if (StringUtils.isEmpty(key)) {
-            boolQuery.must(QueryBuilders.matchAllQuery());
+    private CompletableFuture<PageResult> searchAsync(RequestParams params, Map<String, List<String>> filters) {
+        String operation = filters == null ? "search" : "searchWithFilters";
+        PageResult local = searchLocal(params, filters, operation);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
+        }
+        if (useGeoRings(params, filters)) {
+            return searchGeoRingsAsync(params, operation, 0, null);
+        }
+        SearchCursor cursor = decodeCursor(params);
+        CompletableFuture<String> pit;
+        if (params.getCursor() == null) {
+            pit = CompletableFuture.completedFuture(null);
+        } else if (cursor != null) {
+            pit = CompletableFuture.completedFuture(cursor.getPit());
         } else {
-            boolQuery.must(QueryBuilders.matchQuery("all", key));
-        }
-        /*城市条件*/
-        if (!StringUtils.isEmpty(params.getCity())) {
-            boolQuery.filter(QueryBuilders.termQuery("city", params.getCity()));
-        }
-        /*品牌条件*/
-        if (!StringUtils.isEmpty(params.getBrand())) {
-            boolQuery.filter(QueryBuilders.termQuery("brand", params.getBrand()));
-        }
-        /*星级条件*/
-        if (!StringUtils.isEmpty(params.getStarName())) {
-            boolQuery.filter(QueryBuilders.termQuery("starName", params.getStarName()));
-        }
-        /*价格范围*/
-        if (!StringUtils.isEmpty(params.getMaxPrice())) {
-            boolQuery.filter(QueryBuilders.rangeQuery("price")
-                    .gte(params.getMinPrice())
-                    .lte(params.getMaxPrice()));
-        }
-
-        /*算分控制*/
-        FunctionScoreQueryBuilder functionScoreQueryBuilder = QueryBuilders.functionScoreQuery(
-                //原始查询,相关性算分的查询
-                boolQuery,
-                //function score数组
-                new FunctionScoreQueryBuilder.FilterFunctionBuilder[]{
-                        //一个function score元素
-                        new FunctionScoreQueryBuilder.FilterFunctionBuilder(
-                                //过滤条件
-                                QueryBuilders.termQuery("isAD", true),
-                                //算分函数
-                                ScoreFunctionBuilders.weightFactorFunction(10)
-                        )
-                });
-        request.source().query(functionScoreQueryBuilder);
-    }
-
-    private PageResult handleResponse(SearchResponse response) {
-        SearchHits searchHits = response.getHits();
-        long total = searchHits.getTotalHits().value;
-        SearchHit[] hits = searchHits.getHits();
-        List<HotelDoc> hotels = new ArrayList<>();
-        for (SearchHit hit : hits) {
-            String json = hit.getSourceAsString();
-            HotelDoc hotelDoc = JSON.parseObject(json, HotelDoc.class);
-            //获取距离值
-            Object[] sortValues = hit.getSortValues();
-            if (sortValues.length > 0) {
-                Object sortValue = sortValues[0];
-                hotelDoc.setDistance(sortValue);
+            pit = openPointInTimeAsync();
+        }
+        CompletableFuture<PageResult> result = CancellableFutures.thenCompose(pit, pitId -> {
+            long start = System.nanoTime();
+            SearchRequest request = buildListRequest(params, cursor, pitId, filters != null);
+            metrics.record(operation, HotelMetrics.BUILD, start);
+            return searchAsync(operation, request, response -> handleListResponse(params, response, pitId, filters));
+        });
+        if (cursor == null) {
+            return result;
+        }
+        return CancellableFutures.exceptionally(result, e -> {
+            throw expiredCursor(e);
+        });
+    }
+
+    /**
+     * 本地索引副本就绪时在进程内查询,不经过网络;游标分页依赖ES的PIT,仍然查ES
+     * @return 不能或者没有在本地查询时返回null,由调用方查ES
+     */
+    private PageResult searchLocal(RequestParams params, Map<String, List<String>> filters, String operation) {
+        if (params.getCursor() != null || !localReplica.isReady()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            PageResult result = localReplica.search(params, filters);
+            metrics.record(operation, HotelMetrics.LOCAL, start);
+            return result;
+        } catch (RuntimeException e) {
+            metrics.failure(operation + ".local", e);
+            log.warn("本地索引查询失败,回退到ES", e);
+            return null;
+        }
+    }
+
+    /**
+     * 就近搜索只用于page/size分页且不带聚合的查询:
+     * 游标分页的search_after无法在不同半径的请求之间衔接,聚合本来就要扫描全部命中
+     */
+    private boolean useGeoRings(RequestParams params, Map<String, List<String>> filters) {
+        SearchProperties.GeoRing geoRing = searchProperties.getGeoRing();
+        return geoRing.isEnabled() && !geoRing.getRadii().isEmpty() && filters == null
+                && params.getCursor() == null && !StringUtils.isEmpty(params.getLocation());
+    }
+
+    /**
+     * 从最小的半径开始查询,圈内命中数够当前页时直接返回,否则扩大半径;
+     * 完整命中数只在第一个半径上统计一次,它不够当前页时任何半径都填不满,直接不限范围;
+     * 所有半径都不够时最后一次不限范围
+     */
+    private PageResult searchGeoRings(RequestParams params, String operation) {
+        Long total = null;
+        for (int ring = 0; ; ring++) {
+            Double radius = geoRingRadius(params, ring, total);
+            long start = System.nanoTime();
+            SearchRequest request = buildGeoRingRequest(params, radius, total);
+            metrics.record(operation, HotelMetrics.BUILD, start);
+            SearchResponse response = execute(operation, request);
+            start = System.nanoTime();
+            GeoRingStep step = handleGeoRingResponse(params, response, radius, total);
+            metrics.record(operation, HotelMetrics.PARSE, start);
+            if (step.result != null) {
+                return step.result;
             }
-            hotels.add(hotelDoc);
+            total = step.total;
         }
-        return new PageResult(total, hotels);
     }
 
+    private CompletableFuture<PageResult> searchGeoRingsAsync(RequestParams params, String operation, int ring,
+                                                             Long total) {
+        Double radius = geoRingRadius(params, ring, total);
+        long start = System.nanoTime();
+        SearchRequest request = buildGeoRingRequest(params, radius, total);
+        metrics.record(operation, HotelMetrics.BUILD, start);
+        CompletableFuture<GeoRingStep> step = searchAsync(operation, request,
+                response -> handleGeoRingResponse(params, response, radius, total));
+        return CancellableFutures.thenCompose(step, s -> s.result != null
+                ? CompletableFuture.completedFuture(s.result)
+                : searchGeoRingsAsync(params, operation, ring + 1, s.total));
+    }
 
-    @Override
-    public Map<String, List<String>> getFilters(RequestParams params) {
+    /**
+     * @param total 完整命中数,还没有统计时为null
+     * @return 本次查询的半径,null表示不限范围
+     */
+    private Double geoRingRadius(RequestParams params, int ring, Long total) {
+        List<Double> radii = searchProperties.getGeoRing().getRadii();
+        if (ring >= radii.size() || total != null && total < (long) params.getPage() * params.getSize()) {
+            return null;
+        }
+        return radii.get(ring);
+    }
+
+    /**
+     * 圈内命中数只需要知道够不够当前页,完整命中数由第一次查询的聚合统计,
+     * 之后的查询不再统计,不限范围的查询也不统计命中数
+     */
+    private SearchRequest buildGeoRingRequest(RequestParams params, Double radius, Long total) {
+        SearchRequest request = buildListRequest(params, null, null, false, radius, total == null);
+        if (radius != null) {
+            request.source().trackTotalHitsUpTo(Math.max(1, params.getPage() * params.getSize()));
+        } else if (total != null) {
+            request.source().trackTotalHits(false);
+        }
+        return request;
+    }
+
+    /**
+     * 就近搜索一次查询的结果
+     */
+    private static final class GeoRingStep {
+        /**
+         * 圈内命中数不够当前页时为null
+         */
+        private final PageResult result;
+        private final Long total;
+
+        private GeoRingStep(PageResult result, Long total) {
+            this.result = result;
+            this.total = total;
+        }
+    }
+
+    /**
+     * @param radius 本次查询的半径,null表示不限范围
+     * @param total 之前的查询统计的完整命中数,为null时从本次响应的聚合读取
+     */
+    private GeoRingStep handleGeoRingResponse(RequestParams params, SearchResponse response, Double radius,
+                                              Long total) {
+        if (total == null) {
+            total = getGeoRingTotal(response);
+        }
+        if (radius == null) {
+            metrics.geoRing("unbounded");
+            PageResult result = handleResponse(response, true);
+            if (total != null) {
+                result.setTotal(total);
+            }
+            return new GeoRingStep(result, total);
+        }
+        long ringHits = response.getHits().getTotalHits().value;
+        //圈内已经包含了全部命中时也不需要再扩大
+        if (ringHits < (long) params.getPage() * params.getSize() && (total == null || ringHits < total)) {
+            return new GeoRingStep(null, total);
+        }
+        metrics.geoRing(String.valueOf(radius));
+        PageResult result = handleResponse(response, true);
+        if (total != null) {
+            result.setTotal(total);
+        }
+        return new GeoRingStep(result, total);
+    }
+
+    /**
+     * 同步执行查询,记录ES往返耗时
+     * @throws ElasticsearchRejectedException 并发达到上限或者熔断打开,没有发出请求
+     */
+    private SearchResponse execute(String operation, SearchRequest request) {
+        ElasticsearchGuard.Permit permit = acquire(operation);
+        long start = System.nanoTime();
         try {
-            SearchRequest request = new SearchRequest("hotel");
-            buildBasicQuery(params, request);
-            request.source().size(0);
-            buildAggregation(request);
-            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-            Aggregations aggregations = response.getAggregations();
-            Map<String,List<String>> map = new HashMap<>();
-            List<String> cityAgg = getAggByName(aggregations, "cityAgg");
-            map.put("city",cityAgg);
-            List<String> starAgg = getAggByName(aggregations, "starAgg");
-            map.put("starName",starAgg);
-            List<String> brandAgg = getAggByName(aggregations, "brandAgg");
-            map.put("brand",brandAgg);
-            return  map;
+            SearchResponse response = client.search(request, searchOptions);
+            permit.release(null);
+            metrics.record(operation, HotelMetrics.ES, start);
+            return response;
         } catch (IOException e) {
+            permit.release(e);
+            metrics.failure(operation, e);
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            permit.release(e);
+            metrics.failure(operation, e);
+            throw e;
+        }
+    }
+
+    private ElasticsearchGuard.Permit acquire(String operation) {
+        try {
+            return guard.acquire(operation);
+        } catch (ElasticsearchRejectedException e) {
+            metrics.failure(operation, e);
+            throw e;
         }
     }
 
+    /**
+     * 把请求交给ES客户端的I/O线程执行,不占用调用线程,响应到达后用handler解析;
+     * 取消返回的future时中断HTTP请求,ES会随连接关闭取消对应的搜索任务
+     */
+    private <T> CompletableFuture<T> searchAsync(String operation, SearchRequest request,
+                                                 Function<SearchResponse, T> handler) {
+        ElasticsearchGuard.Permit permit;
+        try {
+            permit = acquire(operation);
+        } catch (ElasticsearchRejectedException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        Cancellable cancellable = client.searchAsync(request, searchOptions,
+                ActionListener.wrap(future::complete, future::completeExceptionally));
+        future.whenComplete((response, e) -> {
+            //超时取消时e是SearchTimeoutException,按失败统计;客户端断开的取消不计入限流和熔断的统计
+            permit.release(e);
+            if (future.isCancelled()) {
+                cancellable.cancel();
+            }
+            if (e != null) {
+                metrics.failure(operation, e);
+            }
+        });
+        return CancellableFutures.thenApply(future, response -> {
+            long parseStart = metrics.record(operation, HotelMetrics.ES, start);
+            T result = handler.apply(response);
+            metrics.record(operation, HotelMetrics.PARSE, parseStart);
+            return result;
+        });
+    }
+
+    /**
+     * @return 不是游标分页或者是游标分页的第一页时返回null
+     * @throws ResponseStatusException 400,cursor不是本服务生成的
+     */
+    private SearchCursor decodeCursor(RequestParams params) {
+        String cursor = params.getCursor();
+        if (StringUtils.isEmpty(cursor)) {
+            return null;
+        }
+        try {
+            return SearchCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "无效的cursor", e);
+        }
+    }
+
+    /**
+     * 游标中的PIT超过keep_alive没有使用会被ES释放,查询返回404,这时应由前端从第一页重新查询
+     * @return PIT已失效时返回400,其他失败原样返回
+     */
+    private static RuntimeException expiredCursor(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ElasticsearchException
+                && ((ElasticsearchException) cause).status() == RestStatus.NOT_FOUND) {
+            return new ResponseStatusException(HttpStatus.BAD_REQUEST, "cursor已过期", cause);
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+    }
+
+    private SearchRequest buildListRequest(RequestParams params, SearchCursor cursor, String pitId,
+                                           boolean withFilters) {
+        return buildListRequest(params, cursor, pitId, withFilters, null, false);
+    }
+
+    /**
+     * 构建列表查询
+     * 普通分页用from/size;游标分页在point in time快照上用search_after翻页,
+     * 每页只需要各分片取size条,代价与翻到多深无关,也不受max_result_window限制
+     * @param pitId 为null时使用from/size分页
+     * @param withFilters 是否附带品牌、城市、星级聚合
+     * @param radiusKm 不为null时只在用户位置附近的这个半径内搜索
+     * @param withGeoRingTotal 就近搜索时是否统计不限半径的完整命中数
+     */
+    private SearchRequest buildListRequest(RequestParams params, SearchCursor cursor, String pitId, boolean withFilters,
+                                           Double radiusKm, boolean withGeoRingTotal) {
+        //PIT请求不能指定索引
+        SearchRequest request = pitId == null ? new SearchRequest("hotel") : new SearchRequest();
+        //准备DSL
+        if (radiusKm == null) {
+            buildBasicQuery(params, request);
+        } else {
+            buildGeoRingQuery(params, request, radiusKm, withGeoRingTotal);
+        }
+        if (withFilters) {
+            buildAggregation(request);
+        }
+        //只取列表页需要的字段
+        SearchProperties.Projection projection = searchProperties.getProjection();
+        request.source().fetchSource(
+                projection.isEnabled() ? projection.getList().toArray(new String[0]) : null,
+                projection.getExcludes().toArray(new String[0]));
+        /*分页*/
+        int page = params.getPage();
+        int size = params.getSize();
+        if (pitId == null) {
+            request.source().from((page - 1) * size).size(size);
+        } else {
+            request.source().size(size);
+            request.source().pointInTimeBuilder(new PointInTimeBuilder(pitId).setKeepAlive(PIT_KEEP_ALIVE));
+        }
+        /*距离排序*/
+        buildGeoSort(params, request);
+        if (pitId == null) {
+            //带PIT的请求不能指定preference;同一个查询的各页落在同一组副本上,翻页时算分一致
+            applyCacheHints(request, SearchKeys.filters(params), false);
+        } else {
+            /*游标分页: 距离、算分之后用id保证顺序唯一*/
+            request.source().sort(SortBuilders.scoreSort());
+            request.source().sort(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+            if (cursor != null) {
+                request.source().searchAfter(cursor.getAfter());
+            }
+        }
+        return request;
+    }
+
+    private PageResult handleListResponse(RequestParams params, SearchResponse response, String pitId,
+                                          Map<String, List<String>> filters) {
+        if (filters != null) {
+            filters.putAll(handleFilters(response.getAggregations()));
+        }
+        PageResult result = handleResponse(response, !StringUtils.isEmpty(params.getLocation()));
+        if (pitId == null) {
+            return result;
+        }
+        //每次响应都可能返回新的PIT id,以最新的为准
+        String nextPitId = response.pointInTimeId() != null ? response.pointInTimeId() : pitId;
+        SearchHit[] hits = response.getHits().getHits();
+        if (hits.length == params.getSize()) {
+            result.setCursor(new SearchCursor(nextPitId, hits[hits.length - 1].getSortValues()).encode());
+        } else {
+            //已经是最后一页,提前释放PIT
+            closePointInTime(nextPitId);
+        }
+        return result;
+    }
+
+    /**
+     * 当前版本的RestHighLevelClient还没有PIT的API,用底层客户端调用
+     */
+    private String openPointInTime() throws IOException {
+        Response response = client.getLowLevelClient().performRequest(openPointInTimeRequest());
+        return parsePointInTimeId(response);
+    }
+
+    private CompletableFuture<String> openPointInTimeAsync() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Cancellable cancellable = client.getLowLevelClient().performRequestAsync(openPointInTimeRequest(),
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        try {
+                            future.complete(parsePointInTimeId(response));
+                        } catch (IOException | RuntimeException e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+        future.whenComplete((pitId, e) -> {
+            if (future.isCancelled()) {
+                cancellable.cancel();
+            }
+        });
+        return future;
+    }
+
+    private Request openPointInTimeRequest() {
+        Request request = new Request("POST", "/" + HotelConstants.INDEX_NAME + "/_pit");
+        request.addParameter("keep_alive", PIT_KEEP_ALIVE.getStringRep());
+        request.setOptions(searchOptions);
+        return request;
+    }
+
+    private String parsePointInTimeId(Response response) throws IOException {
+        return JSON.parseObject(EntityUtils.toString(response.getEntity())).getString("id");
+    }
 
     /**
-     *根据聚合名称获取聚合结果
-     * @param aggregations
-     * @param aggName
-     * @return
+     * 异步释放PIT,不阻塞当前线程(可能是ES客户端的I/O线程)
      */
-    private List<String> getAggByName(Aggregations aggregations,String aggName) {
-        Terms terms = aggregations.get(aggName);
-        List<? extends Terms.Bucket> buckets = terms.getBuckets();
-        List<String> list = new ArrayList<>();
-        for (Terms.Bucket bucket : buckets) {
-            String name = bucket.getKeyAsString();
-            list.add(name);
+    private void closePointInTime(String pitId) {
+        Request request = new Request("DELETE", "/_pit");
+        request.setJsonEntity(JSON.toJSONString(Collections.singletonMap("id", pitId)));
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                //PIT到期后会自动释放,这里失败不影响结果
+                log.warn("释放PIT失败", e);
+            }
+        });
+    }
+
+    @Override
+    public Map<String, List<String>> getFilters(RequestParams raw) {
+        RequestParams params = canonical(raw);
+        try {
+            return filtersCache.get(params, this::queryFilters);
+        } catch (RuntimeException e) {
+            return fallback("filters", e, () -> staleFilters(params));
         }
-        return list;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, List<String>>> getFiltersAsync(RequestParams raw) {
+        RequestParams params = canonical(raw);
+        Map<String, List<String>> cached = filtersCache.getIfPresent(params);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Map<String, List<String>> local = filtersLocal(params);
+        if (local != null) {
+            filtersCache.put(params, local);
+            return CompletableFuture.completedFuture(local);
+        }
+        CompletableFuture<Map<String, List<String>>> result = withDeadline(filtersFlights.execute(
+                SearchKeys.filters(params), () -> searchAsync("filters", buildFiltersRequest(params), response -> {
+                    Map<String, List<String>> filters = handleFilters(response.getAggregations());
+                    filtersCache.put(params, filters);
+                    return filters;
+                })));
+        return CancellableFutures.exceptionally(result, e -> fallback("filters", e, () -> staleFilters(params)));
+    }
+
+    private Map<String, List<String>> queryFilters(RequestParams params) {
+        Map<String, List<String>> local = filtersLocal(params);
+        if (local != null) {
+            return local;
+        }
+        SearchResponse response = execute("filters", buildFiltersRequest(params));
+        long start = System.nanoTime();
+        Map<String, List<String>> filters = handleFilters(response.getAggregations());
+        metrics.record("filters", HotelMetrics.PARSE, start);
+        return filters;
     }
 
     /**
-     * 构建聚合
-     * @param request
+     * @return 本地索引副本未就绪或者查询失败时返回null
      */
-    private void buildAggregation(SearchRequest request) {
-        request.source().aggregation(AggregationBuilders
-                .terms("brandAgg")
-                .field("brand")
-                .size(100)
-        );
-        request.source().aggregation(AggregationBuilders
-                .terms("cityAgg")
-                .field("city")
-                .size(100)
-        );
-        request.source().aggregation(AggregationBuilders
-                .terms("starAgg")
-                .field("starName")
-                .size(100)
-        );
+    private Map<String, List<String>> filtersLocal(RequestParams params) {
+        if (!localReplica.isReady()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, List<String>> filters = localReplica.filters(params);
+            metrics.record("filters", HotelMetrics.LOCAL, start);
+            return filters;
+        } catch (RuntimeException e) {
+            metrics.failure("filters.local", e);
+            log.warn("本地索引查询失败,回退到ES", e);
+            return null;
+        }
+    }
+
+    private SearchRequest buildFiltersRequest(RequestParams params) {
+        long start = System.nanoTime();
+        SearchRequest request = new SearchRequest("hotel");
+        buildBasicQuery(params, request);
+        request.source().size(0);
+        buildAggregation(request);
+        applyCacheHints(request, SearchKeys.filters(params), true);
+        metrics.record("filters", HotelMetrics.BUILD, start);
+        return request;
     }
 
     @Override
-    public List<String> getSuggestion(String prefix) {
+    public List<String> getSuggestion(String raw) {
+        String prefix = suggestionPrefix(raw);
+        // 汉字前缀优先查内存前缀树,拼音前缀、索引未就绪或者没有命中时再查ES
+        List<String> suggestions = suggestFromTrie(prefix);
+        if (!suggestions.isEmpty()) {
+            return suggestions;
+        }
+        SearchResponse response;
         try {
-            SearchRequest request = new SearchRequest("hotel");
-            request.source().suggest(new SuggestBuilder().addSuggestion(
-                    "suggestions",
-                    SuggestBuilders.completionSuggestion("suggestion")
-                            .prefix(prefix)
-                            .skipDuplicates(true)
-                            .size(10)
-            ));
-            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-            Suggest suggest = response.getSuggest();
-            CompletionSuggestion suggestions = suggest.getSuggestion("suggestions");
-            List<CompletionSuggestion.Entry.Option> options = suggestions.getOptions();
-            List<String> list = new ArrayList<>();
-            for (CompletionSuggestion.Entry.Option option : options) {
-                String text = option.getText().toString();
-                list.add(text);
-            }
-            return list;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            response = execute("suggestion", buildSuggestionRequest(prefix));
+        } catch (RuntimeException e) {
+            //补全只是输入提示,ES不可用时返回空列表
+            return fallback("suggestion", e, Collections::emptyList);
         }
+        long start = System.nanoTime();
+        suggestions = handleSuggestion(response);
+        metrics.record("suggestion", HotelMetrics.PARSE, start);
+        return suggestions;
     }
 
     @Override
-    public void deleteById(Long id) {
+    public CompletableFuture<List<String>> getSuggestionAsync(String raw) {
+        String prefix = suggestionPrefix(raw);
+        List<String> suggestions = suggestFromTrie(prefix);
+        if (!suggestions.isEmpty()) {
+            return CompletableFuture.completedFuture(suggestions);
+        }
+        CompletableFuture<List<String>> result = withDeadline(searchAsync("suggestion",
+                buildSuggestionRequest(prefix), HotelResponseParser::handleSuggestion));
+        return CancellableFutures.exceptionally(result,
+                e -> fallback("suggestion", e, Collections::<String>emptyList));
+    }
+
+    /**
+     * 空前缀没有意义,ES的completion suggester也会报错,直接返回400
+     */
+    private String suggestionPrefix(String prefix) {
+        if (!StringUtils.hasText(prefix)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "补全前缀不能为空");
+        }
+        return prefix.trim();
+    }
+
+    private List<String> suggestFromTrie(String prefix) {
+        long start = System.nanoTime();
+        List<String> suggestions = suggestionIndex.suggest(prefix, 10);
+        metrics.record("suggestion", HotelMetrics.TRIE, start);
+        return suggestions;
+    }
+
+    private SearchRequest buildSuggestionRequest(String prefix) {
+        long start = System.nanoTime();
+        SearchRequest request = new SearchRequest("hotel");
+        //只需要补全结果,不取命中的文档,size为0时也能使用request cache
+        request.source().size(0);
+        request.source().suggest(new SuggestBuilder().addSuggestion(
+                "suggestions",
+                SuggestBuilders.completionSuggestion("suggestion")
+                        .prefix(prefix)
+                        .skipDuplicates(true)
+                        .size(10)
+        ));
+        applyCacheHints(request, prefix, true);
+        metrics.record("suggestion", HotelMetrics.BUILD, start);
+        return request;
+    }
+
+    @Override
+    public List<HotelSyncEvent> bulkSync(List<HotelSyncEvent> events) {
+        if (events.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.一次查询出本批次所有需要新增或修改的酒店
+        Set<Long> upsertIds = events.stream()
+                .filter(e -> e.getType() == HotelSyncEvent.Type.UPSERT)
+                .map(HotelSyncEvent::getId)
+                .collect(Collectors.toSet());
+        Map<Long, Hotel> hotels = new HashMap<>(upsertIds.size());
+        if (!upsertIds.isEmpty()) {
+            long start = System.nanoTime();
+            for (Hotel hotel : listByIds(upsertIds)) {
+                hotels.put(hotel.getId(), hotel);
+            }
+            metrics.record("bulkSync", HotelMetrics.MYSQL, start);
+        }
+        // 2.组装BulkRequest, items与request中的请求一一对应
+        BulkRequest request = new BulkRequest();
+        List<HotelSyncEvent> items = new ArrayList<>(events.size());
+        for (HotelSyncEvent event : events) {
+            Long id = event.getId();
+            //写入都带着版本号,乱序到达的旧变更在ES中变成noop
+            if (event.getType() == HotelSyncEvent.Type.DELETE) {
+                request.add(deleteRequest(event));
+            } else if (event.getType() == HotelSyncEvent.Type.PARTIAL) {
+                //只改了不分词的字段,不查MySQL,请求里只带这几个字段
+                request.add(HotelWriteRequests.partial("hotel", id, event.getChanges(), event.getVersion()));
+            } else {
+                Hotel hotel = hotels.get(id);
+                if (hotel == null) {
+                    //修改之后又被删除,删除消息可能在后面的批次,这里直接按删除处理
+                    log.info("酒店{}在数据库中已不存在,按删除同步", id);
+                    metrics.synced(event.getType(), "missing");
+                    event.setType(HotelSyncEvent.Type.DELETE);
+                    if (event.getExpected() != null && event.getExpected().getSeqNo() == null) {
+                        //一致性修复时索引和数据库中都已经没有这个酒店
+                        continue;
+                    }
+                    request.add(deleteRequest(event));
+                } else {
+                    request.add(upsertRequest(event, hotel));
+                }
+            }
+            items.add(event);
+        }
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 3.写入前后酒店所在的城市和品牌,用于精确失效列表缓存
+        Set<PageResultCache.Scope> scopes = indexedScopes(items);
+        for (HotelSyncEvent event : items) {
+            Hotel hotel = hotels.get(event.getId());
+            if (hotel != null && scopes != null) {
+                scopes.add(new PageResultCache.Scope(hotel.getCity(), hotel.getBrand()));
+            }
+        }
+        // 4.发送请求
+        BulkResponse response;
+        long start = System.nanoTime();
         try {
-            // 1.准备Request
-            DeleteRequest request = new DeleteRequest("hotel", String.valueOf(id));
-            // 2.发送请求
-            client.delete(request, RequestOptions.DEFAULT);
+            response = client.bulk(request, RequestOptions.DEFAULT);
         } catch (IOException e) {
+            metrics.failure("bulkSync", e);
             throw new RuntimeException(e);
         }
+        metrics.record("bulkSync", HotelMetrics.ES, start);
+        // 5.收集失败的条目,成功的条目通知所有实例更新内存补全索引
+        List<HotelSyncEvent> failed = new ArrayList<>();
+        List<Long> upserted = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        for (BulkItemResponse item : response.getItems()) {
+            HotelSyncEvent event = items.get(item.getItemId());
+            if (item.isFailed() && event.getExpected() != null
+                    && (item.status() == RestStatus.CONFLICT || item.status() == RestStatus.NOT_FOUND)) {
+                //一致性修复: 文档在扫描之后已经被同步消息修改或删除,放弃修复
+                metrics.synced(event.getType(), "conflict");
+                continue;
+            }
+            //要删除的文档本来就不存在,和删除成功一样
+            boolean absent = item.isFailed() && event.getType() == HotelSyncEvent.Type.DELETE
+                    && item.status() == RestStatus.NOT_FOUND;
+            if (item.isFailed() && !absent) {
+                log.warn("酒店{}同步失败: {}", item.getId(), item.getFailureMessage());
+                metrics.synced(event.getType(), "failure");
+                failed.add(event);
+                continue;
+            }
+            if (!absent && item.getResponse().getResult() == DocWriteResponse.Result.NOOP) {
+                //文档已经是更新的版本
+                metrics.synced(event.getType(), "stale");
+                continue;
+            }
+            metrics.synced(event.getType(), "success");
+            if (!absent) {
+                //只统计确实写入了ES的文档
+                metrics.syncLag(event.getPublishedAt());
+            }
+            if (event.getType() == HotelSyncEvent.Type.DELETE) {
+                deleted.add(event.getId());
+            } else if (event.getType() == HotelSyncEvent.Type.UPSERT) {
+                upserted.add(event.getId());
+            }
+            //局部更新不涉及品牌和商圈,补全词条不变
+        }
+        // 6.各实例失效列表缓存、过滤项缓存,更新补全索引
+        cacheSync.publish(new HotelCacheInvalidation(upserted, deleted,
+                scopes == null ? null : new ArrayList<>(scopes)));
+        return failed;
     }
 
-    @Override
-    public void insertById(Long id) {
+    /**
+     * 同步消息按版本号写入,一致性修复按扫描时文档的版本写入
+     */
+    private static DocWriteRequest<?> upsertRequest(HotelSyncEvent event, Hotel hotel) {
+        HotelSyncEvent.IndexedVersion expected = event.getExpected();
+        if (expected == null) {
+            return HotelWriteRequests.upsert("hotel", hotel, event.getVersion());
+        }
+        return expected.getSeqNo() == null
+                ? HotelWriteRequests.createIfAbsent("hotel", hotel)
+                : HotelWriteRequests.upsertIfUnchanged("hotel", hotel, expected.getSeqNo(), expected.getPrimaryTerm());
+    }
+
+    private static DocWriteRequest<?> deleteRequest(HotelSyncEvent event) {
+        HotelSyncEvent.IndexedVersion expected = event.getExpected();
+        return expected == null
+                ? HotelWriteRequests.delete("hotel", event.getId(), event.getVersion())
+                : HotelWriteRequests.deleteIfUnchanged("hotel", event.getId(), expected.getSeqNo(), expected.getPrimaryTerm());
+    }
+
+    /**
+     * 查询ES中这些酒店当前(变更前)的城市和品牌
+     * @return 查询失败时返回null,由调用方失效全部列表缓存
+     */
+    private Set<PageResultCache.Scope> indexedScopes(List<HotelSyncEvent> events) {
+        if (!pageCache.isEnabled()) {
+            return new HashSet<>();
+        }
+        MultiGetRequest request = new MultiGetRequest();
+        FetchSourceContext source = new FetchSourceContext(true, new String[]{"city", "brand"}, null);
+        for (HotelSyncEvent event : events) {
+            request.add(new MultiGetRequest.Item("hotel", String.valueOf(event.getId())).fetchSourceContext(source));
+        }
         try {
-            Hotel hotel = getById(id);
-            //装换为文档类型
-            HotelDoc hotelDoc = new HotelDoc(hotel);
-            //request对象
-            IndexRequest request = new IndexRequest("hotel").id(hotelDoc.getId().toString());
-            //json文档
-            request.source(JSON.toJSONString(hotelDoc), XContentType.JSON);
-            //发送请求
-            client.index(request, RequestOptions.DEFAULT);
-        } catch (IOException e) {
-            if (!e.getMessage().contains("200 OK")||!e.getMessage().contains("201 Created")){
-                throw new RuntimeException(e);
+            Set<PageResultCache.Scope> scopes = new HashSet<>();
+            for (MultiGetItemResponse item : client.mget(request, RequestOptions.DEFAULT)) {
+                if (!item.isFailed() && item.getResponse().isExists()) {
+                    Map<String, Object> doc = item.getResponse().getSourceAsMap();
+                    scopes.add(new PageResultCache.Scope((String) doc.get("city"), (String) doc.get("brand")));
+                }
             }
+            return scopes;
+        } catch (IOException | RuntimeException e) {
+            log.warn("查询酒店原来的城市和品牌失败,清空全部列表缓存", e);
+            return null;
         }
     }
 }
-
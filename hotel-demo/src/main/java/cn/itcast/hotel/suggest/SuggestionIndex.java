@@ -0,0 +1,152 @@
+package cn.itcast.hotel.suggest;
+
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存中的自动补全索引,词条与HotelDoc的suggestion字段一致(品牌和商圈)
+ * 启动时从MySQL构建,之后由HotelCacheSync收到的广播增量维护,每个实例都会收到。
+ * 前缀树没有拼音,只回答含汉字的前缀;拼音前缀交给ES的completion suggester
+ */
+@Slf4j
+@Component
+public class SuggestionIndex {
+
+    private static final int PAGE_SIZE = 1000;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    private final SuggestionTrie trie = new SuggestionTrie();
+
+    /**
+     * 每个酒店当前贡献的词条,修改和删除时据此撤销旧词条
+     */
+    private final Map<Long, List<String>> termsById = new HashMap<>();
+
+    /**
+     * 构建期间已经由MQ事件处理过的酒店,构建时不能再用读到的旧数据覆盖
+     */
+    private final Set<Long> changedWhileBuilding = new HashSet<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean ready;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAsync() {
+        Thread builder = new Thread(this::build, "suggestion-index-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void build() {
+        long start = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Hotel> page = hotelMapper.selectAfterId(lastId, PAGE_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                lastId = page.get(page.size() - 1).getId();
+                lock.writeLock().lock();
+                try {
+                    for (Hotel hotel : page) {
+                        if (changedWhileBuilding.contains(hotel.getId())) {
+                            continue;
+                        }
+                        try {
+                            put(hotel);
+                        } catch (RuntimeException e) {
+                            log.warn("酒店{}的补全词条无法生成", hotel.getId(), e);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                changedWhileBuilding.clear();
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("自动补全索引构建完成,{}个酒店,{}个词条,耗时{}ms",
+                    termsById.size(), trie.size(), System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.error("自动补全索引构建失败,继续使用ES补全", e);
+        }
+    }
+
+    /**
+     * @return 索引构建完成前或者前缀不含汉字时返回空列表,由调用方回退到ES
+     */
+    public List<String> suggest(String prefix, int limit) {
+        if (!ready || !containsHan(prefix)) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            return trie.prefix(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void upsert(Hotel hotel) {
+        lock.writeLock().lock();
+        try {
+            if (!ready) {
+                changedWhileBuilding.add(hotel.getId());
+            }
+            put(hotel);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            if (!ready) {
+                changedWhileBuilding.add(id);
+            }
+            List<String> old = termsById.remove(id);
+            if (old != null) {
+                old.forEach(trie::remove);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static boolean containsHan(String prefix) {
+        return prefix.codePoints().anyMatch(c -> Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN);
+    }
+
+    private void put(Hotel hotel) {
+        List<String> terms = new HotelDoc(hotel).getSuggestion();
+        List<String> old = termsById.put(hotel.getId(), terms);
+        if (old != null) {
+            old.forEach(trie::remove);
+        }
+        terms.forEach(trie::add);
+    }
+}
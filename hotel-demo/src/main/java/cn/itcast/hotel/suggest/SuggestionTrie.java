@@ -0,0 +1,166 @@
+package cn.itcast.hotel.suggest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 自动补全用的前缀树
+ * 子节点用有序的char数组和节点数组保存,比HashMap节省内存,遍历时天然按字典序输出;
+ * 每个词条带引用计数,多个酒店共用同一个品牌或商圈时只存一份。
+ * 非线程安全,由调用方加锁
+ */
+public class SuggestionTrie {
+
+    private static final char[] EMPTY_KEYS = new char[0];
+    private static final Node[] EMPTY_NODES = new Node[0];
+
+    private static final class Node {
+        char[] keys = EMPTY_KEYS;
+        Node[] children = EMPTY_NODES;
+        /**
+         * 以该节点结尾的原始词条,没有词条时为null
+         */
+        String term;
+        /**
+         * 引用该词条的次数
+         */
+        int count;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int pos = -i - 1;
+            Node node = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newKeys[pos] = c;
+            newChildren[pos] = node;
+            System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+
+        void removeChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i < 0) {
+                return;
+            }
+            if (keys.length == 1) {
+                keys = EMPTY_KEYS;
+                children = EMPTY_NODES;
+                return;
+            }
+            char[] newKeys = new char[keys.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+            System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+            keys = newKeys;
+            children = newChildren;
+        }
+
+        boolean isEmpty() {
+            return term == null && keys.length == 0;
+        }
+    }
+
+    private final Node root = new Node();
+
+    private int size;
+
+    /**
+     * 添加一次词条引用
+     */
+    public void add(String term) {
+        String key = normalize(term);
+        if (key.isEmpty()) {
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.addChild(key.charAt(i));
+        }
+        if (node.count++ == 0) {
+            node.term = term.trim();
+            size++;
+        }
+    }
+
+    /**
+     * 移除一次词条引用,引用数归零时删除词条并回收空节点
+     */
+    public void remove(String term) {
+        String key = normalize(term);
+        if (key.isEmpty()) {
+            return;
+        }
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = path[i].child(key.charAt(i));
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        Node node = path[key.length()];
+        if (node.count == 0 || --node.count > 0) {
+            return;
+        }
+        node.term = null;
+        size--;
+        for (int i = key.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(key.charAt(i - 1));
+        }
+    }
+
+    /**
+     * 按字典序返回以prefix开头的词条,忽略大小写,结果不重复
+     * @param prefix 前缀
+     * @param limit 最多返回多少条
+     */
+    public List<String> prefix(String prefix, int limit) {
+        String key = normalize(prefix);
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        if (node == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+        collect(node, result, limit);
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static void collect(Node node, List<String> result, int limit) {
+        if (node.term != null) {
+            result.add(node.term);
+        }
+        for (int i = 0; i < node.children.length && result.size() < limit; i++) {
+            collect(node.children[i], result, limit);
+        }
+    }
+
+    private static String normalize(String term) {
+        return term == null ? "" : term.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,98 @@
+package cn.itcast.hotel.utils;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * CompletableFuture的取消不会向上游传递,
+ * 这里的组合方法在取消结果时同时取消正在执行的上游阶段,使底层的ES请求能被中断。
+ * 取消的原因(CancellationException的具体类型)原样传给上游,上游可以据此区分超时和客户端断开
+ */
+public final class CancellableFutures {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cancellable-futures-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CancellableFutures() {
+    }
+
+    /**
+     * 与source.thenApply相同,取消返回的future时同时取消source
+     */
+    public static <S, T> CompletableFuture<T> thenApply(CompletableFuture<S> source,
+                                                         Function<? super S, ? extends T> fn) {
+        CompletableFuture<T> result = source.thenApply(fn);
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                cancel(source, e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 与source.thenCompose相同,取消返回的future时同时取消当前正在执行的阶段
+     */
+    public static <S, T> CompletableFuture<T> thenCompose(CompletableFuture<S> source,
+                                                           Function<? super S, CompletableFuture<T>> fn) {
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>(source);
+        CompletableFuture<T> result = source.thenCompose(value -> {
+            CompletableFuture<T> next = fn.apply(value);
+            current.set(next);
+            return next;
+        });
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                cancel(current.get(), e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 与source.exceptionally相同,取消返回的future时同时取消source
+     */
+    public static <T> CompletableFuture<T> exceptionally(CompletableFuture<T> source,
+                                                         Function<Throwable, ? extends T> fn) {
+        CompletableFuture<T> result = source.exceptionally(fn);
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                cancel(source, e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * future在timeout内没有完成时用reason取消,取消同样会传递给上游
+     * @return future本身
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, Duration timeout,
+                                                       Supplier<? extends CancellationException> reason) {
+        if (!future.isDone()) {
+            TIMER.schedule(() -> future.completeExceptionally(reason.get()),
+                    timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * 以reason为原因取消future,reason不是CancellationException时按普通取消处理
+     */
+    public static void cancel(CompletableFuture<?> future, Throwable reason) {
+        Throwable cause = reason instanceof CompletionException && reason.getCause() != null
+                ? reason.getCause() : reason;
+        future.completeExceptionally(cause instanceof CancellationException ? cause : new CancellationException());
+    }
+}
@@ -1,10 +1,11 @@
 package cn.itcast.hotel;
 
+import cn.itcast.hotel.config.ElasticsearchClientFactory;
+import cn.itcast.hotel.config.ElasticsearchProperties;
 import cn.itcast.hotel.pojo.Hotel;
 import cn.itcast.hotel.pojo.HotelDoc;
 import cn.itcast.hotel.service.IHotelService;
 import com.alibaba.fastjson.JSON;
-import org.apache.http.HttpHost;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
@@ -12,7 +13,6 @@ import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.jupiter.api.AfterEach;
@@ -34,9 +34,7 @@ public class HotelDocumentTest {
 
     @BeforeEach
     void setup(){
-        this.client = new RestHighLevelClient(RestClient.builder(
-                HttpHost.create("http://43.139.46.197:9200")
-        ));
+        this.client = new ElasticsearchClientFactory(new ElasticsearchProperties()).create();
     }
 
     @AfterEach
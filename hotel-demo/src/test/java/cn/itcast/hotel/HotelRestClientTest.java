@@ -1,9 +1,9 @@
 package cn.itcast.hotel;
 
-import org.apache.http.HttpHost;
+import cn.itcast.hotel.config.ElasticsearchClientFactory;
+import cn.itcast.hotel.config.ElasticsearchProperties;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.GetIndexRequest;
@@ -23,9 +23,7 @@ public class HotelRestClientTest {
 
     @BeforeEach
     void setup(){
-        this.client = new RestHighLevelClient(RestClient.builder(
-                HttpHost.create("http://43.139.46.197:9200")
-        ));
+        this.client = new ElasticsearchClientFactory(new ElasticsearchProperties()).create();
     }
 
     @AfterEach
@@ -1,12 +1,12 @@
 package cn.itcast.hotel;
 
+import cn.itcast.hotel.config.ElasticsearchClientFactory;
+import cn.itcast.hotel.config.ElasticsearchProperties;
 import cn.itcast.hotel.pojo.HotelDoc;
 import com.alibaba.fastjson.JSON;
-import org.apache.http.HttpHost;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -40,9 +40,7 @@ public class HotelSearchTest {
 
     @BeforeEach
     void setup() {
-        this.client = new RestHighLevelClient(RestClient.builder(
-                HttpHost.create("http://43.139.46.197:9200")
-        ));
+        this.client = new ElasticsearchClientFactory(new ElasticsearchProperties()).create();
     }
 
     @AfterEach
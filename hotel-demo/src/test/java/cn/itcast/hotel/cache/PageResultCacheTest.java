@@ -0,0 +1,118 @@
+package cn.itcast.hotel.cache;
+
+import cn.itcast.hotel.config.HotelCacheProperties;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PageResultCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void testOffHeapTierServesAfterHeapEviction() {
+        HotelCacheProperties properties = new HotelCacheProperties();
+        properties.getPages().setHeapMaximumSize(0);
+        PageResultCache cache = new PageResultCache(properties, registry);
+        RequestParams params = params("上海", "如家");
+        cache.put(params, page(36934L, "如家酒店"));
+
+        PageResult cached = cache.getIfPresent(params);
+        assertNotNull(cached);
+        assertEquals(1L, cached.getTotal());
+        assertEquals("如家酒店", cached.getHotels().get(0).getName());
+        assertTrue(registry.get("hotel.page.cache.offheap.bytes").gauge().value() > 0);
+    }
+
+    @Test
+    void testOnlyFirstPageWithoutLocationIsCached() {
+        PageResultCache cache = new PageResultCache(new HotelCacheProperties(), registry);
+        RequestParams second = params("上海", null);
+        second.setPage(2);
+        RequestParams nearby = params("上海", null);
+        nearby.setLocation("31.21, 121.5");
+        cache.put(second, page(1L, "a"));
+        cache.put(nearby, page(1L, "a"));
+        assertNull(cache.getIfPresent(second));
+        assertNull(cache.getIfPresent(nearby));
+    }
+
+    @Test
+    void testInvalidateByCityAndBrand() {
+        PageResultCache cache = new PageResultCache(new HotelCacheProperties(), registry);
+        RequestParams shanghaiRujia = params("上海", "如家");
+        RequestParams shanghai = params("上海", null);
+        RequestParams beijing = params("北京", null);
+        RequestParams shanghaiHilton = params("上海", "希尔顿");
+        for (RequestParams params : new RequestParams[]{shanghaiRujia, shanghai, beijing, shanghaiHilton}) {
+            cache.put(params, page(1L, "a"));
+        }
+        cache.invalidate(Collections.singleton(new PageResultCache.Scope("上海", "如家")));
+        assertNull(cache.getIfPresent(shanghaiRujia));
+        assertNull(cache.getIfPresent(shanghai));
+        assertNotNull(cache.getIfPresent(beijing));
+        assertNotNull(cache.getIfPresent(shanghaiHilton));
+    }
+
+    @Test
+    void testStalePageOutlivesTtl() throws InterruptedException {
+        HotelCacheProperties properties = new HotelCacheProperties();
+        properties.getPages().setTtl(Duration.ofMillis(1));
+        PageResultCache cache = new PageResultCache(properties, registry);
+        RequestParams params = params("上海", "如家");
+        cache.put(params, page(36934L, "如家酒店"));
+        Thread.sleep(20);
+
+        assertNull(cache.getIfPresent(params));
+        PageResult stale = cache.getStale(params);
+        assertNotNull(stale);
+        assertEquals("如家酒店", stale.getHotels().get(0).getName());
+        //被失效的结果不作为降级结果
+        cache.invalidate(Collections.singleton(new PageResultCache.Scope("上海", "如家")));
+        assertNull(cache.getStale(params));
+    }
+
+    @Test
+    void testReplacedAndInvalidatedBuffersAreReused() {
+        PageResultCache cache = new PageResultCache(new HotelCacheProperties(), registry);
+        RequestParams params = params("上海", "如家");
+        for (int i = 0; i < 100; i++) {
+            cache.put(params, page((long) i, "如家酒店"));
+        }
+        //替换时新缓冲区先于旧缓冲区归还分配,之后两个缓冲区轮流使用
+        double allocated = registry.get("hotel.page.cache.offheap.bytes").gauge().value();
+        assertEquals(2 * 1024, allocated, 0);
+        assertEquals("如家酒店", cache.getIfPresent(params).getHotels().get(0).getName());
+
+        cache.invalidateAll();
+        assertEquals(allocated, registry.get("hotel.page.cache.offheap.pooled.bytes").gauge().value(), 0);
+        cache.put(params("北京", null), page(1L, "a"));
+        assertEquals(allocated, registry.get("hotel.page.cache.offheap.bytes").gauge().value(), 0);
+    }
+
+    private static RequestParams params(String city, String brand) {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setCity(city);
+        params.setBrand(brand);
+        return params;
+    }
+
+    private static PageResult page(Long id, String name) {
+        HotelDoc doc = new HotelDoc();
+        doc.setId(id);
+        doc.setName(name);
+        return new PageResult(1L, Collections.singletonList(doc));
+    }
+}
@@ -0,0 +1,75 @@
+package cn.itcast.hotel.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SingleFlightTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void testConcurrentCallsShareOneExecution() {
+        SingleFlight<String, String> flights = new SingleFlight<>("test", true, Duration.ZERO, registry);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.execute("上海", () -> {
+            calls.incrementAndGet();
+            return source;
+        });
+        CompletableFuture<String> second = flights.execute("上海", () -> {
+            calls.incrementAndGet();
+            return source;
+        });
+        source.complete("result");
+        assertEquals("result", first.join());
+        assertEquals("result", second.join());
+        assertEquals(1, calls.get());
+        assertEquals(1, count("coalesced"));
+        //没有复用窗口,完成后的调用重新执行
+        assertEquals("next", flights.get("上海", () -> "next"));
+        assertEquals(2, count("leader"));
+    }
+
+    @Test
+    void testCancelOnlyWhenAllCallersCancelled() {
+        SingleFlight<String, String> flights = new SingleFlight<>("test", true, Duration.ZERO, registry);
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.execute("k", () -> source);
+        CompletableFuture<String> second = flights.execute("k", () -> source);
+        first.cancel(true);
+        assertFalse(source.isCancelled());
+        second.cancel(true);
+        assertTrue(source.isCancelled());
+        //取消后的新调用重新执行
+        assertEquals("again", flights.get("k", () -> "again"));
+    }
+
+    @Test
+    void testReuseWindowAndFailures() throws InterruptedException {
+        SingleFlight<String, String> flights = new SingleFlight<>("test", true, Duration.ofMillis(100), registry);
+        assertEquals("a", flights.get("k", () -> "a"));
+        assertEquals("a", flights.get("k", () -> "b"));
+        assertEquals(1, count("reused"));
+        Thread.sleep(150);
+        assertEquals("c", flights.get("k", () -> "c"));
+
+        assertThrows(IllegalStateException.class, () -> flights.get("e", () -> {
+            throw new IllegalStateException();
+        }));
+        //失败的结果不复用
+        assertEquals("ok", flights.get("e", () -> "ok"));
+    }
+
+    private double count(String result) {
+        return registry.get("hotel.singleflight.calls").tag("result", result).counter().count();
+    }
+}
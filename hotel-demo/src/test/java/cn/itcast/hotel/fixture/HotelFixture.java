@@ -0,0 +1,63 @@
+package cn.itcast.hotel.fixture;
+
+import cn.itcast.hotel.pojo.Hotel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 压测和基准测试共用的酒店数据,固定随机种子,每次生成的数据完全相同
+ * 字段分布参照tb_hotel: 品牌、城市、星级从固定列表中取,商圈有一半是用"、"分隔的多个商圈。
+ * 随hotel-demo的test-jar发布,hotel-benchmark依赖它
+ */
+public final class HotelFixture {
+
+    public static final long SEED = 20210530L;
+
+    public static final String[] BRANDS = {"7天酒店", "如家", "汉庭", "速8", "锦江", "华美达", "皇冠假日", "万怡",
+            "希尔顿", "喜来登", "万豪", "和颐", "凯悦", "维也纳", "京东", "君悦", "天鹅恋", "美爵", "浦东", "华天"};
+    public static final String[] CITIES = {"上海", "北京", "深圳"};
+    public static final double[][] CITY_CENTERS = {{31.23, 121.47}, {39.90, 116.40}, {22.54, 114.06}};
+    public static final String[] STARS = {"二钻", "三钻", "四钻", "五钻", "四星级", "五星级"};
+    public static final String[] BUSINESSES = {"四川北路商业区", "人民广场地区", "陆家嘴金融贸易区", "静安寺地区",
+            "徐家汇地区", "江桥地区", "虹桥地区", "五角场", "七宝商圈", "新国际博览中心", "国贸地区", "王府井",
+            "中关村", "三里屯", "望京", "亚运村", "华强北", "福田中心区", "罗湖商业区", "南山科技园"};
+
+    private HotelFixture() {
+    }
+
+    /**
+     * @return id从10000开始连续的count个酒店
+     */
+    public static List<Hotel> hotels(int count) {
+        Random random = new Random(SEED);
+        List<Hotel> hotels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int city = random.nextInt(CITIES.length);
+            Hotel hotel = new Hotel();
+            hotel.setId(10000L + i);
+            hotel.setBrand(pick(random, BRANDS));
+            hotel.setCity(CITIES[city]);
+            hotel.setStarName(pick(random, STARS));
+            String business = pick(random, BUSINESSES);
+            if (random.nextBoolean()) {
+                business = business + "、" + pick(random, BUSINESSES);
+            }
+            hotel.setBusiness(business);
+            hotel.setName(hotel.getBrand() + "(" + business.split("、")[0] + "店)");
+            hotel.setAddress(hotel.getCity() + "市" + business.split("、")[0] + (random.nextInt(900) + 1) + "号");
+            hotel.setPrice(100 + random.nextInt(30) * 50 + random.nextInt(50));
+            hotel.setScore(35 + random.nextInt(14));
+            hotel.setLatitude(String.format("%.6f", CITY_CENTERS[city][0] + (random.nextDouble() - 0.5) * 0.3));
+            hotel.setLongitude(String.format("%.6f", CITY_CENTERS[city][1] + (random.nextDouble() - 0.5) * 0.3));
+            hotel.setPic("https://m.tuniucdn.com/fb3/s1/2n9c/" + Long.toHexString(random.nextLong()) + "_w200_h200_c1_t0.jpg");
+            hotels.add(hotel);
+        }
+        return hotels;
+    }
+
+    public static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,60 @@
+package cn.itcast.hotel.guard;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(800);
+
+    @Test
+    void testRejectsAboveLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10, Duration.ofMillis(500), 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void testGrowsOnlyWhenBusy() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 5, Duration.ofMillis(500), 0.5);
+        //只用了上限的四分之一,不增加
+        limiter.tryAcquire();
+        limiter.release(FAST, false);
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire();
+        }
+        limiter.release(FAST, false);
+        assertEquals(5, limiter.getLimit());
+        //不超过maxLimit
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire();
+        }
+        limiter.release(FAST, false);
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    void testBacksOffOnSlowOrFailedRequests() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 3, 10, Duration.ofMillis(500), 0.5);
+        limiter.tryAcquire();
+        limiter.release(SLOW, false);
+        assertEquals(4, limiter.getLimit());
+        limiter.tryAcquire();
+        limiter.release(FAST, true);
+        //不低于minLimit
+        assertEquals(3, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,67 @@
+package cn.itcast.hotel.guard;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    void testOpensWhenFailureRateReachesThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, Duration.ofMinutes(1), 2);
+        breaker.onResult(false);
+        breaker.onResult(false);
+        breaker.onResult(false);
+        //不到minimumCalls不计算失败率
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onResult(true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void testOldResultsLeaveTheWindow() {
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, Duration.ofMinutes(1), 2);
+        breaker.onResult(false);
+        for (int i = 0; i < 10; i++) {
+            breaker.onResult(true);
+        }
+        breaker.onResult(false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onResult(false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void testHalfOpenClosesAfterSuccessfulTrials() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, Duration.ZERO, 2);
+        breaker.onResult(false);
+        breaker.onResult(false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        //只放行halfOpenCalls次试探
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        //取消的试探归还名额
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(true);
+        breaker.onResult(true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void testHalfOpenReopensOnFailure() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, Duration.ZERO, 2);
+        breaker.onResult(false);
+        breaker.onResult(false);
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
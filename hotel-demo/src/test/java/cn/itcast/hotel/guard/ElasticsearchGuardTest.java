@@ -0,0 +1,53 @@
+package cn.itcast.hotel.guard;
+
+import cn.itcast.hotel.config.ElasticsearchProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ElasticsearchGuardTest {
+
+    @Test
+    void testOverloadCountsAsFailure() {
+        assertFalse(ElasticsearchGuard.isFailure(null));
+        assertFalse(ElasticsearchGuard.isFailure(new ElasticsearchStatusException("bad", RestStatus.BAD_REQUEST)));
+        assertTrue(ElasticsearchGuard.isFailure(
+                new ElasticsearchStatusException("es_rejected_execution_exception", RestStatus.TOO_MANY_REQUESTS)));
+        assertTrue(ElasticsearchGuard.isFailure(
+                new ElasticsearchStatusException("unavailable", RestStatus.SERVICE_UNAVAILABLE)));
+        assertTrue(ElasticsearchGuard.isFailure(new IOException("connection reset")));
+    }
+
+    @Test
+    void testTimeoutBacksOffButDisconnectDoesNot() {
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.getLimiter().setInitialLimit(20);
+        properties.getLimiter().setBackoffRatio(0.5);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ElasticsearchGuard guard = new ElasticsearchGuard(properties, registry);
+
+        guard.acquire("search").release(new CancellationException());
+        assertEquals(20, limit(registry));
+
+        guard.acquire("search").release(new SearchTimeoutException("搜索超时"));
+        assertEquals(10, limit(registry));
+
+        guard.acquire("search").release(
+                new ElasticsearchStatusException("es_rejected_execution_exception", RestStatus.TOO_MANY_REQUESTS));
+        assertEquals(5, limit(registry));
+        assertEquals(0, registry.get("hotel.es.inflight").gauge().value());
+    }
+
+    private static double limit(MeterRegistry registry) {
+        return registry.get("hotel.es.limit").gauge().value();
+    }
+}
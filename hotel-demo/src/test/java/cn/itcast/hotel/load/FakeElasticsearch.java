@@ -0,0 +1,517 @@
+package cn.itcast.hotel.load;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.util.StreamUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 压测用的ES替身,基于JDK自带的HttpServer,数据全部在内存中
+ * 只实现应用用到的接口: 列表、聚合、补全查询,bulk写入、mget和健康检查。
+ * 查询条件只识别term和range过滤,关键字查询按match_all处理;
+ * 每个请求先按latency + [0, jitter)毫秒延迟再返回,模拟集群的响应时间
+ */
+public class FakeElasticsearch implements Closeable {
+
+    static final String THREAD_PREFIX = "fake-es-";
+
+    private final Map<Long, JSONObject> docs = new ConcurrentSkipListMap<>();
+
+    private final long latencyMillis;
+
+    private final long jitterMillis;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    public FakeElasticsearch(Collection<Hotel> hotels, long latencyMillis, long jitterMillis) throws IOException {
+        for (Hotel hotel : hotels) {
+            docs.put(hotel.getId(), (JSONObject) JSON.toJSON(new HotelDoc(hotel)));
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, THREAD_PREFIX + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            delay();
+            String path = exchange.getRequestURI().getPath();
+            String body = readBody(exchange);
+            if (path.endsWith("/_search")) {
+                respond(exchange, 200, search(JSON.parseObject(body)));
+            } else if (path.endsWith("/_bulk")) {
+                respond(exchange, 200, bulk(body));
+            } else if (path.endsWith("/_mget")) {
+                respond(exchange, 200, mget(JSON.parseObject(body)));
+            } else if (path.startsWith("/_cluster/health")) {
+                JSONObject health = new JSONObject();
+                health.put("cluster_name", "fake");
+                health.put("status", "green");
+                respond(exchange, 200, health);
+            } else {
+                JSONObject error = new JSONObject();
+                error.put("error", "no handler for " + exchange.getRequestMethod() + " " + path);
+                error.put("status", 400);
+                respond(exchange, 400, error);
+            }
+        } catch (Exception e) {
+            JSONObject error = new JSONObject();
+            error.put("error", String.valueOf(e));
+            error.put("status", 500);
+            respond(exchange, 500, error);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long millis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        //客户端开启了请求压缩
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = JSON.toJSONString(body, SerializerFeature.WriteMapNullValue).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private JSONObject search(JSONObject request) {
+        JSONObject suggest = request.getJSONObject("suggest");
+        if (suggest != null) {
+            return suggest(suggest);
+        }
+        List<JSONObject> matched = filter(docs.values(), request.get("query"));
+        double[] origin = geoOrigin(request.getJSONArray("sort"));
+        if (origin != null) {
+            matched.sort(Comparator.comparingDouble(doc -> distance(origin, doc)));
+        }
+        int from = request.getIntValue("from");
+        int size = request.containsKey("size") ? request.getIntValue("size") : 10;
+        JSONArray hits = new JSONArray();
+        for (int i = from; i < Math.min(from + size, matched.size()); i++) {
+            JSONObject doc = matched.get(i);
+            JSONObject hit = new JSONObject(true);
+            hit.put("_index", "hotel");
+            hit.put("_type", "_doc");
+            hit.put("_id", doc.getString("id"));
+            hit.put("_score", origin == null ? 1.0 : null);
+            hit.put("_source", project(doc, request.getJSONObject("_source")));
+            if (origin != null) {
+                JSONArray sort = new JSONArray();
+                sort.add(distance(origin, doc));
+                hit.put("sort", sort);
+            }
+            hits.add(hit);
+        }
+        JSONObject response = response();
+        JSONObject searchHits = new JSONObject(true);
+        JSONObject total = new JSONObject(true);
+        total.put("value", matched.size());
+        total.put("relation", "eq");
+        searchHits.put("total", total);
+        searchHits.put("max_score", null);
+        searchHits.put("hits", hits);
+        response.put("hits", searchHits);
+        JSONObject aggs = request.getJSONObject("aggregations");
+        if (aggs != null) {
+            response.put("aggregations", aggregate(aggs, matched));
+        }
+        return response;
+    }
+
+    private static List<JSONObject> filter(Collection<JSONObject> candidates, Object query) {
+        List<Predicate<JSONObject>> filters = new ArrayList<>();
+        collectFilters(query, filters);
+        List<JSONObject> matched = new ArrayList<>();
+        for (JSONObject doc : candidates) {
+            if (filters.stream().allMatch(f -> f.test(doc))) {
+                matched.add(doc);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 从查询中收集term、range和geo_distance过滤,function_score里的functions只影响算分,跳过
+     */
+    private static void collectFilters(Object node, List<Predicate<JSONObject>> filters) {
+        if (node instanceof JSONArray) {
+            for (Object child : (JSONArray) node) {
+                collectFilters(child, filters);
+            }
+            return;
+        }
+        if (!(node instanceof JSONObject)) {
+            return;
+        }
+        for (Map.Entry<String, Object> entry : ((JSONObject) node).entrySet()) {
+            if ("functions".equals(entry.getKey())) {
+                continue;
+            }
+            if ("term".equals(entry.getKey())) {
+                for (Map.Entry<String, Object> term : ((JSONObject) entry.getValue()).entrySet()) {
+                    Object value = term.getValue() instanceof JSONObject
+                            ? ((JSONObject) term.getValue()).get("value") : term.getValue();
+                    String field = term.getKey();
+                    filters.add(doc -> String.valueOf(value).equals(doc.getString(field)));
+                }
+            } else if ("range".equals(entry.getKey())) {
+                for (Map.Entry<String, Object> range : ((JSONObject) entry.getValue()).entrySet()) {
+                    JSONObject bounds = (JSONObject) range.getValue();
+                    Double from = bounds.getDouble("from") != null ? bounds.getDouble("from") : bounds.getDouble("gte");
+                    Double to = bounds.getDouble("to") != null ? bounds.getDouble("to") : bounds.getDouble("lte");
+                    String field = range.getKey();
+                    filters.add(doc -> {
+                        Double value = doc.getDouble(field);
+                        return value != null && (from == null || value >= from) && (to == null || value <= to);
+                    });
+                }
+            } else if ("geo_distance".equals(entry.getKey())) {
+                JSONObject geo = (JSONObject) entry.getValue();
+                JSONArray lonLat = geo.getJSONArray("location");
+                double[] origin = {lonLat.getDoubleValue(1), lonLat.getDoubleValue(0)};
+                //GeoDistanceQueryBuilder序列化的distance单位是米
+                double km = geo.getDoubleValue("distance") / 1000;
+                filters.add(doc -> distance(origin, doc) <= km);
+            } else {
+                collectFilters(entry.getValue(), filters);
+            }
+        }
+    }
+
+    private static double[] geoOrigin(JSONArray sort) {
+        if (sort == null) {
+            return null;
+        }
+        for (Object item : sort) {
+            if (!(item instanceof JSONObject) || !((JSONObject) item).containsKey("_geo_distance")) {
+                continue;
+            }
+            Object point = ((JSONObject) item).getJSONObject("_geo_distance").get("location");
+            if (point instanceof JSONArray) {
+                point = ((JSONArray) point).get(0);
+            }
+            if (point instanceof JSONObject) {
+                return new double[]{((JSONObject) point).getDoubleValue("lat"), ((JSONObject) point).getDoubleValue("lon")};
+            }
+            return parsePoint(String.valueOf(point));
+        }
+        return null;
+    }
+
+    private static double[] parsePoint(String latLon) {
+        String[] parts = latLon.split(",");
+        return new double[]{Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim())};
+    }
+
+    /**
+     * 球面距离,单位km
+     */
+    private static double distance(double[] origin, JSONObject doc) {
+        double[] point = parsePoint(doc.getString("location"));
+        double lat1 = Math.toRadians(origin[0]);
+        double lat2 = Math.toRadians(point[0]);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(point[1] - origin[1]);
+        double a = Math.pow(Math.sin(dLat / 2), 2) + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dLon / 2), 2);
+        return 6371.0088 * 2 * Math.asin(Math.sqrt(a));
+    }
+
+    private static JSONObject project(JSONObject doc, JSONObject sourceFilter) {
+        if (sourceFilter == null) {
+            return doc;
+        }
+        JSONArray includes = sourceFilter.getJSONArray("includes");
+        JSONArray excludes = sourceFilter.getJSONArray("excludes");
+        JSONObject source = new JSONObject(true);
+        for (Map.Entry<String, Object> entry : doc.entrySet()) {
+            if ((includes == null || includes.isEmpty() || includes.contains(entry.getKey()))
+                    && (excludes == null || !excludes.contains(entry.getKey()))) {
+                source.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return source;
+    }
+
+    /**
+     * 支持terms聚合(按文档数倒序)以及global、filter两种桶聚合,响应中的名字带typed_keys前缀
+     */
+    private JSONObject aggregate(JSONObject aggs, List<JSONObject> matched) {
+        JSONObject result = new JSONObject(true);
+        for (Map.Entry<String, Object> entry : aggs.entrySet()) {
+            JSONObject agg = (JSONObject) entry.getValue();
+            if (agg.containsKey("global") || agg.containsKey("filter")) {
+                List<JSONObject> bucketDocs = agg.containsKey("global")
+                        ? new ArrayList<>(docs.values()) : filter(matched, agg.get("filter"));
+                JSONObject bucket = new JSONObject(true);
+                bucket.put("doc_count", bucketDocs.size());
+                JSONObject subAggs = agg.getJSONObject("aggregations");
+                if (subAggs != null) {
+                    bucket.putAll(aggregate(subAggs, bucketDocs));
+                }
+                result.put((agg.containsKey("global") ? "global#" : "filter#") + entry.getKey(), bucket);
+                continue;
+            }
+            JSONObject terms = agg.getJSONObject("terms");
+            String field = terms.getString("field");
+            int size = terms.containsKey("size") ? terms.getIntValue("size") : 10;
+            Map<String, Integer> counts = new TreeMap<>();
+            for (JSONObject doc : matched) {
+                String value = doc.getString(field);
+                if (value != null) {
+                    counts.merge(value, 1, Integer::sum);
+                }
+            }
+            JSONArray buckets = new JSONArray();
+            counts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                    .limit(size)
+                    .forEach(count -> {
+                        Map<String, Object> bucket = new LinkedHashMap<>();
+                        bucket.put("key", count.getKey());
+                        bucket.put("doc_count", count.getValue());
+                        buckets.add(bucket);
+                    });
+            JSONObject termsAgg = new JSONObject(true);
+            termsAgg.put("doc_count_error_upper_bound", 0);
+            termsAgg.put("sum_other_doc_count", 0);
+            termsAgg.put("buckets", buckets);
+            result.put("sterms#" + entry.getKey(), termsAgg);
+        }
+        return result;
+    }
+
+    private JSONObject suggest(JSONObject suggest) {
+        JSONObject result = new JSONObject(true);
+        for (Map.Entry<String, Object> entry : suggest.entrySet()) {
+            JSONObject suggestion = (JSONObject) entry.getValue();
+            String prefix = suggestion.getString("prefix");
+            JSONObject completion = suggestion.getJSONObject("completion");
+            int size = completion.containsKey("size") ? completion.getIntValue("size") : 5;
+            String lower = prefix.toLowerCase(Locale.ROOT);
+            TreeSet<String> terms = new TreeSet<>();
+            for (JSONObject doc : docs.values()) {
+                JSONArray inputs = doc.getJSONArray("suggestion");
+                if (inputs == null) {
+                    continue;
+                }
+                for (Object input : inputs) {
+                    if (input != null && input.toString().toLowerCase(Locale.ROOT).startsWith(lower)) {
+                        terms.add(input.toString());
+                    }
+                }
+            }
+            JSONArray options = new JSONArray();
+            for (String term : terms) {
+                if (options.size() >= size) {
+                    break;
+                }
+                JSONObject option = new JSONObject(true);
+                option.put("text", term);
+                option.put("_index", "hotel");
+                option.put("_type", "_doc");
+                option.put("_id", "0");
+                option.put("_score", 1.0);
+                options.add(option);
+            }
+            JSONObject entryResult = new JSONObject(true);
+            entryResult.put("text", prefix);
+            entryResult.put("offset", 0);
+            entryResult.put("length", prefix.length());
+            entryResult.put("options", options);
+            JSONArray entries = new JSONArray();
+            entries.add(entryResult);
+            result.put("completion#" + entry.getKey(), entries);
+        }
+        JSONObject response = response();
+        JSONObject hits = new JSONObject(true);
+        JSONObject total = new JSONObject(true);
+        total.put("value", 0);
+        total.put("relation", "eq");
+        hits.put("total", total);
+        hits.put("max_score", null);
+        hits.put("hits", new JSONArray());
+        response.put("hits", hits);
+        response.put("suggest", result);
+        return response;
+    }
+
+    /**
+     * NDJSON格式,index和update后面跟一行文档,delete没有
+     */
+    private JSONObject bulk(String body) {
+        JSONArray items = new JSONArray();
+        String[] lines = body.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].trim().isEmpty()) {
+                continue;
+            }
+            JSONObject action = JSON.parseObject(lines[i]);
+            String op = action.keySet().iterator().next();
+            JSONObject meta = action.getJSONObject(op);
+            Long id = Long.valueOf(meta.getString("_id"));
+            int status;
+            String result;
+            if ("delete".equals(op)) {
+                boolean found = docs.remove(id) != null;
+                status = found ? 200 : 404;
+                result = found ? "deleted" : "not_found";
+            } else if ("update".equals(op)) {
+                JSONObject partial = JSON.parseObject(lines[++i]).getJSONObject("doc");
+                JSONObject doc = docs.get(id);
+                if (doc == null) {
+                    items.add(itemError(op, id));
+                    continue;
+                }
+                JSONObject updated = new JSONObject(true);
+                updated.putAll(doc);
+                updated.putAll(partial);
+                docs.put(id, updated);
+                status = 200;
+                result = "updated";
+            } else {
+                boolean existed = docs.put(id, JSON.parseObject(lines[++i])) != null;
+                status = existed ? 200 : 201;
+                result = existed ? "updated" : "created";
+            }
+            JSONObject item = itemMeta(id);
+            item.put("_version", 1);
+            item.put("result", result);
+            JSONObject shards = new JSONObject(true);
+            shards.put("total", 1);
+            shards.put("successful", 1);
+            shards.put("failed", 0);
+            item.put("_shards", shards);
+            item.put("_seq_no", 0);
+            item.put("_primary_term", 1);
+            item.put("status", status);
+            JSONObject wrapper = new JSONObject(true);
+            wrapper.put(op, item);
+            items.add(wrapper);
+        }
+        JSONObject response = new JSONObject(true);
+        response.put("took", 1);
+        response.put("errors", items.stream().anyMatch(item -> ((JSONObject) item).values().stream()
+                .anyMatch(v -> ((JSONObject) v).containsKey("error"))));
+        response.put("items", items);
+        return response;
+    }
+
+    private JSONObject mget(JSONObject request) {
+        JSONArray result = new JSONArray();
+        for (Object item : request.getJSONArray("docs")) {
+            JSONObject spec = (JSONObject) item;
+            Long id = Long.valueOf(spec.getString("_id"));
+            JSONObject doc = docs.get(id);
+            JSONObject found = itemMeta(id);
+            found.put("found", doc != null);
+            if (doc != null) {
+                found.put("_version", 1);
+                found.put("_seq_no", 0);
+                found.put("_primary_term", 1);
+                found.put("_source", project(doc, spec.getJSONObject("_source")));
+            }
+            result.add(found);
+        }
+        JSONObject response = new JSONObject(true);
+        response.put("docs", result);
+        return response;
+    }
+
+    private static JSONObject itemMeta(Long id) {
+        JSONObject item = new JSONObject(true);
+        item.put("_index", "hotel");
+        item.put("_type", "_doc");
+        item.put("_id", String.valueOf(id));
+        return item;
+    }
+
+    private static JSONObject itemError(String op, Long id) {
+        JSONObject item = itemMeta(id);
+        JSONObject error = new JSONObject(true);
+        error.put("type", "document_missing_exception");
+        error.put("reason", "[_doc][" + id + "]: document missing");
+        item.put("error", error);
+        item.put("status", 404);
+        JSONObject wrapper = new JSONObject(true);
+        wrapper.put(op, item);
+        return wrapper;
+    }
+
+    private static JSONObject response() {
+        JSONObject response = new JSONObject(true);
+        response.put("took", 1);
+        response.put("timed_out", false);
+        JSONObject shards = new JSONObject(true);
+        shards.put("total", 1);
+        shards.put("successful", 1);
+        shards.put("skipped", 0);
+        shards.put("failed", 0);
+        response.put("_shards", shards);
+        return response;
+    }
+}
@@ -0,0 +1,348 @@
+package cn.itcast.hotel.load;
+
+import cn.itcast.hotel.fixture.HotelFixture;
+import cn.itcast.hotel.pojo.Hotel;
+import com.alibaba.fastjson.JSONObject;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按配置的比例并发回放搜索、过滤项、补全和MQ同步流量,统计每个接口的延迟、吞吐量和服务端分配速率
+ * 先逐个接口单独压测,再按比例混合压测;分配速率统计的是应用自身线程(不含压测线程和ES替身线程)
+ */
+public class LoadGenerator {
+
+    static final String THREAD_PREFIX = "load-";
+
+    public enum Endpoint {
+        LIST, FILTERS, SUGGESTION, SYNC
+    }
+
+    /**
+     * 一次同步一批酒店变更,由调用方直接驱动MQ监听器
+     */
+    public interface SyncDriver {
+        void sync(List<Long> upserts, List<Long> deletes);
+    }
+
+    /**
+     * 压测参数,都可以用-Dload.xxx覆盖
+     */
+    public static class Settings {
+        int hotels = Integer.getInteger("load.hotels", 2000);
+        int concurrency = Integer.getInteger("load.concurrency", 32);
+        int warmupSeconds = Integer.getInteger("load.warmup", 5);
+        int phaseSeconds = Integer.getInteger("load.phase", 10);
+        int mixSeconds = Integer.getInteger("load.duration", 20);
+        int syncBatchSize = Integer.getInteger("load.sync-batch", 50);
+        long esLatencyMillis = Long.getLong("load.es.latency", 5);
+        long esJitterMillis = Long.getLong("load.es.jitter", 5);
+        Map<Endpoint, Integer> mix = parseMix(System.getProperty("load.mix", "list=60,filters=20,suggestion=15,sync=5"));
+
+        static Map<Endpoint, Integer> parseMix(String mix) {
+            Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+            for (String part : mix.split(",")) {
+                String[] kv = part.split("=");
+                int weight = Integer.parseInt(kv[1].trim());
+                if (weight > 0) {
+                    weights.put(Endpoint.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), weight);
+                }
+            }
+            return weights;
+        }
+    }
+
+    public static class Report {
+        final String phase;
+        final long elapsedNanos;
+        final long allocatedBytes;
+        final Map<Endpoint, Samples> samples;
+
+        Report(String phase, long elapsedNanos, long allocatedBytes, Map<Endpoint, Samples> samples) {
+            this.phase = phase;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.samples = samples;
+        }
+
+        public long errors() {
+            return samples.values().stream().mapToLong(s -> s.errors).sum();
+        }
+
+        public long requests() {
+            return samples.values().stream().mapToLong(s -> s.count).sum();
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder out = new StringBuilder();
+            for (Map.Entry<Endpoint, Samples> entry : samples.entrySet()) {
+                Samples s = entry.getValue();
+                out.append(String.format("%-10s %-11s %9d %7d %10.1f %9.2f %9.2f%n", phase, entry.getKey(),
+                        s.count, s.errors, s.count / seconds, s.percentile(50) / 1e6, s.percentile(99) / 1e6));
+            }
+            long requests = requests();
+            out.append(String.format("%-10s %-11s %9d %7d %10.1f   alloc %.1f MB/s, %.1f KB/req%n", phase, "TOTAL",
+                    requests, errors(), requests / seconds, allocatedBytes / seconds / (1 << 20),
+                    requests == 0 ? 0 : allocatedBytes / 1024.0 / requests));
+            return out.toString();
+        }
+
+        static String header() {
+            return String.format("%-10s %-11s %9s %7s %10s %9s %9s%n", "phase", "endpoint", "requests", "errors",
+                    "req/s", "p50(ms)", "p99(ms)");
+        }
+    }
+
+    /**
+     * 每个线程单独记录,结束后合并,记录时没有竞争
+     */
+    static class Samples {
+        long[] latencies = new long[1024];
+        int count;
+        long errors;
+
+        void record(long nanos, boolean ok) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        void merge(Samples other) {
+            if (count + other.count > latencies.length) {
+                latencies = Arrays.copyOf(latencies, count + other.count);
+            }
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        }
+
+        long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+
+    private final String baseUrl;
+
+    private final Settings settings;
+
+    private final List<Hotel> hotels;
+
+    private final SyncDriver syncDriver;
+
+    /**
+     * 与MQ监听容器一样只有一个消费线程,同步批次串行执行
+     */
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "hotel-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public LoadGenerator(String baseUrl, Settings settings, List<Hotel> hotels, SyncDriver syncDriver) {
+        this.baseUrl = baseUrl;
+        this.settings = settings;
+        this.hotels = hotels;
+        this.syncDriver = syncDriver;
+        //HttpURLConnection默认每个地址只保留5个keep-alive连接
+        System.setProperty("http.maxConnections", String.valueOf(settings.concurrency));
+    }
+
+    public List<Report> run() throws Exception {
+        runPhase("warmup", settings.mix, settings.warmupSeconds);
+        List<Report> reports = new ArrayList<>();
+        for (Endpoint endpoint : settings.mix.keySet()) {
+            Map<Endpoint, Integer> single = new EnumMap<>(Endpoint.class);
+            single.put(endpoint, 1);
+            reports.add(runPhase(endpoint.name().toLowerCase(Locale.ROOT), single, settings.phaseSeconds));
+        }
+        reports.add(runPhase("mix", settings.mix, settings.mixSeconds));
+        syncExecutor.shutdown();
+        return reports;
+    }
+
+    private Report runPhase(String name, Map<Endpoint, Integer> mix, int seconds) throws Exception {
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(settings.concurrency,
+                r -> new Thread(r, THREAD_PREFIX + name + "-" + threads.incrementAndGet()));
+        Endpoint[] wheel = wheel(mix);
+        long allocatedBefore = serverAllocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Map<Endpoint, Samples>>> futures = new ArrayList<>();
+        for (int i = 0; i < settings.concurrency; i++) {
+            futures.add(workers.submit(() -> {
+                Map<Endpoint, Samples> samples = new EnumMap<>(Endpoint.class);
+                while (System.nanoTime() < deadline) {
+                    Endpoint endpoint = wheel[ThreadLocalRandom.current().nextInt(wheel.length)];
+                    long t0 = System.nanoTime();
+                    boolean ok = call(endpoint);
+                    samples.computeIfAbsent(endpoint, e -> new Samples()).record(System.nanoTime() - t0, ok);
+                }
+                return samples;
+            }));
+        }
+        Map<Endpoint, Samples> merged = new EnumMap<>(Endpoint.class);
+        for (Future<Map<Endpoint, Samples>> future : futures) {
+            for (Map.Entry<Endpoint, Samples> entry : future.get().entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), e -> new Samples()).merge(entry.getValue());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        workers.shutdown();
+        return new Report(name, elapsed, serverAllocatedBytes() - allocatedBefore, merged);
+    }
+
+    private static Endpoint[] wheel(Map<Endpoint, Integer> mix) {
+        List<Endpoint> wheel = new ArrayList<>();
+        mix.forEach((endpoint, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                wheel.add(endpoint);
+            }
+        });
+        return wheel.toArray(new Endpoint[0]);
+    }
+
+    private boolean call(Endpoint endpoint) {
+        try {
+            switch (endpoint) {
+                case LIST:
+                    return post("/hotel/list", randomParams());
+                case FILTERS:
+                    return post("/hotel/filters", randomParams());
+                case SUGGESTION:
+                    return get("/hotel/suggestion?key=" + URLEncoder.encode(randomPrefix(), "UTF-8"));
+                default:
+                    syncExecutor.submit(this::sync).get();
+                    return true;
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private Map<String, Object> randomParams() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Hotel hotel = hotels.get(random.nextInt(hotels.size()));
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("page", 1 + random.nextInt(3));
+        params.put("size", 5);
+        if (random.nextInt(4) > 0) {
+            params.put("key", random.nextBoolean() ? hotel.getBrand() : hotel.getBusiness().split("、")[0]);
+        }
+        if (random.nextBoolean()) {
+            params.put("city", hotel.getCity());
+        }
+        if (random.nextInt(3) == 0) {
+            params.put("starName", hotel.getStarName());
+        }
+        if (random.nextInt(4) == 0) {
+            params.put("location", hotel.getLatitude() + ", " + hotel.getLongitude());
+        }
+        return params;
+    }
+
+    private String randomPrefix() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String[] terms = random.nextBoolean() ? HotelFixture.BRANDS : HotelFixture.BUSINESSES;
+        String term = terms[random.nextInt(terms.length)];
+        return term.substring(0, Math.min(term.length(), 1 + random.nextInt(2)));
+    }
+
+    private void sync() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Long> upserts = new ArrayList<>();
+        List<Long> deletes = new ArrayList<>();
+        for (int i = 0; i < settings.syncBatchSize; i++) {
+            Long id = hotels.get(random.nextInt(hotels.size())).getId();
+            //删除只占少数,被删的酒店之后会随修改重新写入
+            if (random.nextInt(10) == 0) {
+                deletes.add(id);
+            } else {
+                upserts.add(id);
+            }
+        }
+        syncDriver.sync(upserts, deletes);
+    }
+
+    private boolean post(String path, Map<String, Object> body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(new JSONObject(body).toJSONString().getBytes(StandardCharsets.UTF_8));
+        }
+        return readResponse(connection);
+    }
+
+    private boolean get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        return readResponse(connection);
+    }
+
+    /**
+     * 读完响应体才能复用连接
+     */
+    private static boolean readResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try (InputStream body = in) {
+                StreamUtils.drain(body);
+            }
+        }
+        return status == 200;
+    }
+
+    /**
+     * 应用线程累计分配的字节数,不含压测线程和ES替身线程;期间结束的线程会被漏计
+     */
+    private static long serverAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            String name = entry.getKey().getName();
+            if (name.startsWith(THREAD_PREFIX) || name.startsWith(FakeElasticsearch.THREAD_PREFIX)) {
+                continue;
+            }
+            long bytes = threadMXBean.getThreadAllocatedBytes(entry.getKey().getId());
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
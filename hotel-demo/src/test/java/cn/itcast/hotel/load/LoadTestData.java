@@ -0,0 +1,33 @@
+package cn.itcast.hotel.load;
+
+import cn.itcast.hotel.pojo.Hotel;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压测数据: 把HotelFixture生成的酒店写入内存数据库,ES替身使用同一份数据
+ */
+final class LoadTestData {
+
+    private LoadTestData() {
+    }
+
+    /**
+     * 在内存数据库中建表并写入数据
+     */
+    static void seed(JdbcTemplate jdbcTemplate, List<Hotel> hotels) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS tb_hotel (" +
+                "id BIGINT PRIMARY KEY, name VARCHAR(255), address VARCHAR(255), price INT, score INT, " +
+                "brand VARCHAR(32), city VARCHAR(32), star_name VARCHAR(16), business VARCHAR(255), " +
+                "longitude VARCHAR(32), latitude VARCHAR(32), pic VARCHAR(255))");
+        List<Object[]> rows = new ArrayList<>(hotels.size());
+        for (Hotel h : hotels) {
+            rows.add(new Object[]{h.getId(), h.getName(), h.getAddress(), h.getPrice(), h.getScore(), h.getBrand(),
+                    h.getCity(), h.getStarName(), h.getBusiness(), h.getLongitude(), h.getLatitude(), h.getPic()});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO tb_hotel (id, name, address, price, score, brand, city, star_name, " +
+                "business, longitude, latitude, pic) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+    }
+}
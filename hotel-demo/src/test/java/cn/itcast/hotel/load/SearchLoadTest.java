@@ -0,0 +1,119 @@
+package cn.itcast.hotel.load;
+
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.fixture.HotelFixture;
+import cn.itcast.hotel.mq.HotelListener;
+import cn.itcast.hotel.pojo.Hotel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 搜索接口的端到端压测,不依赖远程ES、MySQL和RabbitMQ:
+ * ES由FakeElasticsearch替代,tb_hotel放在H2内存库,MQ同步直接驱动HotelListener。
+ * 默认不执行,用 mvn test -Pload-test 运行,参数见LoadGenerator.Settings,例如
+ * mvn test -Pload-test -Dload.concurrency=64 -Dload.es.latency=20 -Dload.mix=list=80,suggestion=20
+ */
+@Slf4j
+@Tag("load")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class SearchLoadTest {
+
+    private static final LoadGenerator.Settings SETTINGS = new LoadGenerator.Settings();
+
+    private static final List<Hotel> HOTELS = HotelFixture.hotels(SETTINGS.hotels);
+
+    private static FakeElasticsearch elasticsearch;
+
+    @DynamicPropertySource
+    static void elasticsearch(DynamicPropertyRegistry registry) throws IOException {
+        if (elasticsearch == null) {
+            elasticsearch = new FakeElasticsearch(HOTELS, SETTINGS.esLatencyMillis, SETTINGS.esJitterMillis);
+        }
+        registry.add("hotel.elasticsearch.hosts", elasticsearch::url);
+    }
+
+    @AfterAll
+    static void stopElasticsearch() {
+        if (elasticsearch != null) {
+            elasticsearch.close();
+        }
+    }
+
+    @TestConfiguration
+    static class DataConfig {
+        /**
+         * 在应用就绪(构建补全索引)之前写入tb_hotel
+         */
+        @Bean
+        InitializingBean hotelTable(JdbcTemplate jdbcTemplate) {
+            return () -> LoadTestData.seed(jdbcTemplate, HOTELS);
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private HotelListener hotelListener;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Test
+    void searchLoad() throws Exception {
+        LoadGenerator generator = new LoadGenerator("http://127.0.0.1:" + port, SETTINGS, HOTELS, this::sync);
+        List<LoadGenerator.Report> reports = generator.run();
+        StringBuilder out = new StringBuilder(String.format("%n压测结果: 并发%d, ES延迟%d+%dms, %d个酒店%n",
+                SETTINGS.concurrency, SETTINGS.esLatencyMillis, SETTINGS.esJitterMillis, SETTINGS.hotels));
+        out.append(LoadGenerator.Report.header());
+        reports.forEach(out::append);
+        log.info(out.toString());
+        for (LoadGenerator.Report report : reports) {
+            assertTrue(report.requests() > 0, report.phase + "阶段没有完成任何请求");
+            assertEquals(0, report.errors(), report.phase + "阶段有失败的请求");
+        }
+    }
+
+    /**
+     * 与消费者收到的消息相同: 消息体是酒店id,队列决定新增还是删除
+     */
+    private void sync(List<Long> upserts, List<Long> deletes) {
+        List<Message> messages = new ArrayList<>(upserts.size() + deletes.size());
+        for (Long id : upserts) {
+            messages.add(message(id, MqConstants.HOTEL_INSERT_QUEUE));
+        }
+        for (Long id : deletes) {
+            messages.add(message(id, MqConstants.HOTEL_DELETE_QUEUE));
+        }
+        hotelListener.listenHotelChanges(messages);
+    }
+
+    private Message message(Long id, String queue) {
+        MessageProperties properties = new MessageProperties();
+        properties.setConsumerQueue(queue);
+        return rabbitTemplate.getMessageConverter().toMessage(id, properties);
+    }
+}
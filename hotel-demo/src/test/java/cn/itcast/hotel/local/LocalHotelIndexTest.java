@@ -0,0 +1,153 @@
+package cn.itcast.hotel.local;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalHotelIndexTest {
+
+    private LocalHotelIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new LocalHotelIndex();
+        index.upsert(hotel(1L, "Hilton Shanghai", "上海", "希尔顿", "五钻", 1200, "31.20", "121.50"));
+        index.upsert(hotel(2L, "Hilton Beijing", "北京", "希尔顿", "五钻", 1100, "39.90", "116.40"));
+        index.upsert(hotel(3L, "Home Inn Shanghai", "上海", "如家", "二钻", 200, "31.30", "121.40"));
+        index.upsert(hotel(4L, "Home Inn Pudong", "上海", "如家", "二钻", 180, "31.21", "121.51"));
+        index.refresh();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    void testFiltersAndPaging() {
+        RequestParams params = params();
+        params.setCity("上海");
+        params.setMaxPrice(500);
+        PageResult result = index.search(params, null, null);
+        assertEquals(2L, result.getTotal());
+        assertEquals(Arrays.asList(3L, 4L), ids(result).stream().sorted().collect(Collectors.toList()));
+
+        params = params();
+        params.setSize(3);
+        params.setPage(2);
+        result = index.search(params, null, null);
+        assertEquals(4L, result.getTotal());
+        assertEquals(1, result.getHotels().size());
+    }
+
+    @Test
+    void testKeywordSearchAndDistanceSort() {
+        RequestParams params = params();
+        params.setKey("hilton");
+        assertEquals(2L, index.search(params, null, null).getTotal());
+
+        params = params();
+        params.setLocation("31.20, 121.50");
+        PageResult result = index.search(params, null, Arrays.asList("id", "name"));
+        assertEquals(Arrays.asList(1L, 4L, 3L, 2L), ids(result));
+        HotelDoc nearest = result.getHotels().get(0);
+        assertTrue((Double) nearest.getDistance() < 0.01);
+        //只返回指定的字段
+        assertNull(nearest.getCity());
+    }
+
+    @Test
+    void testFacetsOrderedByCount() {
+        Map<String, List<String>> filters = index.filters(params());
+        assertEquals(Arrays.asList("上海", "北京"), filters.get("city"));
+        //数量相同时按字典序
+        assertEquals(Arrays.asList("二钻", "五钻"), filters.get("starName"));
+
+        RequestParams params = params();
+        params.setCity("北京");
+        Map<String, List<String>> withPage = new HashMap<>();
+        index.search(params, withPage, null);
+        assertEquals(Collections.singletonList("希尔顿"), withPage.get("brand"));
+    }
+
+    @Test
+    void testPartialUpdateAndRemove() {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("price", 2000);
+        assertTrue(index.update(3L, changes));
+        index.remove(4L);
+        assertFalse(index.update(99L, changes));
+        index.refresh();
+
+        RequestParams params = params();
+        params.setCity("上海");
+        params.setMinPrice(1500);
+        params.setMaxPrice(3000);
+        PageResult result = index.search(params, null, null);
+        assertEquals(Collections.singletonList(3L), ids(result));
+        assertEquals("Home Inn Shanghai", result.getHotels().get(0).getName());
+        assertEquals(3L, index.search(params(), null, null).getTotal());
+    }
+
+    @Test
+    void testAdFlagFromEsSurvivesUpsert() {
+        JSONObject source = index.source(2L);
+        source.put("isAD", "true");
+        index.put(source);
+        //MySQL中没有isAD,再次写入后保留原值
+        index.upsert(hotel(2L, "Hilton Beijing", "北京", "希尔顿", "五钻", 1000, "39.90", "116.40"));
+        index.refresh();
+
+        RequestParams params = params();
+        params.setKey("hilton");
+        PageResult result = index.search(params, null, null);
+        assertEquals(Arrays.asList(2L, 1L), ids(result));
+        assertEquals("true", result.getHotels().get(0).getIsAD());
+        assertEquals(1000, result.getHotels().get(0).getPrice());
+    }
+
+    private static List<Long> ids(PageResult result) {
+        return result.getHotels().stream().map(HotelDoc::getId).collect(Collectors.toList());
+    }
+
+    private static RequestParams params() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(10);
+        return params;
+    }
+
+    private static Hotel hotel(Long id, String name, String city, String brand, String starName, int price,
+                               String latitude, String longitude) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName(name);
+        hotel.setCity(city);
+        hotel.setBrand(brand);
+        hotel.setStarName(starName);
+        hotel.setPrice(price);
+        hotel.setScore(45);
+        hotel.setBusiness("商圈");
+        hotel.setLatitude(latitude);
+        hotel.setLongitude(longitude);
+        return hotel;
+    }
+}
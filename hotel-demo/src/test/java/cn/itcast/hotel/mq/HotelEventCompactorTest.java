@@ -0,0 +1,96 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HotelEventCompactorTest {
+
+    @Test
+    void testKeepsLatestOperationPerHotel() {
+        List<HotelSyncEvent> events = HotelEventCompactor.compact(Arrays.asList(
+                event(HotelSyncEvent.Type.UPSERT, 1L, 100L),
+                event(HotelSyncEvent.Type.UPSERT, 2L, 110L),
+                event(HotelSyncEvent.Type.UPSERT, 1L, 120L),
+                event(HotelSyncEvent.Type.DELETE, 2L, 130L),
+                event(HotelSyncEvent.Type.UPSERT, 3L, null),
+                event(HotelSyncEvent.Type.UPSERT, 1L, 140L)));
+        assertEquals(3, events.size());
+        //按最后一次变更的顺序排列
+        assertEquals(2L, events.get(0).getId());
+        assertEquals(HotelSyncEvent.Type.DELETE, events.get(0).getType());
+        assertEquals(110L, events.get(0).getPublishedAt());
+        assertEquals(3L, events.get(1).getId());
+        assertEquals(1L, events.get(2).getId());
+        assertEquals(HotelSyncEvent.Type.UPSERT, events.get(2).getType());
+        assertEquals(100L, events.get(2).getPublishedAt());
+    }
+
+    @Test
+    void testDeleteThenInsertKeepsInsert() {
+        List<HotelSyncEvent> events = HotelEventCompactor.compact(Arrays.asList(
+                event(HotelSyncEvent.Type.DELETE, 1L, 100L),
+                event(HotelSyncEvent.Type.UPSERT, 1L, null)));
+        assertEquals(1, events.size());
+        assertEquals(HotelSyncEvent.Type.UPSERT, events.get(0).getType());
+        assertEquals(100L, events.get(0).getPublishedAt());
+    }
+
+    @Test
+    void testPartialUpdates() {
+        List<HotelSyncEvent> events = HotelEventCompactor.compact(Arrays.asList(
+                partial(1L, "price", 300),
+                partial(1L, "score", 45),
+                partial(1L, "price", 280),
+                event(HotelSyncEvent.Type.UPSERT, 2L, null),
+                partial(2L, "price", 100)));
+        assertEquals(2, events.size());
+        assertEquals(HotelSyncEvent.Type.PARTIAL, events.get(0).getType());
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("price", 280);
+        changes.put("score", 45);
+        assertEquals(changes, events.get(0).getChanges());
+        //局部更新跟在完整重建后面,仍然完整重建
+        assertEquals(HotelSyncEvent.Type.UPSERT, events.get(1).getType());
+        assertNull(events.get(1).getChanges());
+    }
+
+    @Test
+    void testHigherVersionWinsOverArrivalOrder() {
+        //重试的删除比后面的新增晚到
+        List<HotelSyncEvent> events = HotelEventCompactor.compact(Arrays.asList(
+                versioned(HotelSyncEvent.Type.UPSERT, 1L, 7),
+                versioned(HotelSyncEvent.Type.DELETE, 1L, 5)));
+        assertEquals(HotelSyncEvent.Type.UPSERT, events.get(0).getType());
+        assertEquals(7L, events.get(0).getVersion());
+
+        //晚到的完整重建和较新的局部更新合并,按较新的版本完整重建
+        HotelSyncEvent partial = versioned(HotelSyncEvent.Type.PARTIAL, 2L, 9);
+        partial.setChanges(Collections.singletonMap("price", 300));
+        events = HotelEventCompactor.compact(Arrays.asList(partial, versioned(HotelSyncEvent.Type.UPSERT, 2L, 8)));
+        assertEquals(HotelSyncEvent.Type.UPSERT, events.get(0).getType());
+        assertEquals(9L, events.get(0).getVersion());
+        assertNull(events.get(0).getChanges());
+    }
+
+    private static HotelSyncEvent partial(Long id, String field, Object value) {
+        return new HotelSyncEvent(HotelSyncEvent.Type.PARTIAL, id, 0, null, null,
+                Collections.singletonMap(field, value));
+    }
+
+    private static HotelSyncEvent event(HotelSyncEvent.Type type, Long id, Long publishedAt) {
+        return new HotelSyncEvent(type, id, 0, publishedAt, null, null);
+    }
+
+    private static HotelSyncEvent versioned(HotelSyncEvent.Type type, Long id, long version) {
+        return new HotelSyncEvent(type, id, 0, null, version, null);
+    }
+}
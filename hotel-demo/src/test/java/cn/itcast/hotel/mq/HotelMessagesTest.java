@@ -0,0 +1,48 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.pojo.HotelSyncEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HotelMessagesTest {
+
+    private final SimpleMessageConverter converter = new SimpleMessageConverter();
+
+    @Test
+    void testIdMessageTypedByRoutingKey() {
+        MessageProperties properties = new MessageProperties();
+        properties.setReceivedRoutingKey(MqConstants.HOTEL_DELETE_KEY);
+        properties.setHeader(MqConstants.VERSION_HEADER, 42L);
+        List<HotelSyncEvent> events = HotelMessages.toEvents(converter.toMessage(36934L, properties), converter);
+        assertEquals(1, events.size());
+        assertEquals(HotelSyncEvent.Type.DELETE, events.get(0).getType());
+        assertEquals(36934L, events.get(0).getId());
+        assertEquals(42L, events.get(0).getVersion());
+    }
+
+    @Test
+    void testUnparsableMessagesAreRejected() {
+        MessageProperties properties = new MessageProperties();
+        properties.setReceivedRoutingKey(MqConstants.HOTEL_INSERT_KEY);
+        //重新投递也不会成功的消息,由监听器投递到死信交换机
+        Message notAnId = converter.toMessage("36934", properties);
+        assertThrows(IllegalArgumentException.class, () -> HotelMessages.toEvents(notAnId, converter));
+
+        MessageProperties json = new MessageProperties();
+        json.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        json.setReceivedRoutingKey(MqConstants.HOTEL_INSERT_KEY);
+        Message brokenJson = new Message("{\"id\":".getBytes(StandardCharsets.UTF_8), json);
+        assertThrows(RuntimeException.class, () -> HotelMessages.toEvents(brokenJson, converter));
+        Message withoutId = new Message("{\"changes\":{}}".getBytes(StandardCharsets.UTF_8), json);
+        assertThrows(IllegalArgumentException.class, () -> HotelMessages.toEvents(withoutId, converter));
+    }
+}
@@ -0,0 +1,80 @@
+package cn.itcast.hotel.reconcile;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDigest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class DigestMergeJoinTest {
+
+    @Test
+    void testReportsEveryKindOfDrift() {
+        List<HotelDigest> database = Arrays.asList(
+                digest(1, "a", 100), digest(2, "b", 200), digest(4, "d", 400), digest(5, "e", 500), digest(7, "g", 700));
+        List<HotelDigest> index = Arrays.asList(
+                digest(2, "b", 200), digest(3, "c", 300), digest(4, "d", 410), digest(5, "x", 500), digest(8, "h", 800));
+        List<String> drifts = new ArrayList<>();
+        long matched = DigestMergeJoin.join(database.iterator(), index.iterator(),
+                (drift, id, indexed) -> drifts.add(drift + ":" + id));
+        assertEquals(3, matched);
+        assertEquals(Arrays.asList("MISSING:1", "ORPHAN:3", "STALE:4", "STALE:5", "MISSING:7", "ORPHAN:8"), drifts);
+    }
+
+    @Test
+    void testOneSideEmpty() {
+        List<String> drifts = new ArrayList<>();
+        DigestMergeJoin.join(Collections.<HotelDigest>emptyIterator(),
+                Arrays.asList(digest(1, "a", 100), digest(2, "b", 200)).iterator(),
+                (drift, id, indexed) -> drifts.add(drift + ":" + id));
+        assertEquals(Arrays.asList("ORPHAN:1", "ORPHAN:2"), drifts);
+    }
+
+    @Test
+    void testPassesIndexedDigestWithSeqNo() {
+        HotelDigest indexed = digest(2, "x", 200);
+        indexed.setSeqNo(17L);
+        indexed.setPrimaryTerm(1L);
+        //_seq_no不参与比较
+        HotelDigest same = digest(1, "a", 100);
+        same.setSeqNo(3L);
+        List<HotelDigest> seen = new ArrayList<>();
+        DigestMergeJoin.join(Arrays.asList(digest(1, "a", 100), digest(2, "b", 200), digest(3, "c", 300)).iterator(),
+                Arrays.asList(same, indexed).iterator(),
+                (drift, id, digest) -> seen.add(digest));
+        assertEquals(2, seen.size());
+        assertSame(indexed, seen.get(0));
+        assertEquals(17L, seen.get(0).getSeqNo());
+        //MISSING时索引中没有文档
+        assertNull(seen.get(1));
+    }
+
+    @Test
+    void testContentHashIgnoresPartialUpdateFields() {
+        Hotel hotel = new Hotel();
+        hotel.setId(1L);
+        hotel.setName("如家");
+        hotel.setBusiness("");
+        hotel.setPrice(100);
+        String hash = hotel.contentHash();
+        assertEquals(16, hash.length());
+        hotel.setPrice(200);
+        hotel.setScore(45);
+        assertEquals(hash, hotel.contentHash());
+        //null和空字符串不同
+        hotel.setBusiness(null);
+        assertNotEquals(hash, hotel.contentHash());
+    }
+
+    private static HotelDigest digest(long id, String hash, int price) {
+        return new HotelDigest(id, hash, price, 45, "三钻");
+    }
+}
@@ -0,0 +1,71 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.cache.SearchKeys;
+import cn.itcast.hotel.pojo.RequestParams;
+import org.elasticsearch.action.search.SearchRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CanonicalParamsTest {
+
+    @Test
+    void testEquivalentParamsBuildIdenticalRequests() {
+        RequestParams a = params(" 如家  酒店 ", "上海", "", null, 300);
+        a.setLocation("31.21, 121.5");
+        RequestParams b = params("如家 酒店", " 上海 ", null, 0, 300);
+        b.setLocation(" 31.21,121.5");
+        RequestParams canonicalA = CanonicalParams.of(a);
+        RequestParams canonicalB = CanonicalParams.of(b);
+
+        assertEquals(SearchKeys.search(canonicalA), SearchKeys.search(canonicalB));
+        assertEquals(dsl(canonicalA), dsl(canonicalB));
+        assertNull(canonicalA.getBrand());
+        assertEquals("31.21,121.5", canonicalA.getLocation());
+    }
+
+    @Test
+    void testKeywordLowercasedButKeywordFieldsKeepCase() {
+        RequestParams canonical = CanonicalParams.of(params("Hilton", "上海", "Hilton", null, null));
+        assertEquals("hilton", canonical.getKey());
+        assertEquals("Hilton", canonical.getBrand());
+    }
+
+    @Test
+    void testMinPriceWithoutMaxPriceIsDropped() {
+        RequestParams canonical = CanonicalParams.of(params(null, null, null, 100, null));
+        assertNull(canonical.getMinPrice());
+        assertEquals(SearchKeys.filters(CanonicalParams.of(params(null, null, null, null, null))),
+                SearchKeys.filters(canonical));
+    }
+
+    @Test
+    void testPriceBucketRoundsOutwards() {
+        RequestParams canonical = CanonicalParams.of(params(null, null, null, 150, 320), 100);
+        assertEquals(100, canonical.getMinPrice());
+        assertEquals(400, canonical.getMaxPrice());
+        canonical = CanonicalParams.of(params(null, null, null, 100, 300), 100);
+        assertEquals(100, canonical.getMinPrice());
+        assertEquals(300, canonical.getMaxPrice());
+    }
+
+    private static String dsl(RequestParams params) {
+        SearchRequest request = new SearchRequest("hotel");
+        HotelQueryBuilder.buildBasicQuery(params, request);
+        HotelQueryBuilder.buildGeoSort(params, request);
+        return request.source().toString();
+    }
+
+    private static RequestParams params(String key, String city, String brand, Integer minPrice, Integer maxPrice) {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setKey(key);
+        params.setCity(city);
+        params.setBrand(brand);
+        params.setMinPrice(minPrice);
+        params.setMaxPrice(maxPrice);
+        return params;
+    }
+}
@@ -0,0 +1,45 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.pojo.HotelDoc;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.SearchHit;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HotelDocDecoderTest {
+
+    @Test
+    void testDecodeFullSource() {
+        SearchHit hit = hit("{\"id\":36934,\"name\":\"7天连锁酒店\",\"address\":\"静安交通路40号\",\"price\":336," +
+                "\"score\":37,\"brand\":\"7天酒店\",\"city\":\"上海\",\"starName\":\"二钻\",\"business\":\"四川北路商业区\"," +
+                "\"location\":\"31.251433, 121.47522\",\"pic\":\"https://m.tuniucdn.com/a.jpg\",\"isAD\":true," +
+                "\"suggestion\":[\"7天酒店\",\"四川北路商业区\"],\"unknown\":{\"a\":[1,2]}}");
+        HotelDoc doc = HotelDocDecoder.decode(hit);
+        assertEquals(36934L, doc.getId());
+        assertEquals("7天连锁酒店", doc.getName());
+        assertEquals(336, doc.getPrice());
+        assertEquals(37, doc.getScore());
+        assertEquals("31.251433, 121.47522", doc.getLocation());
+        assertEquals("true", doc.getIsAD());
+        assertEquals(Arrays.asList("7天酒店", "四川北路商业区"), doc.getSuggestion());
+    }
+
+    @Test
+    void testDecodeFilteredSource() {
+        HotelDoc doc = HotelDocDecoder.decode(hit("{\"id\":\"1\",\"price\":null,\"location\":{\"lat\":31.2,\"lon\":121.4}}"));
+        assertEquals(1L, doc.getId());
+        assertNull(doc.getPrice());
+        assertNull(doc.getName());
+        assertEquals("31.2, 121.4", doc.getLocation());
+    }
+
+    private static SearchHit hit(String source) {
+        SearchHit hit = new SearchHit(1);
+        hit.sourceRef(new BytesArray(source));
+        return hit;
+    }
+}
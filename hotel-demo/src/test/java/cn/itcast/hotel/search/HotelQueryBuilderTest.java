@@ -0,0 +1,49 @@
+package cn.itcast.hotel.search;
+
+import cn.itcast.hotel.pojo.RequestParams;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.GeoDistanceQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.FilterAggregationBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotelQueryBuilderTest {
+
+    @Test
+    void testGeoRingQueryKeepsFiltersAndCountsAllMatches() {
+        RequestParams params = new RequestParams();
+        params.setCity("上海");
+        params.setLocation("31.21, 121.5");
+        SearchRequest request = new SearchRequest("hotel");
+        HotelQueryBuilder.buildGeoRingQuery(params, request, 3, true);
+
+        BoolQueryBuilder bool = (BoolQueryBuilder) ((FunctionScoreQueryBuilder) request.source().query()).query();
+        assertEquals(2, bool.filter().size());
+        GeoDistanceQueryBuilder ring = (GeoDistanceQueryBuilder) bool.filter().get(1);
+        assertEquals(3000, ring.distance(), 0.001);
+        assertEquals(31.21, ring.point().lat(), 0.000001);
+
+        AggregationBuilder global = request.source().aggregations().getAggregatorFactories().iterator().next();
+        assertEquals(HotelQueryBuilder.GEO_RING_TOTAL_AGG, global.getName());
+        FilterAggregationBuilder matched = (FilterAggregationBuilder) global.getSubAggregations().iterator().next();
+        //统计完整命中数的查询里不能带半径过滤
+        BoolQueryBuilder all = (BoolQueryBuilder) matched.getFilter();
+        assertEquals(1, all.filter().size());
+        assertTrue(all.filter().stream().noneMatch(q -> q instanceof GeoDistanceQueryBuilder));
+    }
+
+    @Test
+    void testLaterRingsSkipTotalAggregation() {
+        RequestParams params = new RequestParams();
+        params.setLocation("31.21, 121.5");
+        SearchRequest request = new SearchRequest("hotel");
+        HotelQueryBuilder.buildGeoRingQuery(params, request, 10, false);
+        assertNull(request.source().aggregations());
+    }
+}
@@ -0,0 +1,49 @@
+package cn.itcast.hotel.suggest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SuggestionTrieTest {
+
+    @Test
+    void testPrefixIgnoresCaseAndDuplicates() {
+        SuggestionTrie trie = new SuggestionTrie();
+        trie.add("如家");
+        trie.add("如家");
+        trie.add("如家精选");
+        trie.add("7天酒店");
+        trie.add("Hilton");
+        assertEquals(Arrays.asList("如家", "如家精选"), trie.prefix("如", 10));
+        assertEquals(Collections.singletonList("Hilton"), trie.prefix("hil", 10));
+        assertEquals(4, trie.size());
+    }
+
+    @Test
+    void testLimit() {
+        SuggestionTrie trie = new SuggestionTrie();
+        for (int i = 0; i < 20; i++) {
+            trie.add("商圈" + (char) ('a' + i));
+        }
+        assertEquals(10, trie.prefix("商圈", 10).size());
+        assertEquals("商圈a", trie.prefix("商圈", 10).get(0));
+    }
+
+    @Test
+    void testRemoveByReferenceCount() {
+        SuggestionTrie trie = new SuggestionTrie();
+        trie.add("万达");
+        trie.add("万达");
+        trie.add("万达广场");
+        trie.remove("万达");
+        assertEquals(Arrays.asList("万达", "万达广场"), trie.prefix("万", 10));
+        trie.remove("万达");
+        assertEquals(Collections.singletonList("万达广场"), trie.prefix("万", 10));
+        trie.remove("万达广场");
+        assertEquals(Collections.emptyList(), trie.prefix("万", 10));
+        assertEquals(0, trie.size());
+    }
+}